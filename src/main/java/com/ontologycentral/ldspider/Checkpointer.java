@@ -0,0 +1,66 @@
+package com.ontologycentral.ldspider;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.queue.BreadthFirstQueue;
+import com.ontologycentral.ldspider.queue.Checkpoint;
+
+/**
+ * Writes a {@link Checkpoint} of a breadth-first crawl every so often while
+ * the lookup threads of a hop are running.
+ */
+public class Checkpointer extends Thread {
+	private static final Logger _log = Logger.getLogger(Checkpointer.class.getName());
+
+	final File _file;
+	final BreadthFirstQueue _queue;
+	final Frontier _frontier;
+	final int _hop;
+	final long _interval;
+
+	volatile boolean _stop;
+
+	public Checkpointer(File file, BreadthFirstQueue queue, Frontier frontier, int hop, long interval) {
+		super("Checkpointer");
+		_file = file;
+		_queue = queue;
+		_frontier = frontier;
+		_hop = hop;
+		_interval = interval;
+		_stop = false;
+		setDaemon(true);
+	}
+
+	/**
+	 * Stop, and wait for a checkpoint being written to be complete.
+	 */
+	public void shutdown() {
+		_stop = true;
+		interrupt();
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			_log.info(e.getMessage());
+		}
+	}
+
+	public void run() {
+		while (!_stop) {
+			try {
+				Thread.sleep(_interval);
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			try {
+				Checkpoint.write(_file, _queue, _frontier, _hop);
+			} catch (IOException e) {
+				_log.warning("cannot write checkpoint to " + _file + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.Set;
 import java.util.logging.Logger;
 
@@ -19,8 +20,20 @@ public class CloseablesCloser extends Thread implements Set<Closeable> {
 
 	private Set<Closeable> _streams = new HashSet<Closeable>();
 
+	/**
+	 * Closed before the others, e.g. as they write to them.
+	 */
+	private Set<Closeable> _first = new LinkedHashSet<Closeable>();
+
 	public void run() {
 		_log.info("Closing down some closeables...");
+		for (Closeable c : _first) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 		for (Closeable c : _streams) {
 			try {
 				c.close();
@@ -35,6 +48,14 @@ public class CloseablesCloser extends Thread implements Set<Closeable> {
 		return _streams.add(e);
 	}
 
+	/**
+	 * Add a Closeable to be closed before those added using
+	 * {@link #add(Closeable)}.
+	 */
+	public boolean addFirst(Closeable e) {
+		return _first.add(e);
+	}
+
 	public boolean addAll(Collection<? extends Closeable> c) {
 		return _streams.addAll(c);
 	}
@@ -61,7 +82,7 @@ public class CloseablesCloser extends Thread implements Set<Closeable> {
 	}
 
 	public boolean remove(Object o) {
-		return _streams.remove(o);
+		return _first.remove(o) | _streams.remove(o);
 	}
 
 	public boolean removeAll(Collection<?> c) {
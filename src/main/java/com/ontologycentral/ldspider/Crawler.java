@@ -1,5 +1,6 @@
 package com.ontologycentral.ldspider;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -8,6 +9,7 @@ import java.util.logging.Logger;
 import org.semanticweb.yars.nx.parser.Callback;
 import org.semanticweb.yars.tld.TldManager;
 
+import com.ontologycentral.ldspider.frontier.ContinuousFrontier;
 import com.ontologycentral.ldspider.frontier.Frontier;
 import com.ontologycentral.ldspider.hooks.content.ContentHandler;
 import com.ontologycentral.ldspider.hooks.content.ContentHandlerRdfXml;
@@ -27,6 +29,8 @@ import com.ontologycentral.ldspider.http.ConnectionManager;
 import com.ontologycentral.ldspider.http.LookupThread;
 import com.ontologycentral.ldspider.http.robot.Robots;
 import com.ontologycentral.ldspider.queue.BreadthFirstQueue;
+import com.ontologycentral.ldspider.queue.Checkpoint;
+import com.ontologycentral.ldspider.queue.ContinuousQueue;
 import com.ontologycentral.ldspider.queue.DiskBreadthFirstQueue;
 import com.ontologycentral.ldspider.queue.DummyRedirects;
 import com.ontologycentral.ldspider.queue.LoadBalancingQueue;
@@ -55,6 +59,15 @@ public class Crawler {
 	
 	int _threads;
 	
+	/**
+	 * Checkpoints of breadth-first crawls are written to _checkpoint every
+	 * _checkpointInterval ms and after each hop; _resume is the checkpoint to
+	 * resume from.
+	 */
+	File _checkpoint;
+	long _checkpointInterval;
+	File _resume;
+	
 	/**
 	 * The Crawling mode.
 	 * Defines whether ABox and/or TBox links are followed and whether an extra TBox round is done.
@@ -230,6 +243,27 @@ public class Crawler {
 		_links = links;
 	}
 	
+	/**
+	 * Write checkpoints of breadth-first crawls with the in-memory queue.
+	 * 
+	 * @param checkpoint the file to write to
+	 * @param interval ms between two checkpoints during a hop
+	 */
+	public void setCheckpoint(File checkpoint, long interval) {
+		_checkpoint = checkpoint;
+		_checkpointInterval = interval;
+	}
+	
+	/**
+	 * Resume the next breadth-first crawl with the in-memory queue from a
+	 * checkpoint, instead of scheduling the frontier.
+	 * 
+	 * @param checkpoint the checkpoint
+	 */
+	public void setResume(File checkpoint) {
+		_resume = checkpoint;
+	}
+	
 	public void evaluateBreadthFirst(Frontier frontier, Seen seen, Redirects redirects, int depth, int maxuris, int maxplds, int minActPlds, boolean minActPldsAlready4Seedlist, Mode crawlingMode) {
 		Redirects r = redirects;
 		if (_queue != null)
@@ -251,7 +285,33 @@ public class Crawler {
 			_links = new LinkFilterDefault(frontier);
 		}
 		
-		_queue.schedule(frontier);
+		int start = 0;
+		
+		if ((_resume != null || _checkpoint != null) && !(_queue instanceof BreadthFirstQueue)) {
+			_log.warning("checkpoints are only supported with the in-memory queue");
+		}
+		
+		if (_resume != null && _queue instanceof BreadthFirstQueue) {
+			try {
+				start = Checkpoint.read(_resume, (BreadthFirstQueue) _queue, frontier);
+			} catch (IOException e) {
+				throw new RuntimeException("cannot resume from " + _resume, e);
+			}
+			_resume = null;
+			
+			if (CrawlerConstants.SPLIT_HOPWISE && start > 0) {
+				for (TakingHopsIntoAccount thia : CrawlerConstants.THOSE_WHO_TAKE_HOPS_INTO_ACCOUNT) {
+					try {
+						thia.nextHop(start);
+					} catch (Exception e) {
+						e.printStackTrace();
+					}
+				}
+			}
+		} else {
+			_queue.schedule(frontier);
+			checkpoint(frontier, 0);
+		}
 		
 		_links.setFollowABox(crawlingMode.followABox());
 		_links.setFollowTBox(crawlingMode.followTBox());
@@ -259,7 +319,7 @@ public class Crawler {
 		_log.info(_queue.toString());
 	
 		int rounds = crawlingMode.doExtraRound() ? depth + 1 : depth;
-		for (int curRound = 0; (curRound <= rounds)
+		for (int curRound = start; (curRound <= rounds)
 				&& (CrawlerConstants.URI_LIMIT_ENABLED ? (LookupThread
 				.getOverall200FetchesWithNonEmptyRDF() < CrawlerConstants.URI_LIMIT_WITH_NON_EMPTY_RDF)
 				: true); curRound++) {
@@ -284,6 +344,19 @@ public class Crawler {
 			for (Thread t : ts) {
 				t.start();
 			}
+			
+			Checkpointer cp = null;
+			if (_checkpoint != null && _queue instanceof BreadthFirstQueue) {
+				cp = new Checkpointer(_checkpoint, (BreadthFirstQueue) _queue, frontier, curRound, _checkpointInterval);
+				cp.start();
+			}
+			
+			// no need to prepare a hop after the last one
+			Pipeliner pl = null;
+			if (CrawlerConstants.PIPELINE_TAIL > -1 && curRound < rounds && _queue.canPrepare()) {
+				pl = new Pipeliner(ts, _queue, frontier, CrawlerConstants.PIPELINE_TAIL, 1000);
+				pl.start();
+			}
 	
 			for (Thread t : ts) {
 				try {
@@ -296,7 +369,16 @@ public class Crawler {
 			
 			m.shutdown();
 			
+			if (cp != null) {
+				cp.shutdown();
+			}
+			
+			if (pl != null && pl.shutdown()) {
+				_log.info("the next hop has been prepared in the tail of round " + curRound);
+			}
+			
 			_log.info("ROUND " + curRound + " DONE with " + _queue.size() + " uris remaining in queue");
+			_log.info("connections: " + _cm);
 			_log.fine("old queue: \n" + _queue.toString());
 	
 			if (_output instanceof LastReporter)
@@ -316,12 +398,27 @@ public class Crawler {
 			}
 
 			_queue.schedule(frontier);
+			checkpoint(frontier, curRound + 1);
 	
 			_eh.handleNextRound();
 	
 			_log.fine("new queue: \n" + _queue.toString());
 		}
 	}
+	/**
+	 * Write a checkpoint of the breadth-first crawl, if checkpoints are to be
+	 * written.
+	 */
+	void checkpoint(Frontier frontier, int hop) {
+		if (_checkpoint != null && _queue instanceof BreadthFirstQueue) {
+			try {
+				Checkpoint.write(_checkpoint, (BreadthFirstQueue) _queue, frontier, hop);
+			} catch (IOException e) {
+				_log.warning("cannot write checkpoint to " + _checkpoint + ": " + e.getMessage());
+			}
+		}
+	}
+	
 	public void evaluateBreadthFirst(Frontier frontier, Seen seen, Redirects redirects, int depth, int maxuris, int maxplds, int minActPlds, boolean minActPldsAlready4Seedlist) {
 		evaluateBreadthFirst(frontier, seen, redirects, depth, maxuris, maxplds, minActPlds, minActPldsAlready4Seedlist, Mode.ABOX_AND_TBOX);
 	}
@@ -357,50 +454,159 @@ public class Crawler {
 		
 		_log.fine(_queue.toString());
 
+		LoadBalancingQueue lbq = (LoadBalancingQueue) _queue;
+
 		int i = 0;
 		int uris = 0;
-		
-		while (uris < maxuris && _queue.size() > 0) {
-			int size = _queue.size();
-			
-			List<Thread> ts = new ArrayList<Thread>();
 
-			for (int j = 0; j < _threads; j++) {
-				LookupThread lt = new LookupThread(_cm, _queue, _contentHandler, _output, _links, _robots, _eh, _ff, _blacklist, j);
-				ts.add(lt); //new Thread(lt,"LookupThread-"+j));		
-			}
+		// a round only ends if the queue runs dry or maxuris are reached
+		lbq.setPollLimit(maxuris);
 
-			_log.info("Starting threads round " + i++ + " with " + _queue.size() + " uris");
-			
-			for (Thread t : ts) {
-				t.start();
-			}
-			
-			Monitor m = new Monitor(ts, System.err, 1000*10);
-			m.start();
+		// the threads wait for the next round instead of stopping, so the
+		// same threads are kept for the whole crawl
+		lbq.setWaitForRounds(true);
 
-			for (Thread t : ts) {
-				try {
-					t.join();
-				} catch (InterruptedException e1) {
-					_log.info(e1.getMessage());
-					//e1.printStackTrace();
-				}
+		List<Thread> ts = new ArrayList<Thread>();
+
+		for (int j = 0; j < _threads; j++) {
+			LookupThread lt = new LookupThread(_cm, _queue, _contentHandler, _output, _links, _robots, _eh, _ff, _blacklist, j);
+			ts.add(lt);
+		}
+
+		_log.info("Starting threads round " + i++ + " with " + _queue.size() + " uris");
+
+		int size = _queue.size();
+
+		for (Thread t : ts) {
+			t.start();
+		}
+
+		Monitor m = new Monitor(ts, System.err, 1000*10);
+		m.start();
+
+		while (true) {
+			int alive;
+			try {
+				while (!lbq.awaitRound(alive = alive(ts), 1000))
+					;
+			} catch (InterruptedException e1) {
+				_log.info(e1.getMessage());
+				break;
 			}
-			
-			m.shutdown();
-			
+
 			uris += size - _queue.size();
-			
+
 			_log.info("ROUND " + i + " DONE with " + _queue.size() + " uris remaining in queue");
 			_log.fine("old queue: \n" + _queue.toString());
 
 			_log.fine("frontier" + frontier);
-			
+
 			_queue.schedule(frontier);
 
 			_log.info("new queue: \n" + _queue.toString());
+
+			if (uris >= maxuris || _queue.size() == 0 || alive == 0)
+				break;
+
+			size = _queue.size();
+			lbq.setPollLimit(maxuris - uris);
+
+			_log.info("Starting round " + i++ + " with " + size + " uris");
+
+			lbq.nextRound();
 		}
+
+		lbq.setWaitForRounds(false);
+
+		for (Thread t : ts) {
+			try {
+				t.join();
+			} catch (InterruptedException e1) {
+				_log.info(e1.getMessage());
+				//e1.printStackTrace();
+			}
+		}
+
+		m.shutdown();
+	}
+
+	/**
+	 * @return the number of threads still running
+	 */
+	static int alive(List<Thread> ts) {
+		int alive = 0;
+		for (Thread t : ts) {
+			if (t.isAlive())
+				alive++;
+		}
+		return alive;
+	}
+	
+	/**
+	 * Crawl without rounds: one set of threads fetches until there is nothing
+	 * left within depth hops of the seeds. URIs found go into the queue right
+	 * away, so no thread waits for the slowest PLD of a hop. The links only
+	 * reach the queue if the frontier is a {@link ContinuousFrontier}, the
+	 * hopwise splitting of the output does not apply.
+	 * 
+	 * @param frontier the seeds
+	 * @param depth maximum number of hops from the seeds
+	 */
+	public void evaluateContinuous(Frontier frontier, Seen seen, Redirects redirects, int depth) {
+		Redirects r = redirects;
+		if (_queue != null)
+			r = _queue.getRedirects();
+		if (r == null)
+			try {
+				r = _redirsClass.newInstance();
+			} catch (InstantiationException e) {
+				_log.info("InstantiationException. Using dummy.");
+				r = new DummyRedirects();
+			} catch (IllegalAccessException e) {
+				_log.info("IllegalAccessException. Using dummy.");
+				r = new DummyRedirects();
+			}
+
+		_queue = new ContinuousQueue(_tldm, r, seen, depth);
+
+		if (_links == null) {
+			_links = new LinkFilterDefault(frontier);
+		}
+
+		_queue.schedule(frontier);
+
+		_log.info(_queue.toString());
+
+		List<Thread> ts = new ArrayList<Thread>();
+
+		for (int j = 0; j < _threads; j++) {
+			LookupThread lt = new LookupThread(_cm, _queue, _contentHandler, _output, _links, _robots, _eh, _ff, _blacklist, j);
+			ts.add(lt);
+		}
+
+		_log.info("Starting threads with " + _queue.size() + " uris");
+
+		Monitor m = new Monitor(ts, System.err, 1000*10);
+		m.start();
+
+		for (Thread t : ts) {
+			t.start();
+		}
+
+		for (Thread t : ts) {
+			try {
+				t.join();
+			} catch (InterruptedException e1) {
+				_log.info(e1.getMessage());
+			}
+		}
+
+		m.shutdown();
+
+		_log.info("DONE with " + _queue.size() + " uris remaining in queue");
+
+		if (_output instanceof LastReporter)
+			_log.info("Last non-empty context: " + ((LastReporter) _output).whoWasLast());
 	}
 	
 	public void evaluateSequential(Frontier frontier, Seen seen) {
@@ -510,6 +716,7 @@ public class Crawler {
 		this._redirsClass = _redirsClass;
 	}
 	public void close() {
+		_log.info("connections: " + _cm);
 		_cm.shutdown();
 		_eh.close();
 	}
@@ -55,6 +55,31 @@ public class CrawlerConstants {
 	// for bfs queue: max time after plds get re-visited
 	public static long MAX_DELAY = 2*MIN_DELAY;
 	
+	// number of uris a thread polls from the queue at once, from different plds
+	public static int POLL_BATCH = 8;
+	
+	// adapt the delay per pld, off unless asked for: starts at MIN_DELAY, at
+	// least LATENCY_FACTOR times the response time, shrinks by STEP ms per
+	// good lookup down to MIN, doubles on errors, timeouts, 429 and 5xx up
+	// to MAX
+	public static boolean ADAPTIVE_DELAY = false;
+	public static long ADAPTIVE_DELAY_MIN = 100;
+	public static long ADAPTIVE_DELAY_MAX = 60000;
+	public static long ADAPTIVE_DELAY_STEP = 50;
+	public static int ADAPTIVE_DELAY_LATENCY_FACTOR = 2;
+	// plds with a delay beyond this are treated like SITES_SLOW
+	public static long ADAPTIVE_DELAY_SLOW = 10000;
+	// honour Crawl-delay in robots.txt and Retry-After on 429/503, but wait
+	// at most that long (ms) for a pld
+	public static long MAX_SERVER_DELAY = 5*60*1000;
+	
+	// for bfs queue: number of threads per shard of the queue
+	public static int THREADS_PER_QUEUE_SHARD = 16;
+	// for bfs queue: one shard per thread, and a thread that has nothing
+	// ready takes over whole plds from the others, such that each pld and its
+	// keep-alive connections mostly stay with one thread
+	public static boolean PLD_AFFINITY = false;
+	
 	// close idle connections
 	public static final int CLOSE_IDLE = 60000;
 	
@@ -69,19 +94,51 @@ public class CrawlerConstants {
 	public static int NB_THREADS;
 	public static boolean DISKFRONTIER_SORT_BEFORE_ITERATING = false;
 	public static boolean DISKFRONTIER_GZIP_FRONTIER = false;
+	// uris the sorting disk frontier sorts in memory at once, larger frontiers
+	// are sorted in runs that are merged
+	public static int DISKFRONTIER_SORT_BUFFER = 1024*1024;
+	// threads sorting the batches of the sorting disk frontier
+	public static int DISKFRONTIER_SORT_THREADS = Runtime.getRuntime().availableProcessors();
+	// uris the disk frontier sorts in memory at once to drop duplicates when
+	// iterating, larger frontiers are sorted in runs on disk
+	public static int DISKFRONTIER_DEDUP_BUFFER = 1024*1024;
+	// uris the disk frontier buffers for writing in the background (0 for
+	// writing by the adding threads), ms between two flushes at most, and
+	// whether to force the file to the disk on each flush
+	public static int DISKFRONTIER_BUFFER = 64*1024;
+	public static long DISKFRONTIER_FLUSH_INTERVAL = 1000;
+	public static boolean DISKFRONTIER_SYNC = false;
 	
 	public static CountLifeTime DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ETERNALLY;
 	public static String DISKBREADTHFIRSTQUEUE_ETERNALCOUNTINPUTFILENAME = null;
 	public static String DISKBREADTHFIRSTQUEUE_ETERNALCOUNTSAVEBASEFILENAME = null;
+	// bytes the disk queue stages in memory before writing to its spill file,
+	// and bytes to read ahead for all plds together while polling
+	public static int DISKBREADTHFIRSTQUEUE_SPILL_BUFFER = 8*1024*1024;
+	public static int DISKBREADTHFIRSTQUEUE_READ_BUFFER = 32*1024*1024;
+	// threads sorting the plds of the disk queue when scheduling a hop
+	public static int DISKBREADTHFIRSTQUEUE_SORT_THREADS = Runtime.getRuntime().availableProcessors();
 	
 	public static boolean BREADTHFIRSTQUEUE_ONDISK = false;
 	
+	// ms between two checkpoints of a breadth-first crawl during a hop
+	public static long CHECKPOINT_INTERVAL = 10*60*1000;
+	
+	// for bfs: prepare the next hop in the background once a lookup thread
+	// runs out of uris or at most that many uris are left, -1 for off
+	public static int PIPELINE_TAIL = -1;
+	
 	public static boolean DUMP_FRONTIER = false;
 	public static String DUMP_FRONTIER_FILENAME = "";
 	
 	public static boolean DUMP_SEEN = false;
 	public static String DUMP_SEEN_BASEFILENAME = "";
 	public static String DUMP_SEEN_FILE_EXTENSION = ""; 
+	
+	// the seen log: uris buffered for the writer thread, and ms between
+	// two flushes at most
+	public static int DUMP_SEEN_BUFFER = 64*1024;
+	public static long DUMP_SEEN_FLUSH_INTERVAL = 1000;
 
 	public static boolean SPLIT_HOPWISE = false;
 	
@@ -0,0 +1,258 @@
+package com.ontologycentral.ldspider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * Writes in a thread of its own, such that the threads handing over what is
+ * to be written do not wait for the disk, nor for each other. Elements are
+ * handed over through a bounded ring buffer: handing over claims a slot with
+ * an atomic increment and does not take a lock; only if the ring is full, the
+ * handing thread waits for the writer. The writer takes the elements in
+ * batches, and commits what it has written, e.g. flushes, at most every
+ * interval ms while there is something to commit, i.e. commits the elements
+ * of an interval as a group.
+ *
+ * {@link #close()} writes and commits all elements handed over so far, so it
+ * should be closed before what it writes to, e.g. via
+ * {@link CloseablesCloser#addFirst(Closeable)}. Subclasses start the thread
+ * once they are set up.
+ */
+public abstract class GroupCommitWriter<E> extends Thread implements Closeable {
+	private static final Logger _log = Logger.getLogger(GroupCommitWriter.class.getName());
+
+	/**
+	 * Largest number of elements written in one go.
+	 */
+	static final int BATCH = 1024;
+
+	final long _interval;
+
+	final AtomicReferenceArray<E> _ring;
+	final int _mask;
+
+	/**
+	 * The next slot to claim, and the next slot to write. The slots in
+	 * between are claimed, but possibly not filled yet.
+	 */
+	final AtomicLong _head;
+	volatile long _tail;
+
+	/**
+	 * The threads in {@link #add(Object)}, which the writer waits for before
+	 * it stops, as they may have claimed a slot after it was closed.
+	 */
+	final AtomicInteger _adding;
+
+	/**
+	 * The slot up to which a commit is asked for, and the slot up to which
+	 * the elements are committed.
+	 */
+	final AtomicLong _wanted;
+	volatile long _committed;
+
+	volatile boolean _waiting;
+	volatile boolean _closed;
+
+	volatile long _written;
+
+	/**
+	 * @param name
+	 *            the name of the thread
+	 * @param capacity
+	 *            the number of elements the ring holds, rounded up to a power
+	 *            of two
+	 * @param interval
+	 *            ms between two commits at most
+	 */
+	public GroupCommitWriter(String name, int capacity, long interval) {
+		super(name);
+
+		_interval = Math.max(1, interval);
+
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		_ring = new AtomicReferenceArray<E>(size);
+		_mask = size - 1;
+
+		_head = new AtomicLong(0);
+		_tail = 0;
+		_adding = new AtomicInteger(0);
+		_wanted = new AtomicLong(0);
+		_committed = 0;
+
+		setDaemon(true);
+	}
+
+	/**
+	 * Write an element, called by the writer thread only.
+	 */
+	protected abstract void write(E e) throws IOException;
+
+	/**
+	 * Commit what has been written, called by the writer thread only.
+	 */
+	protected abstract void commit() throws IOException;
+
+	/**
+	 * Hand an element over to be written.
+	 *
+	 * @throws IllegalStateException
+	 *             if closed, or if the writer has stopped while the ring is
+	 *             full
+	 */
+	public void add(E e) {
+		// announce first, such that the writer does not stop in between
+		// checking for close and claiming the slot
+		_adding.incrementAndGet();
+		try {
+			if (_closed) {
+				throw new IllegalStateException(getName() + " closed");
+			}
+
+			long seq = _head.getAndIncrement();
+
+			// wait for the writer to free the slot
+			while (seq - _tail >= _ring.length()) {
+				if (!isAlive()) {
+					throw new IllegalStateException(getName() + " has stopped");
+				}
+				LockSupport.unpark(this);
+				Thread.yield();
+			}
+
+			_ring.lazySet((int) seq & _mask, e);
+		} finally {
+			_adding.decrementAndGet();
+		}
+
+		if (_waiting) {
+			LockSupport.unpark(this);
+		}
+	}
+
+	/**
+	 * Wait until the elements handed over so far are written and committed.
+	 *
+	 * @throws IllegalStateException
+	 *             if the writer has stopped before committing them
+	 */
+	public void sync() {
+		long target = _head.get();
+
+		long wanted;
+		while ((wanted = _wanted.get()) < target && !_wanted.compareAndSet(wanted, target)) {
+			;
+		}
+		LockSupport.unpark(this);
+
+		while (_committed < target && isAlive()) {
+			LockSupport.parkNanos(this, TimeUnit.MICROSECONDS.toNanos(100));
+		}
+
+		if (_committed < target) {
+			throw new IllegalStateException(getName() + " has stopped before committing");
+		}
+	}
+
+	public void run() {
+		Object[] batch = new Object[BATCH];
+		long committed = System.currentTimeMillis();
+		boolean dirty = false;
+
+		while (true) {
+			long tail = _tail;
+			int n = 0;
+
+			E e;
+			while (n < BATCH && (e = _ring.get((int) tail & _mask)) != null) {
+				_ring.lazySet((int) tail & _mask, null);
+				batch[n++] = e;
+				tail++;
+			}
+			_tail = tail;
+
+			for (int i = 0; i < n; i++) {
+				try {
+					@SuppressWarnings("unchecked")
+					E b = (E) batch[i];
+					write(b);
+				} catch (IOException ex) {
+					_log.warning(getName() + " cannot write: " + ex.getMessage());
+				} catch (RuntimeException ex) {
+					_log.warning(getName() + " cannot write: " + ex.getMessage());
+				}
+				batch[i] = null;
+			}
+			_written += n;
+			dirty = dirty || n > 0;
+
+			long now = System.currentTimeMillis();
+			boolean asked = _wanted.get() > _committed && tail >= _wanted.get();
+			if (asked || dirty && (now - committed >= _interval || n == 0 && _closed)) {
+				commit(tail);
+				committed = now;
+				dirty = false;
+			}
+
+			if (n == 0) {
+				// done once nobody is handing over any more, and everything
+				// claimed has been written
+				if (_closed && _adding.get() == 0 && _tail == _head.get()) {
+					break;
+				}
+
+				_waiting = true;
+				if (_ring.get((int) _tail & _mask) == null && _wanted.get() <= _committed) {
+					LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(dirty ? Math.max(1, _interval - (now - committed)) : _interval));
+				}
+				_waiting = false;
+			}
+		}
+
+		commit(_tail);
+	}
+
+	void commit(long tail) {
+		try {
+			commit();
+		} catch (IOException e) {
+			_log.warning(getName() + " cannot commit: " + e.getMessage());
+		}
+		_committed = tail;
+	}
+
+	/**
+	 * @return the number of elements written so far
+	 */
+	public long getWritten() {
+		return _written;
+	}
+
+	/**
+	 * Write the elements handed over so far, commit and stop.
+	 */
+	public void close() throws IOException {
+		if (_closed) {
+			return;
+		}
+		_closed = true;
+		LockSupport.unpark(this);
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		_log.info(getName() + " wrote " + _written);
+	}
+}
@@ -4,6 +4,7 @@ import java.io.BufferedInputStream;
 import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.Flushable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
@@ -19,7 +20,7 @@ import com.ontologycentral.ldspider.hooks.sink.TakingHopsIntoAccount;
  * @author Tobias Kaefer
  */
 public class HopwiseSplittingFileOutputter implements Appendable,
-		TakingHopsIntoAccount, Closeable {
+		TakingHopsIntoAccount, Closeable, Flushable {
 
 	static Logger _log = Logger
 			.getLogger(HopwiseSplittingFileOutputter.class.getName());
@@ -84,7 +85,10 @@ public class HopwiseSplittingFileOutputter implements Appendable,
 		this.nextHop(_hop + 1);
 	}
 
-	public void nextHop(int hop) throws IOException {
+	/**
+	 * Appends that come in meanwhile wait for the file of the next hop.
+	 */
+	public synchronized void nextHop(int hop) throws IOException {
 		_log.info("Preparing " + this.getClass().getSimpleName()
 				+ " for files named like " + _basefilename + "."
 				+ _basefileextension + " for next hop #" + hop);
@@ -141,9 +145,9 @@ public class HopwiseSplittingFileOutputter implements Appendable,
 	}
 
 	public Appendable append(CharSequence csq) throws IOException {
-		if (_state != State.ACCEPTING)
-			throw new IllegalStateException();
 		synchronized (this) {
+			if (_state != State.ACCEPTING)
+				throw new IllegalStateException();
 			_app.append(csq);
 		}
 		return this;
@@ -151,22 +155,27 @@ public class HopwiseSplittingFileOutputter implements Appendable,
 
 	public Appendable append(CharSequence csq, int start, int end)
 			throws IOException {
-		if (_state != State.ACCEPTING)
-			throw new IllegalStateException();
 		synchronized (this) {
+			if (_state != State.ACCEPTING)
+				throw new IllegalStateException();
 			_app.append(csq, start, end);
 		}
 		return this;
 	}
 
 	public Appendable append(char c) throws IOException {
-		if (_state != State.ACCEPTING)
-			throw new IllegalStateException();
 		synchronized (this) {
+			if (_state != State.ACCEPTING)
+				throw new IllegalStateException();
 			_app.append(c);
 		}
 		return this;
 	}
+
+	public synchronized void flush() throws IOException {
+		if (_state == State.ACCEPTING)
+			((Flushable) _app).flush();
+	}
 	
 	public void close() throws IOException {
 		_clo.close();
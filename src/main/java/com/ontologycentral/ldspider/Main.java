@@ -55,6 +55,7 @@ import org.semanticweb.yars.util.PleaseCloseTheDoorWhenYouLeaveIterator;
 import com.ontologycentral.ldspider.any23.CallbackNQuadTripleHandler;
 import com.ontologycentral.ldspider.any23.ContentHandlerAny23;
 import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.ContinuousFrontier;
 import com.ontologycentral.ldspider.frontier.DiskFrontier;
 import com.ontologycentral.ldspider.frontier.Frontier;
 import com.ontologycentral.ldspider.frontier.RankedFrontier;
@@ -82,8 +83,13 @@ import com.ontologycentral.ldspider.http.Headers;
 import com.ontologycentral.ldspider.queue.DummyRedirects;
 import com.ontologycentral.ldspider.queue.HashTableRedirects;
 import com.ontologycentral.ldspider.queue.Redirects;
+import com.ontologycentral.ldspider.queue.SnapshotRedirects;
+import com.ontologycentral.ldspider.seen.BloomFilterSeen;
+import com.ontologycentral.ldspider.seen.DiskSeen;
+import com.ontologycentral.ldspider.seen.FingerprintSeen;
 import com.ontologycentral.ldspider.seen.HashSetSeen;
 import com.ontologycentral.ldspider.seen.Seen;
+import com.ontologycentral.ldspider.seen.SnapshotSeen;
 import com.ontologycentral.ldspider.seen.WrappingCallbackSeen;
 
 public class Main {
@@ -132,6 +138,11 @@ public class Main {
 		opti.setArgName("max-uris");
 		strategy.addOption(opti);
 
+		Option cont = new Option("cc", false, "crawl continuously, i.e. without rounds, up to depth hops from the seeds");
+		cont.setArgs(1);
+		cont.setArgName("depth");
+		strategy.addOption(cont);
+
 		Option raw = new Option("d", false, "download seed URIs and archive raw data");
 		raw.setArgs(1);
 		raw.setArgName("directory");
@@ -162,6 +173,14 @@ public class Main {
 		memory.setArgName("frontier-file");
 		options.addOption(memory);
 
+		Option memoryFlush = OptionBuilder
+				.withDescription(
+						"Flush the frontier file of -m at most every that many ms (default "
+								+ CrawlerConstants.DISKFRONTIER_FLUSH_INTERVAL
+								+ "), and with sync force it to the disk each time, for the frontier to survive a crash. 0 writes and flushes each URI as it is added.")
+				.hasArgs(2).withArgName("ms [sync]").create("mflush");
+		options.addOption(memoryFlush);
+
 		Option threads = OptionBuilder.withArgName("threads")
 		.hasArgs(1)
 		.withDescription("number of threads (default "+CrawlerConstants.DEFAULT_NB_THREADS+")")
@@ -275,7 +294,7 @@ public class Main {
 				.withArgName("sort gzip")
 				.hasOptionalArgs(2)
 				.withDescription(
-						"Use SortingDiskFrontier as frontier. If URIs are to be returned sorted, add \"sort\" as value, if all temp files involved are to be gzipped, add \"gzip\".")
+						"Use SortingDiskFrontier as frontier. If URIs are to be returned sorted, add \"sort\" as value, if the blocks of all temp files involved are to be compressed, add \"gzip\".")
 				.create("sdf");
 		options.addOption(sortDF);
 		
@@ -305,13 +324,13 @@ public class Main {
 		
 		Option dbfqInput = OptionBuilder
 				.withDescription(
-						"For the on-disk breadth-first queue (-dbfq), use this file as input for the eternal in-link count.")
+						"For the on-disk breadth-first queue (-dbfq), use this file as input for the eternal in-link count, as saved with -dbfqSave (or gzipped nx as saved by earlier versions).")
 				.hasArg().withArgName("filename").create("dbfqInput");
 		options.addOption(dbfqInput);
 		
 		Option dbfqSave = OptionBuilder
 				.withDescription(
-						"For the on-disk breadth-first queue (-dbfq), save the eternal in-link count per URI after each hop to this file.")
+						"For the on-disk breadth-first queue (-dbfq), save the eternal in-link count per URI after each hop to this file (binary, sorted by URI).")
 				.hasArg().withArgName("basefilename").create("dbfqSave");
 		options.addOption(dbfqSave);
 
@@ -333,9 +352,40 @@ public class Main {
 		
 		Option resumebfc = OptionBuilder
 				.withDescription(
-						"Resume an interrupted breadth-first crawl. Requires a seen file and a redirects file. The old frontier should be the seedlist.")
+						"Resume an interrupted breadth-first crawl. Requires a seen file and a redirects file, or snapshots of them (-snapshot), which are mapped into memory instead of being read. The old frontier should be the seedlist. Resuming from a checkpoint (-resume) is faster and does not lose the hop.")
 				.hasArgs(2).withArgName("seenfile redirectsfile").create("resumebfc");
 		options.addOption(resumebfc);
+
+		Option snapshot = OptionBuilder
+				.withDescription(
+						"Convert a seen file and a redirects file into snapshots for -resumebfc, and exit. A snapshot of seen keeps fingerprints of the URIs, as with -fs. The seen file written while resuming from a snapshot only has the URIs seen since.")
+				.hasArgs(4).withArgName("seenfile redirectsfile seensnapshot redirectssnapshot").create("snapshot");
+		options.addOption(snapshot);
+		
+		Option checkpoint = OptionBuilder
+				.withDescription(
+						"Write checkpoints of a breadth-first crawl with the in-memory queue to file, after each hop and every interval seconds (default "
+								+ CrawlerConstants.CHECKPOINT_INTERVAL / 1000 + ") during a hop. Not with -fs or a snapshot of seen, as they cannot be written out.")
+				.hasArgs(2).withArgName("file [interval]").create("checkpoint");
+		options.addOption(checkpoint);
+		
+		Option pipeline = OptionBuilder
+				.withDescription(
+						"Prepare the next hop of a breadth-first crawl while the current one is finishing, i.e. once a thread runs out of URIs or at most tail URIs (default 0) are left.")
+				.hasOptionalArg().withArgName("tail").create("pipeline");
+		options.addOption(pipeline);
+		
+		Option affinity = OptionBuilder
+				.withDescription(
+						"Pin the PLDs of a breadth-first crawl with the in-memory queue to the threads, such that connections are reused; idle threads take over PLDs from busy ones.")
+				.create("affinity");
+		options.addOption(affinity);
+		
+		Option resume = OptionBuilder
+				.withDescription(
+						"Resume a breadth-first crawl with the in-memory queue from a checkpoint. The seedlist is ignored; use new output files, as the files of the hop resumed are overwritten.")
+				.hasArg().withArgName("file").create("resume");
+		options.addOption(resume);
 		
 		Option diskSeen = OptionBuilder
 				.withDescription(
@@ -343,6 +393,29 @@ public class Main {
 				.hasArg().withArgName("filename").create("ds");
 		options.addOption(diskSeen);
 		
+		// one or the other keeps seen
+		OptionGroup seenStore = new OptionGroup();
+
+		Option fingerprintSeen = OptionBuilder
+				.withDescription(
+						"Keep seen as 64-bit fingerprints of the URIs off the heap, sized for the number of URIs expected (default 1M). A new URI is taken as seen with a probability of the number of URIs seen over 2^64.")
+				.hasOptionalArg().withArgName("uris").create("fs");
+		seenStore.addOption(fingerprintSeen);
+		
+		Option sortedSeen = OptionBuilder
+				.withDescription(
+						"Keep seen in sorted runs on disk, for crawls larger than the memory, with the number of URIs buffered in memory (default 1M). Runs in the directory from an earlier crawl count as seen.")
+				.hasArgs(2).withArgName("directory [buffer]").create("sd");
+		seenStore.addOption(sortedSeen);
+
+		options.addOptionGroup(seenStore);
+		
+		Option bloomSeen = OptionBuilder
+				.withDescription(
+						"Put a Bloom filter in front of seen that answers lookups of URIs not seen without asking seen, sized for the number of URIs given at first (default 1M) and growing as needed. Pays off with -sd.")
+				.hasOptionalArg().withArgName("uris").create("bf");
+		options.addOption(bloomSeen);
+		
 		Option hopWiseSplit = OptionBuilder.withDescription(
 				"split output hopwise").create("hopsplit");
 		options.addOption(hopWiseSplit);
@@ -353,8 +426,8 @@ public class Main {
 		options.addOption(lfMakeNoDifference);
 		
 		Option politenessDelay = OptionBuilder
-				.withDescription("Time to wait between two requests to a PLD.")
-				.hasArg(true).withArgName("time in ms").create("polite");
+				.withDescription("Time to wait between two requests to a PLD. With min, the time adapts to each PLD, starting at time: it shrinks down to min while the server answers quickly, and grows on errors and slow answers.")
+				.hasArgs(2).withArgName("time [min] in ms").create("polite");
 		options.addOption(politenessDelay);
 
 		CommandLineParser parser = new BasicParser();
@@ -370,7 +443,15 @@ public class Main {
 //				System.exit(-1);    
 			}
 
-			run(cmd);
+			if (cmd.hasOption("snapshot")) {
+				String[] vals = cmd.getOptionValues("snapshot");
+				if (vals.length < 4) {
+					throw new org.apache.commons.cli.ParseException("-snapshot requires four files");
+				}
+				writeSnapshots(vals[0], vals[1], vals[2], vals[3]);
+			} else {
+				run(cmd);
+			}
 		} catch (org.apache.commons.cli.ParseException e) {
 			formatter.printHelp(80," ","ERROR: "+e.getMessage()+"\n", options,"\nError occured! Please see the error message above",true );
 			System.exit(-1);
@@ -383,7 +464,7 @@ public class Main {
 		}
 	}
 
-	private static void run(CommandLine cmd) throws FileNotFoundException, IOException {
+	private static void run(CommandLine cmd) throws FileNotFoundException, IOException, org.apache.commons.cli.ParseException {
 		// check seed file
 		Iterable<URI> seeds = null;
 //		if (cmd.hasOption("s")) {
@@ -543,10 +624,23 @@ public class Main {
 
 		Frontier frontier = new BasicFrontier();
 		
-		if (cmd.hasOption("rf"))
+		if (cmd.hasOption("cc"))
+			frontier = new ContinuousFrontier();
+		else if (cmd.hasOption("rf"))
 			frontier = new RankedFrontier();
-		else if (cmd.hasOption("m")) 
-			frontier = new DiskFrontier(new File(cmd.getOptionValue("m")));
+		else if (cmd.hasOption("m")) {
+			if (cmd.hasOption("mflush")) {
+				String[] mvals = cmd.getOptionValues("mflush");
+				CrawlerConstants.DISKFRONTIER_FLUSH_INTERVAL = Long.parseLong(mvals[0]);
+				if (CrawlerConstants.DISKFRONTIER_FLUSH_INTERVAL <= 0)
+					CrawlerConstants.DISKFRONTIER_BUFFER = 0;
+				CrawlerConstants.DISKFRONTIER_SYNC = mvals.length > 1 && mvals[1].equals("sync");
+			}
+			DiskFrontier df = new DiskFrontier(new File(cmd.getOptionValue("m")));
+			// write the uris handed over before the file is closed
+			CrawlerConstants.CLOSER.addFirst(df);
+			frontier = df;
+		}
 		else if (cmd.hasOption("sdf")) {
 			List<String> l = Arrays.asList(cmd.getOptionValues("sdf"));
 			if (l.contains("gzip"))
@@ -565,10 +659,14 @@ public class Main {
 			
 		frontier.setErrorHandler(eh);
 		
-		_log.info("loading seedlist into frontier");
-		
-		for (URI u: seeds)
-			frontier.add(u);
+		if (cmd.hasOption("resume")) {
+			_log.info("resuming from checkpoint, not loading the seedlist");
+		} else {
+			_log.info("loading seedlist into frontier");
+
+			for (URI u: seeds)
+				frontier.add(u);
+		}
 
 		_log.info("frontier done");
 
@@ -601,8 +699,14 @@ public class Main {
 		links.setErrorHandler(eh);
 
 		CrawlerConstants.NB_THREADS = CrawlerConstants.DEFAULT_NB_THREADS;
-		if (cmd.hasOption("polite"))
-			CrawlerConstants.MIN_DELAY = Long.parseLong(cmd.getOptionValue("polite"));
+		if (cmd.hasOption("polite")) {
+			String[] politevals = cmd.getOptionValues("polite");
+			CrawlerConstants.MIN_DELAY = Long.parseLong(politevals[0]);
+			if (politevals.length > 1) {
+				CrawlerConstants.ADAPTIVE_DELAY = true;
+				CrawlerConstants.ADAPTIVE_DELAY_MIN = Long.parseLong(politevals[1]);
+			}
+		}
 
 		if (cmd.hasOption("t")) {
 			CrawlerConstants.NB_THREADS = Integer.parseInt(cmd.getOptionValue("t"));
@@ -726,11 +830,42 @@ public class Main {
 //		}
 		
 		
+		// a checkpoint holds the URIs seen, which fingerprints do not give back
+		if (cmd.hasOption("checkpoint")) {
+			if (cmd.hasOption("fs")) {
+				throw new org.apache.commons.cli.ParseException("-checkpoint cannot be used with -fs");
+			}
+			if (cmd.hasOption("resumebfc") && SnapshotSeen.isSnapshot(new File(cmd.getOptionValues("resumebfc")[0]))) {
+				throw new org.apache.commons.cli.ParseException("-checkpoint cannot be used with a snapshot of seen");
+			}
+		}
+
 		Seen seen = null;
+		Seen base;
+		if (cmd.hasOption("fs")) {
+			base = cmd.getOptionValue("fs") == null ? new FingerprintSeen() : new FingerprintSeen(Long.parseLong(cmd.getOptionValue("fs")));
+		} else if (cmd.hasOption("sd")) {
+			String[] sdvals = cmd.getOptionValues("sd");
+			DiskSeen ds = sdvals.length > 1 ? new DiskSeen(new File(sdvals[0]), Integer.parseInt(sdvals[1])) : new DiskSeen(new File(sdvals[0]));
+			CrawlerConstants.CLOSER.add(ds);
+			base = ds;
+		} else {
+			base = new HashSetSeen();
+		}
+		Seen store = base;
+		if (cmd.hasOption("bf")) {
+			base = cmd.getOptionValue("bf") == null ? new BloomFilterSeen(store) : new BloomFilterSeen(store, Long.parseLong(cmd.getOptionValue("bf")), 0.01);
+		}
 		if (cmd.hasOption("ds")) {
-			seen = new WrappingCallbackSeen(new HashSetSeen(),
-					new CallbackNxAppender(new HopwiseSplittingFileOutputter(
-							cmd.getOptionValue("ds"), true)));
+			HopwiseSplittingFileOutputter dsout = new HopwiseSplittingFileOutputter(
+					cmd.getOptionValue("ds"), true);
+			WrappingCallbackSeen wcs = new WrappingCallbackSeen(base,
+					new CallbackNxAppender(dsout), dsout,
+					CrawlerConstants.DUMP_SEEN_BUFFER,
+					CrawlerConstants.DUMP_SEEN_FLUSH_INTERVAL);
+			// drain the log before its file gets closed
+			CrawlerConstants.CLOSER.addFirst(wcs);
+			seen = wcs;
 
 //			String[] fNameExt = Util.determineFnameAndExtension(cmd.getOptionValue("ds"));
 //			
@@ -751,7 +886,7 @@ public class Main {
 //					+ " with file "
 //					+ ((DiskWritingWrappingSeen) seen).getFile());
 		} else
-			seen = new HashSetSeen();
+			seen = base;
 
 		c.setErrorHandler(eh);
 		c.setOutputCallback(sink);
@@ -781,18 +916,35 @@ public class Main {
 						+ seenfilename + " and redirects: " + redirectsfilename
 						+ " .");
 
-				System.gc();
-				// loading seen to be resumed from
-				_log.info("loading seen");
-				readFromThisFileIntoThisSeen(seenfilename, seen);
-				_log.info("done loading seen");
-
-				System.gc();
-				// loading redirects file
-				_log.info("loading redirects");
-				readFromThisFileIntoThisRedirects(redirectsfilename, redirects);
-				System.gc();
-				_log.info("done loading redirects");
+				if (SnapshotSeen.isSnapshot(new File(seenfilename))) {
+					SnapshotSeen ss = new SnapshotSeen(new File(seenfilename), seen);
+					if (seen == store && store instanceof FingerprintSeen) {
+						// one table to look up rather than two
+						ss.load((FingerprintSeen) store);
+						ss.close();
+					} else {
+						seen = ss;
+					}
+				} else {
+					System.gc();
+					// loading seen to be resumed from
+					_log.info("loading seen");
+					readFromThisFileIntoThisSeen(seenfilename, seen);
+					_log.info("done loading seen");
+				}
+
+				if (SnapshotRedirects.isSnapshot(new File(redirectsfilename))) {
+					if (!cmd.hasOption("dr")) {
+						redirects = new SnapshotRedirects(new File(redirectsfilename), redirects);
+					}
+				} else {
+					System.gc();
+					// loading redirects file
+					_log.info("loading redirects");
+					readFromThisFileIntoThisRedirects(redirectsfilename, redirects);
+					System.gc();
+					_log.info("done loading redirects");
+				}
 			}
 			
 			String[] vals = cmd.getOptionValues("b");
@@ -808,6 +960,28 @@ public class Main {
 				}
 			}
 
+			if (cmd.hasOption("checkpoint")) {
+				String[] cpvals = cmd.getOptionValues("checkpoint");
+				long interval = CrawlerConstants.CHECKPOINT_INTERVAL;
+				if (cpvals.length > 1) {
+					interval = Long.parseLong(cpvals[1]) * 1000;
+				}
+				c.setCheckpoint(new File(cpvals[0]), interval);
+				_log.info("writing checkpoints to " + cpvals[0] + " every " + interval + " ms");
+			}
+
+			if (cmd.hasOption("resume")) {
+				c.setResume(new File(cmd.getOptionValue("resume")));
+			}
+
+			if (cmd.hasOption("pipeline")) {
+				CrawlerConstants.PIPELINE_TAIL = Integer.parseInt(cmd.getOptionValue("pipeline", "0"));
+			}
+
+			if (cmd.hasOption("affinity")) {
+				CrawlerConstants.PLD_AFFINITY = true;
+			}
+
 			_log.info("breadth-first crawl with " + CrawlerConstants.NB_THREADS + " threads, depth " + depth + " maxuris " + maxuris + " maxplds " + maxplds + " minActivePlds " + cmd.getOptionValue("minpld", "unspecified"));
 
 			c.evaluateBreadthFirst(frontier, seen, redirects, depth, maxuris, maxplds, Integer.parseInt(cmd.getOptionValue("minpld", "-1")), cmd.hasOption("mapseed") );
@@ -817,6 +991,12 @@ public class Main {
 			_log.info("load balanced crawl with " + CrawlerConstants.NB_THREADS + " threads, maxuris " + maxuris);
 
 			c.evaluateLoadBalanced(frontier, seen, maxuris);
+		} else if (cmd.hasOption("cc")) {
+			int depth = Integer.parseInt(cmd.getOptionValue("cc"));
+
+			_log.info("continuous crawl with " + CrawlerConstants.NB_THREADS + " threads, depth " + depth);
+
+			c.evaluateContinuous(frontier, seen, redirects, depth);
 		} else if (cmd.hasOption("d")) {
 			_log.info("sequential download with " + CrawlerConstants.NB_THREADS + " threads");
 			ZipContentHandler zch = new ZipContentHandler(new File(cmd.getOptionValue("d")));
@@ -838,6 +1018,13 @@ public class Main {
 
 		System.err.println(eh);
 
+		if (base instanceof BloomFilterSeen) {
+			_log.info("seen filter: " + base);
+		}
+		if (store instanceof FingerprintSeen) {
+			_log.info("seen: " + store);
+		}
+
 		c.close();
 
 		long time1 = System.currentTimeMillis();
@@ -934,6 +1121,66 @@ public class Main {
 
 	}
 
+	/**
+	 * Convert a seen file and a redirects file into snapshots, dropping what
+	 * {@link #readFromThisFileIntoThisSeen(String, Seen)} and
+	 * {@link #readFromThisFileIntoThisRedirects(String, Redirects)} drop.
+	 */
+	static void writeSnapshots(String seenfilename, String redirectsfilename,
+			String seensnapshot, String redirectssnapshot) throws IOException {
+		InputStream is = seenfilename.endsWith(".gz") ? new GZIPInputStream(
+				new FileInputStream(seenfilename)) : new FileInputStream(
+				seenfilename);
+
+		SnapshotSeen.Writer sw = new SnapshotSeen.Writer(new File(seensnapshot));
+		int i = 0;
+		for (Node[] nx : new NxParser(new BufferedReader(new InputStreamReader(is)))) {
+			if (nx.length > 1)
+				throw new RuntimeException("Seen input had more than 1 field");
+			try {
+				sw.add(new URI(nx[0].toString()).toString());
+				++i;
+			} catch (URISyntaxException e) {
+				_log.info("Dropping from seen: " + nx[0].toN3());
+			}
+		}
+		is.close();
+		sw.close();
+
+		_log.info("Read " + i + " URIs from " + seenfilename + " into " + seensnapshot);
+
+		is = redirectsfilename.endsWith(".gz") ? new GZIPInputStream(
+				new FileInputStream(redirectsfilename)) : new FileInputStream(
+				redirectsfilename);
+
+		SnapshotRedirects.Writer rw = new SnapshotRedirects.Writer(new File(redirectssnapshot));
+		i = 0;
+		for (Node[] nx : new NxParser(is)) {
+			if (nx.length > 2)
+				throw new RuntimeException(
+						"Redirects input had more than 2 fields");
+
+			if (nx[0] instanceof Resource && nx[1] instanceof Resource) {
+				URI from = ((Resource) nx[0]).toURI();
+				URI to = ((Resource) nx[1]).toURI();
+
+				if (from != null && to != null) {
+					rw.put(from.toString(), to.toString());
+					++i;
+				} else
+					_log.info("Dropping from redirects because of URI problems: "
+							+ nx[0] + " to " + nx[1]);
+			} else
+				_log.info("Not all resources: redirect " + nx[0] + " to "
+						+ nx[1]);
+		}
+		is.close();
+		rw.close();
+
+		_log.info("Read " + i + " pairs from " + redirectsfilename
+				+ " into " + redirectssnapshot);
+	}
+
 	/**
 	 * 
 	 * @param q - queue
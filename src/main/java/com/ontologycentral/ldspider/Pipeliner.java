@@ -0,0 +1,108 @@
+package com.ontologycentral.ldspider;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.queue.SpiderQueue;
+
+/**
+ * Prepares the next hop of a breadth-first crawl in the tail of the current
+ * one, i.e. once a lookup thread has run out of URIs, e.g. as the minimum
+ * number of active PLDs has been reached, or once few URIs are left in the
+ * queue. Links found from then on stay in the frontier.
+ */
+public class Pipeliner extends Thread {
+	private static final Logger _log = Logger.getLogger(Pipeliner.class.getName());
+
+	final List<Thread> _threads;
+	final SpiderQueue _queue;
+	final Frontier _frontier;
+	final int _tail;
+	final long _interval;
+
+	boolean _stop;
+	boolean _prepared;
+
+	/**
+	 * @param tail
+	 *            number of URIs left in the queue from which on the next hop
+	 *            is prepared
+	 * @param interval
+	 *            ms between two looks at the threads and the queue
+	 */
+	public Pipeliner(List<Thread> threads, SpiderQueue queue, Frontier frontier, int tail, long interval) {
+		super("Pipeliner");
+		_threads = threads;
+		_queue = queue;
+		_frontier = frontier;
+		_tail = tail;
+		_interval = interval;
+		_stop = false;
+		_prepared = false;
+		setDaemon(true);
+	}
+
+	/**
+	 * Stop waiting for the tail, and wait for the next hop being prepared to
+	 * be complete.
+	 * 
+	 * @return if the next hop has been prepared
+	 */
+	public boolean shutdown() {
+		synchronized (this) {
+			_stop = true;
+			notifyAll();
+		}
+
+		try {
+			join();
+		} catch (InterruptedException e) {
+			_log.info(e.getMessage());
+		}
+
+		return _prepared;
+	}
+
+	boolean inTail() {
+		for (Thread t : _threads) {
+			if (!t.isAlive()) {
+				return true;
+			}
+		}
+		return _queue.size() <= _tail;
+	}
+
+	public void run() {
+		synchronized (this) {
+			while (!_stop && !inTail()) {
+				try {
+					wait(_interval);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			if (_stop) {
+				return;
+			}
+		}
+
+		if (!_queue.canPrepare()) {
+			_log.info(_queue.getClass().getSimpleName() + " cannot prepare a hop, the next hop is scheduled once this one is done");
+			return;
+		}
+
+		Frontier next = _frontier.detach();
+		if (next == null) {
+			_log.info(_frontier + " cannot be detached, the next hop is scheduled once this one is done");
+			return;
+		}
+
+		long time = System.currentTimeMillis();
+		_log.info("tail of the hop with " + _queue.size() + " uris left, preparing the next hop");
+
+		_queue.prepare(next);
+		_prepared = true;
+		_log.info("next hop prepared in " + (System.currentTimeMillis() - time) + " ms");
+	}
+}
@@ -1,6 +1,7 @@
 package com.ontologycentral.ldspider.frontier;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
@@ -26,6 +27,20 @@ public class BasicFrontier extends Frontier {
 		return _data.iterator();
 	}
 
+	public Iterator<URI> snapshot() {
+		return new ArrayList<URI>(_data).iterator();
+	}
+
+	public synchronized Frontier detach() {
+		BasicFrontier f = new BasicFrontier();
+		f.setErrorHandler(_eh);
+		f._data = _data;
+
+		_data = Collections.synchronizedSet(new HashSet<URI>());
+
+		return f;
+	}
+
 	public void removeAll(Collection<URI> c) {
 		_data.removeAll(c);
 	}
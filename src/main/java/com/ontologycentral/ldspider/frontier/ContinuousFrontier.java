@@ -0,0 +1,44 @@
+package com.ontologycentral.ldspider.frontier;
+
+import java.net.URI;
+
+/**
+ * A frontier for crawls without rounds. Keeps the URIs added (e.g. the
+ * seeds) until a queue takes them over, from then on the URIs are handed on
+ * to the frontier supplied by the queue, i.e. they go into the queue
+ * directly.
+ */
+public class ContinuousFrontier extends BasicFrontier {
+	volatile Frontier _target;
+
+	public ContinuousFrontier() {
+		super();
+		_target = null;
+	}
+
+	/**
+	 * Hand on all URIs added from now on.
+	 *
+	 * @param target
+	 *            the frontier to hand the URIs on to, null to keep them here
+	 */
+	public void forwardTo(Frontier target) {
+		_target = target;
+	}
+
+	public void add(URI u) {
+		Frontier target = _target;
+		if (target == null) {
+			super.add(u);
+		} else {
+			u = process(u);
+			if (u != null) {
+				target.add(u);
+			}
+		}
+	}
+
+	public String toString() {
+		return _target == null ? super.toString() : "forwarding to " + _target;
+	}
+}
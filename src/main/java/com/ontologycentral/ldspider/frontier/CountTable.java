@@ -0,0 +1,144 @@
+package com.ontologycentral.ldspider.frontier;
+
+/**
+ * An open-addressing table with linear probing from 64-bit fingerprints to
+ * counts, in primitive arrays, i.e. 16 bytes per slot and no objects per
+ * entry. Each entry has a mark next to its count for the owner to use. Not
+ * thread-safe.
+ */
+class CountTable {
+	/**
+	 * Fill factor at which the table grows.
+	 */
+	static final double LOAD = 0.75;
+
+	/**
+	 * Marks a free slot, the fingerprints are never 0.
+	 */
+	static final long FREE = 0;
+
+	long[] _keys;
+	int[] _counts;
+	int[] _marks;
+	int _mask;
+	int _size;
+
+	CountTable(int expected) {
+		int slots = 16;
+		while (slots * LOAD < expected && slots < (1 << 30)) {
+			slots <<= 1;
+		}
+		allocate(slots);
+	}
+
+	void allocate(int slots) {
+		_keys = new long[slots];
+		_counts = new int[slots];
+		_marks = new int[slots];
+		_mask = slots - 1;
+	}
+
+	/**
+	 * The slot of the fingerprint or the free slot it would go to.
+	 */
+	int find(long fp) {
+		int i = (int) fp & _mask;
+		long k;
+		while ((k = _keys[i]) != FREE && k != fp) {
+			i = (i + 1) & _mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Count the fingerprint once more, with a count of 1 and a mark of 0 if
+	 * it is new.
+	 *
+	 * @return the slot of the fingerprint, valid until the next increment
+	 */
+	int increment(long fp) {
+		int i = find(fp);
+		if (_keys[i] == fp) {
+			_counts[i]++;
+			return i;
+		}
+
+		if (_size >= _keys.length * LOAD) {
+			if (_keys.length >= (1 << 30)) {
+				throw new IllegalStateException("count table full with " + _size + " fingerprints");
+			}
+			grow();
+			i = find(fp);
+		}
+
+		_keys[i] = fp;
+		_counts[i] = 1;
+		_marks[i] = 0;
+		_size++;
+		return i;
+	}
+
+	/**
+	 * @return the count of the fingerprint, 0 if there is none
+	 */
+	int count(long fp) {
+		int i = find(fp);
+		return _keys[i] == fp ? _counts[i] : 0;
+	}
+
+	boolean remove(long fp) {
+		int i = find(fp);
+		if (_keys[i] != fp) {
+			return false;
+		}
+
+		// shift the entries of the run after the slot back, such that
+		// lookups need no tombstones
+		int j = i;
+		while (true) {
+			j = (j + 1) & _mask;
+			long k = _keys[j];
+			if (k == FREE) {
+				break;
+			}
+			int home = (int) k & _mask;
+			// move the entry if its home is not between the free slot and it
+			if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+				_keys[i] = k;
+				_counts[i] = _counts[j];
+				_marks[i] = _marks[j];
+				i = j;
+			}
+		}
+		_keys[i] = FREE;
+		_size--;
+		return true;
+	}
+
+	void grow() {
+		long[] keys = _keys;
+		int[] counts = _counts;
+		int[] marks = _marks;
+		allocate(2 * keys.length);
+
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != FREE) {
+				int j = find(keys[i]);
+				_keys[j] = keys[i];
+				_counts[j] = counts[i];
+				_marks[j] = marks[i];
+			}
+		}
+	}
+
+	int size() {
+		return _size;
+	}
+
+	/**
+	 * @return the number of bytes taken by the table
+	 */
+	long getMemory() {
+		return 16L * _keys.length;
+	}
+}
@@ -1,59 +1,121 @@
 package com.ontologycentral.ldspider.frontier;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.logging.Logger;
 
-public class DiskFrontier extends Frontier {
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.GroupCommitWriter;
+
+/**
+ * Keeps the URIs added in a file. Unless
+ * {@link CrawlerConstants#DISKFRONTIER_BUFFER} is 0, the URIs are handed over
+ * to an {@link Appender} that writes them in the background and flushes the
+ * file every {@link CrawlerConstants#DISKFRONTIER_FLUSH_INTERVAL} ms, and
+ * forces it to the disk as well if {@link CrawlerConstants#DISKFRONTIER_SYNC}
+ * is set, rather than the adding threads taking turns to write and flush
+ * each URI. Iterating, detaching and resetting wait for the URIs handed over
+ * to be written.
+ */
+public class DiskFrontier extends Frontier implements Closeable {
 	Logger _log = Logger.getLogger(this.getClass().getSimpleName());
 
 	File _f;
+	FileOutputStream _fos;
 	PrintWriter _ps;
+
+	/**
+	 * Writes the URIs in the background, null if the adding threads write
+	 * them.
+	 */
+	Appender _appender;
 	
 	public DiskFrontier(File f) {
+		this(f, false, CrawlerConstants.DISKFRONTIER_BUFFER > 0);
+	}
+	
+	DiskFrontier(File f, boolean append, boolean background) {
 		super();
 		_f = f;
 		
 		try {
-			open(false);
+			open(append);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+
+		if (background) {
+			_appender = new Appender();
+		}
 	}
 	
 	void open(boolean append) throws IOException {
-		_ps = new PrintWriter(new FileOutputStream(_f, append));
+		_fos = new FileOutputStream(_f, append);
+		_ps = new PrintWriter(new OutputStreamWriter(new BufferedOutputStream(_fos, 1024 * 1024)));
 	}
 	
 	public void close() {
-		_ps.flush();
-		_ps.close();
+		if (_appender != null) {
+			try {
+				_appender.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		synchronized(this) {
+			_ps.flush();
+			_ps.close();
+		}
 	}
 	
 	public void add(URI u) {
 		u = process(u);
 		_log.fine("processed " + u);
 		if (u != null) {
-			synchronized(this) {
-				_ps.println(u.toString());
-				_ps.flush();
+			if (_appender != null) {
+				_appender.add(u);
+			} else {
+				synchronized(this) {
+					_ps.println(u.toString());
+					_ps.flush();
+				}
 			}
 		}
 	}
+
+	/**
+	 * Wait for the URIs added so far to be written.
+	 */
+	void sync() {
+		if (_appender != null) {
+			_appender.sync();
+		}
+	}
 	
 	public Iterator<URI> iterator() {
-		_ps.flush();
+		sync();
+		synchronized(this) {
+			_ps.flush();
+		}
 //		try {
 //			open(true);
 //		} catch (IOException e) {
@@ -66,61 +128,183 @@ public class DiskFrontier extends Frontier {
 		throw new UnsupportedOperationException("remove not supported on file, use in-memory queue");
 	}
 	
-	public void reset() {
-		_f.delete();
+	/**
+	 * Moves the file to a file with the suffix ".detached", which the
+	 * frontier returned works on.
+	 */
+	public Frontier detach() {
+		// outside the lock, which the appender needs to write
+		sync();
+
+		synchronized(this) {
+			return detachWritten();
+		}
+	}
+
+	Frontier detachWritten() {
+		_ps.close();
+
+		File detached = new File(_f.getPath() + ".detached");
+		detached.delete();
+
+		boolean moved = _f.renameTo(detached);
 		try {
-			open(false);
+			open(!moved);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+
+		if (!moved) {
+			_log.warning("cannot move " + _f + " to " + detached);
+			return null;
+		}
+
+		detached.deleteOnExit();
+
+		// little is added to the detached frontier
+		DiskFrontier f = new DiskFrontier(detached, true, false);
+		f.setErrorHandler(_eh);
+		return f;
+	}
+
+	public void reset() {
+		sync();
+
+		synchronized(this) {
+			_ps.close();
+			_f.delete();
+			try {
+				open(false);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
 	public String toString() {
 		return "disk frontier " + _f.getName();
 	}
+
+	/**
+	 * Writes the URIs in batches, flushing at most every
+	 * {@link CrawlerConstants#DISKFRONTIER_FLUSH_INTERVAL} ms.
+	 */
+	class Appender extends GroupCommitWriter<URI> {
+		Appender() {
+			super("DiskFrontierAppender", CrawlerConstants.DISKFRONTIER_BUFFER, CrawlerConstants.DISKFRONTIER_FLUSH_INTERVAL);
+			start();
+		}
+
+		protected void write(URI u) {
+			synchronized(DiskFrontier.this) {
+				_ps.println(u.toString());
+			}
+		}
+
+		protected void commit() throws IOException {
+			synchronized(DiskFrontier.this) {
+				_ps.flush();
+				if (CrawlerConstants.DISKFRONTIER_SYNC) {
+					_fos.getFD().sync();
+				}
+			}
+		}
+	}
 }
 
+/**
+ * Iterates over the URIs of the file without duplicates, in ascending order.
+ * Up to {@link CrawlerConstants#DISKFRONTIER_DEDUP_BUFFER} URIs are sorted
+ * in memory at once; a larger file is sorted in runs of that many URIs,
+ * without duplicates, next to the file, which are merged while iterating, so
+ * the memory taken does not grow with the file.
+ */
 class DiskFrontierIterator implements Iterator<URI> {
-	BufferedReader _br = null;
+	static final Logger _log = Logger.getLogger(DiskFrontierIterator.class.getSimpleName());
+
+	/**
+	 * The run heads, by their current line.
+	 */
+	PriorityQueue<Run> _heads;
+	List<Run> _runs;
+
+	/**
+	 * The sorted URIs if the file fits into memory.
+	 */
+	String[] _lines;
+	int _pos, _len;
+
+	String _last = null;
 	URI _next = null;
-	Set<URI> _unique;
-	
+
 	public DiskFrontierIterator(File f) {
-		_unique = new HashSet<URI>();
-		
+		_runs = new ArrayList<Run>();
+
 		try {
-			_br = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(f)));
+			try {
+				int max = Math.max(1, CrawlerConstants.DISKFRONTIER_DEDUP_BUFFER);
+				String[] chunk = new String[Math.min(1024, max)];
+				boolean more = true;
+				while (more) {
+					int n = 0;
+					String line = null;
+					while ((n < chunk.length || chunk.length < max) && (line = br.readLine()) != null) {
+						if (n == chunk.length) {
+							chunk = Arrays.copyOf(chunk, (int) Math.min(max, 2L * n));
+						}
+						chunk[n++] = line;
+					}
+					more = line != null;
+					Arrays.sort(chunk, 0, n);
+
+					if (!more && _runs.isEmpty()) {
+						_lines = chunk;
+						_len = n;
+					} else {
+						_runs.add(Run.write(f, chunk, n));
+					}
+				}
+			} finally {
+				br.close();
+			}
+
+			if (_lines == null) {
+				_log.info("merging " + _runs.size() + " sorted runs of " + f);
+				_heads = new PriorityQueue<Run>(Math.max(1, _runs.size()));
+				for (Run r : _runs) {
+					if (r.advance()) {
+						_heads.add(r);
+					}
+				}
+			}
 
 			readNext();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (URISyntaxException e) {
-			e.printStackTrace();
+			close();
 		}
 	}
-	
+
 	public boolean hasNext() {
-		if (_next == null) {
-			try {
-				_br.close();
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
 		return (_next != null);
 	}
 
 	public URI next() {
+		if (_next == null) {
+			throw new NoSuchElementException();
+		}
+
 		URI next = _next;
-		
+
 		try {
 			readNext();
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (URISyntaxException e) {
-			e.printStackTrace();
+			_next = null;
+			close();
 		}
-		
+
 		return next;
 	}
 
@@ -128,19 +312,114 @@ class DiskFrontierIterator implements Iterator<URI> {
 		;
 	}
 
-	void readNext() throws IOException, URISyntaxException {
-		String line;
+	/**
+	 * @return the next line in sorted order, null at the end
+	 */
+	String nextLine() throws IOException {
+		if (_lines != null) {
+			if (_pos == _len) {
+				return null;
+			}
+			String line = _lines[_pos];
+			_lines[_pos++] = null;
+			return line;
+		}
+
+		Run r = _heads.poll();
+		if (r == null) {
+			return null;
+		}
+		String line = r._line;
+		if (r.advance()) {
+			_heads.add(r);
+		}
+		return line;
+	}
+
+	void readNext() throws IOException {
 		URI next = null;
-		
-		while ((line = _br.readLine()) != null) {
-			URI u = new URI(line);
-			if (u != null && !_unique.contains(u)) {
-				next = u;
-				_unique.add(u);
-				break;
+
+		String line;
+		while (next == null && (line = nextLine()) != null) {
+			// duplicates are next to each other
+			if (line.equals(_last)) {
+				continue;
+			}
+			_last = line;
+			try {
+				next = new URI(line);
+			} catch (URISyntaxException e) {
+				_log.fine("skipping " + line + ", not parsable");
 			}
 		}
-		
+
 		_next = next;
+		if (next == null) {
+			close();
+		}
+	}
+
+	void close() {
+		_lines = null;
+		for (Run r : _runs) {
+			r.close();
+		}
+		_runs.clear();
+	}
+
+	/**
+	 * A sorted run of URIs without duplicates, one per line.
+	 */
+	static class Run implements Comparable<Run> {
+		final File _file;
+		final BufferedReader _br;
+		String _line;
+
+		Run(File file) throws IOException {
+			_file = file;
+			_br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"), 64 * 1024);
+		}
+
+		static Run write(File f, String[] chunk, int n) throws IOException {
+			File file = File.createTempFile(f.getName(), ".run", f.getAbsoluteFile().getParentFile());
+			file.deleteOnExit();
+
+			Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), 64 * 1024);
+			try {
+				String last = null;
+				for (int i = 0; i < n; i++) {
+					if (!chunk[i].equals(last)) {
+						w.write(chunk[i]);
+						w.write('\n');
+						last = chunk[i];
+					}
+					chunk[i] = null;
+				}
+			} finally {
+				w.close();
+			}
+
+			return new Run(file);
+		}
+
+		/**
+		 * @return false at the end of the run
+		 */
+		boolean advance() throws IOException {
+			return (_line = _br.readLine()) != null;
+		}
+
+		public int compareTo(Run r) {
+			return _line.compareTo(r._line);
+		}
+
+		void close() {
+			try {
+				_br.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			_file.delete();
+		}
 	}
-}
\ No newline at end of file
+}
@@ -78,4 +78,27 @@ public abstract class Frontier implements Iterable<URI> {
 	public abstract void removeAll(Collection<URI> c);
 	public abstract void reset();
 	public abstract Iterator<URI> iterator();
+
+	/**
+	 * Iterate over the URIs while links are still being added, without
+	 * changing the frontier, e.g. to write a checkpoint. By default, that is
+	 * {@link #iterator()}.
+	 * 
+	 * @return the URIs, or null if the frontier cannot be iterated while in use
+	 */
+	public Iterator<URI> snapshot() {
+		return iterator();
+	}
+
+	/**
+	 * Hand the URIs added so far over to a new frontier and start from
+	 * scratch, such that the URIs can be scheduled while further URIs are
+	 * being added, e.g. in the tail of a hop.
+	 * 
+	 * @return the frontier with the URIs added so far, or null if the
+	 *         frontier does not support that
+	 */
+	public Frontier detach() {
+		return null;
+	}
 }
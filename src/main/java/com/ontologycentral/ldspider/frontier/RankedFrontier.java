@@ -3,79 +3,180 @@ package com.ontologycentral.ldspider.frontier;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.ontologycentral.ldspider.seen.FingerprintSeen;
+
+/**
+ * Iterates over the URIs added since the last reset in descending order of
+ * the number of times they have been added over all hops, URIs added equally
+ * often in alphabetical order.
+ *
+ * The counts are kept per 64-bit fingerprint of a URI, see
+ * {@link FingerprintSeen#fingerprint(String)}, in a {@link CountTable}, so the
+ * "eternal" counts take 16 bytes per slot rather than a string and an
+ * integer per URI. URIs sharing a fingerprint share a count. The URIs
+ * unscheduled are kept in a list, the mark of their count telling whether a
+ * URI is in the list already. An iterator puts the URIs into a heap, in
+ * linear time, and takes the next one off the heap as it goes, so taking the
+ * first k URIs of n costs O(n + k log n) rather than a full sort.
+ */
 public class RankedFrontier extends Frontier {
-	
-	// Keeps an "eternal" list of URIs for the rank to take into account
-	// all hops. Maybe a different implementation could save RAM.
-	Map<String, Integer> _data;
-	Set<URI> _unscheduledUris;
-
-	Object lock = new Object();
-	
+
+	// Keeps an "eternal" count of URIs for the rank to take into account
+	// all hops, and is the lock.
+	CountTable _counts;
+	List<URI> _unscheduledUris;
+
+	/**
+	 * The mark of the URIs in the list of this frontier, and the marks given
+	 * out so far.
+	 */
+	int _mark;
+	AtomicInteger _marks;
+
 	public RankedFrontier() {
 		super();
-		_data = Collections.synchronizedMap(new HashMap<String, Integer>());
-		_unscheduledUris = Collections.synchronizedSet(new HashSet<URI>());
+		_counts = new CountTable(1024);
+		_marks = new AtomicInteger(0);
+		_mark = _marks.incrementAndGet();
+		_unscheduledUris = new ArrayList<URI>();
 	}
 
 	public void add(URI u) {
 		u = process(u);
-		
+
 		if (u != null) {
-			Integer count;
-			_unscheduledUris.add(u);
-			synchronized(lock) {
-				count = _data.get(u.toString());
-				if (count == null) {
-					count = 1;
-				} else {
-					count++;
+			long fp = FingerprintSeen.fingerprint(u.toString());
+			synchronized(_counts) {
+				int i = _counts.increment(fp);
+				if (_counts._marks[i] != _mark) {
+					_counts._marks[i] = _mark;
+					_unscheduledUris.add(u);
 				}
-				_data.put(u.toString(), count);
 			}
 			_log.fine("added " + u);
 		}
 	}
 
+	/**
+	 * Forget the count of the URI, and do not iterate over it unless it is
+	 * added again.
+	 */
 	public void remove(URI u) {
-		_data.remove(u);
-		_unscheduledUris.remove(u);
+		long fp = FingerprintSeen.fingerprint(u.toString());
+		synchronized(_counts) {
+			_counts.remove(fp);
+		}
+	}
+
+	/**
+	 * @return the number of times the URI has been added over all hops
+	 */
+	public int getCount(URI u) {
+		long fp = FingerprintSeen.fingerprint(u.toString());
+		synchronized(_counts) {
+			return _counts.count(fp);
+		}
 	}
 
 	public Iterator<URI> iterator() {
-		final List<URI> li = new ArrayList<URI>();
+		final URI[] heap;
+		final int[] counts;
+		int n = 0;
 
-		li.addAll(_unscheduledUris);
+		synchronized(_counts) {
+			heap = new URI[_unscheduledUris.size()];
+			counts = new int[heap.length];
+
+			for (URI u : _unscheduledUris) {
+				int c = _counts.count(FingerprintSeen.fingerprint(u.toString()));
+				// removed meanwhile
+				if (c > 0) {
+					heap[n] = u;
+					counts[n] = c;
+					n++;
+				}
+			}
+		}
+
+		for (int i = n / 2 - 1; i >= 0; i--) {
+			down(heap, counts, i, n);
+		}
+
+		final int size = n;
 
-		Collections.sort(li, new DescendingCountComparatorAlph<URI>(_data));
-		
 		return new Iterator<URI>() {
-			Iterator<URI> it = li.iterator();
+			int _n = size;
 			URI currentUri;
 
 			public boolean hasNext() {
-				return it.hasNext();
+				// a URI removed and added again is in the list twice, and
+				// comes off the heap twice in a row
+				while (_n > 0 && currentUri != null && heap[0].equals(currentUri)) {
+					pop();
+				}
+				return _n > 0;
 			}
 
 			public URI next() {
-				return currentUri = it.next();
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				currentUri = heap[0];
+				pop();
+				return currentUri;
+			}
+
+			void pop() {
+				_n--;
+				heap[0] = heap[_n];
+				counts[0] = counts[_n];
+				heap[_n] = null;
+				down(heap, counts, 0, _n);
 			}
 
 			public void remove() {
-				_data.remove(currentUri);
-				_unscheduledUris.remove(currentUri);
+				RankedFrontier.this.remove(currentUri);
 			}
 		};
 	}
 
+	/**
+	 * Move the URI at i down the heap of n URIs, which has the URI with the
+	 * highest count, and of those the alphabetically first, on top.
+	 */
+	static void down(URI[] heap, int[] counts, int i, int n) {
+		URI u = heap[i];
+		int c = counts[i];
+
+		int child;
+		while ((child = 2 * i + 1) < n) {
+			if (child + 1 < n && before(heap[child + 1], counts[child + 1], heap[child], counts[child])) {
+				child++;
+			}
+			if (!before(heap[child], counts[child], u, c)) {
+				break;
+			}
+			heap[i] = heap[child];
+			counts[i] = counts[child];
+			i = child;
+		}
+
+		heap[i] = u;
+		counts[i] = c;
+	}
+
+	static boolean before(URI a, int ca, URI b, int cb) {
+		if (ca != cb) {
+			return ca > cb;
+		}
+		return a.toString().compareTo(b.toString()) < 0;
+	}
+
 	public void removeAll(Collection<URI> c) {
 		for (URI u : c) {
 			remove(u);
@@ -83,6 +184,29 @@ public class RankedFrontier extends Frontier {
 	}
 
 	public void reset() {
-		_unscheduledUris.clear();
+		synchronized(_counts) {
+			_unscheduledUris = new ArrayList<URI>();
+			_mark = _marks.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The frontier returned shares the counts, which take all hops into
+	 * account.
+	 */
+	public Frontier detach() {
+		RankedFrontier f = new RankedFrontier();
+		f.setErrorHandler(_eh);
+		f._counts = _counts;
+		f._marks = _marks;
+
+		synchronized(_counts) {
+			f._unscheduledUris = _unscheduledUris;
+			f._mark = _mark;
+			_unscheduledUris = new ArrayList<URI>();
+			_mark = _marks.incrementAndGet();
+		}
+
+		return f;
 	}
-}
\ No newline at end of file
+}
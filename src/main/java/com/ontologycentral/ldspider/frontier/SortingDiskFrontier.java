@@ -1,55 +1,44 @@
 package com.ontologycentral.ldspider.frontier;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
-
-import org.semanticweb.yars.nx.Node;
-import org.semanticweb.yars.nx.NodeComparator;
-import org.semanticweb.yars.nx.NodeComparator.NodeComparatorArgs;
-import org.semanticweb.yars.nx.Resource;
-import org.semanticweb.yars.nx.parser.Callback;
-import org.semanticweb.yars.nx.parser.NxParser;
-import org.semanticweb.yars.nx.parser.ParseException;
-import org.semanticweb.yars.nx.sort.SortIterator;
-import org.semanticweb.yars.nx.sort.SortIterator.SortArgs;
-import org.semanticweb.yars.nx.util.NxUtil;
-import org.semanticweb.yars.util.CallbackNxAppender;
-import org.semanticweb.yars.util.Node2uriConvertingIterator;
-import org.semanticweb.yars.util.PleaseCloseTheDoorWhenYouLeaveIterator;
 
 import com.ontologycentral.ldspider.CrawlerConstants;
 
 /**
- * 
+ * Writes the URIs added to a temp file as a {@link UriRun}, with the blocks
+ * deflated if the frontier is to be gzipped, and optionally sorts the file
+ * before iterating over it.
+ *
  * @author Tobias Kaefer
- * 
+ *
  */
 public class SortingDiskFrontier extends Frontier implements Closeable {
 
 	Logger _log = Logger.getLogger(this.getClass().getName());
 
-	CallbackNxAppender _cb;
-	Closeable _clo;
+	UriRun.Writer _writer;
 
 	static final String FILENAME_BASE = "ldspider-diskFrontierTmp";
 	static final String FILENAME_CURRENT = FILENAME_BASE + "-Current";
 	static final String FILENAME_SORTED = FILENAME_BASE + "-Sorted";
+	static final String FILENAME_RUN = FILENAME_BASE + "-Run";
 
 	File _currentTempFile = null;
 	File _sortedTempFile = null;
@@ -69,26 +58,41 @@ public class SortingDiskFrontier extends Frontier implements Closeable {
 		_isSorted = false;
 		_sortBeforeIterating = sort;
 		_gzipFrontier = gzip;
-		SUFFIX = _gzipFrontier ? ".nx.gz" : ".nx";
+		SUFFIX = _gzipFrontier ? ".run.z" : ".run";
+		open();
+		CrawlerConstants.CLOSER.add(this);
+	}
+
+	/**
+	 * Takes over the file URIs are added to from another frontier.
+	 */
+	SortingDiskFrontier(SortingDiskFrontier from) {
+		setErrorHandler(from._eh);
+		_isSorted = false;
+		_sortBeforeIterating = from._sortBeforeIterating;
+		_gzipFrontier = from._gzipFrontier;
+		SUFFIX = from.SUFFIX;
+		_currentTempFile = from._currentTempFile;
+		_writer = from._writer;
+	}
+
+	void open() throws IOException {
 		_currentTempFile = File.createTempFile(FILENAME_CURRENT, SUFFIX);
 		_currentTempFile.deleteOnExit();
-		OutputStream os = _gzipFrontier ? new GZIPOutputStream(
-				new FileOutputStream(_currentTempFile)) : new FileOutputStream(
-				_currentTempFile);
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os));
-		_clo = bw;
-		_cb = new CallbackNxAppender(bw);
-		CrawlerConstants.CLOSER.add(this);
+		_writer = new UriRun.Writer(_currentTempFile, _gzipFrontier);
 	}
 
 	@Override
-	public void add(URI u) {
+	public synchronized void add(URI u) {
 		u = process(u);
 		if (u == null)
 			return;
 
-		_cb.processStatement(new Node[] { new Resource(NxUtil.escapeForNx(u
-				.toString())) });
+		try {
+			_writer.write(u.toString());
+		} catch (IOException e) {
+			_log.warning("cannot add " + u + ": " + e.getMessage());
+		}
 		_isSorted = false;
 
 	}
@@ -99,10 +103,29 @@ public class SortingDiskFrontier extends Frontier implements Closeable {
 				+ SortingDiskFrontier.class.getSimpleName());
 	}
 
+	/**
+	 * The frontier returned takes over the file URIs have been added to so
+	 * far, which is then closed by iterating.
+	 */
+	@Override
+	public synchronized Frontier detach() {
+		SortingDiskFrontier f = new SortingDiskFrontier(this);
+		try {
+			open();
+		} catch (IOException e) {
+			_log.warning(e.getMessage());
+			_currentTempFile = f._currentTempFile;
+			_writer = f._writer;
+			return null;
+		}
+		_isSorted = false;
+		return f;
+	}
+
 	@Override
 	public void reset() {
 		try {
-			_clo.close();
+			_writer.close();
 		} catch (IOException e1) {
 			_log.warning(e1.getMessage());
 		}
@@ -110,18 +133,7 @@ public class SortingDiskFrontier extends Frontier implements Closeable {
 		if (_sortedTempFile != null)
 			_sortedTempFile.delete();
 		try {
-			_currentTempFile = File.createTempFile(FILENAME_CURRENT, SUFFIX);
-		} catch (IOException e) {
-			_log.warning(e.getMessage());
-		}
-		_currentTempFile.deleteOnExit();
-		try {
-			OutputStream os = _gzipFrontier ? new GZIPOutputStream(
-					new FileOutputStream(_currentTempFile))
-					: new FileOutputStream(_currentTempFile);
-			BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os));
-			_clo = bw;
-			_cb = new CallbackNxAppender(bw);
+			open();
 		} catch (IOException e) {
 			_log.warning(e.getMessage());
 		}
@@ -131,112 +143,309 @@ public class SortingDiskFrontier extends Frontier implements Closeable {
 	@Override
 	public Iterator<URI> iterator() {
 
-		final NxParser nx;
-		final BufferedReader br;
+		final UriRun.Reader r;
 
 		try {
-			_clo.close();
+			_writer.close();
 
 			if (!_isSorted && _sortBeforeIterating) {
 				_sortedTempFile = sort(_currentTempFile);
 				_sortedTempFile.deleteOnExit();
+				_isSorted = true;
 			}
 
 			File file = _sortBeforeIterating ? _sortedTempFile
 					: _currentTempFile;
 
-			InputStream is = _gzipFrontier ? new GZIPInputStream(
-					new FileInputStream(file)) : new FileInputStream(file);
-
-			br = new BufferedReader(new InputStreamReader(is));
-
-			nx = new NxParser(br);
+			r = new UriRun.Reader(file);
 		} catch (IOException e) {
 			_log.warning("IOException. " + e.getLocalizedMessage()
 					+ ". returning empty iterator!");
 			return Collections.<URI> emptyList().iterator();
-		} catch (ParseException e) {
-			_log.warning("ParseException. " + e.getLocalizedMessage()
-					+ ". returning empty iterator!");
-			return Collections.<URI> emptyList().iterator();
 		}
 
-		return new PleaseCloseTheDoorWhenYouLeaveIterator<URI>(
-				new Node2uriConvertingIterator(nx, 0), br);
+		return new Iterator<URI>() {
+			URI _next = null;
+
+			public boolean hasNext() {
+				while (_next == null && r.hasNext()) {
+					String s = r.next();
+					try {
+						_next = new URI(s);
+					} catch (URISyntaxException e) {
+						_log.fine("Discard invalid uri " + e.getMessage()
+								+ " for " + s);
+					}
+				}
+				return _next != null;
+			}
+
+			public URI next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				URI u = _next;
+				_next = null;
+				return u;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
 
 	}
 
-	File sort(File in) throws IOException, ParseException {
-		_log.info("Sorting the frontier...");
+	/**
+	 * Iterating closes the file URIs are added to, so there is no snapshot.
+	 */
+	@Override
+	public Iterator<URI> snapshot() {
+		return null;
+	}
 
-		System.gc();
+	/**
+	 * Sort the URIs of a file, keeping duplicates, and delete the file. The
+	 * URIs are read in batches of
+	 * {@link CrawlerConstants#DISKFRONTIER_SORT_BUFFER}, which
+	 * {@link CrawlerConstants#DISKFRONTIER_SORT_THREADS} threads sort and
+	 * write as runs while the next batches are read, so at most one batch per
+	 * thread and the one being read are in memory. The runs and the last
+	 * batch are then merged through a {@link LoserTree}.
+	 */
+	File sort(File in) throws IOException {
+		_log.info("Sorting the frontier...");
 
-		InputStream is;
-		OutputStream os;
-		
 		File out = File.createTempFile(FILENAME_SORTED, SUFFIX);
 		out.deleteOnExit();
-		
-		if (_gzipFrontier) {
-			is = new GZIPInputStream(
-					new FileInputStream(in));
-			os = new GZIPOutputStream(
-					new FileOutputStream(out));
-		} else {
-			is = new FileInputStream(in);
-			os = new FileOutputStream(out);
+
+		int threads = Math.max(1, CrawlerConstants.DISKFRONTIER_SORT_THREADS);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+		List<File> runs = new ArrayList<File>();
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		UriRun.Reader r = new UriRun.Reader(in);
+
+		long count = 0, duplicates = 0;
+
+		try {
+			int batch = Math.max(1, CrawlerConstants.DISKFRONTIER_SORT_BUFFER);
+			String[] uris = new String[Math.min(batch, 1024)];
+			int n = 0;
+			int done = 0;
+
+			while (r.hasNext()) {
+				if (n == uris.length) {
+					uris = Arrays.copyOf(uris, Math.min(batch, 2 * n));
+				}
+				uris[n++] = r.next();
+
+				if (n >= batch && r.hasNext()) {
+					// wait for a thread to be free before reading on
+					while (futures.size() - done >= threads) {
+						get(futures.get(done++));
+					}
+
+					final File run = File.createTempFile(FILENAME_RUN, SUFFIX, out.getParentFile());
+					run.deleteOnExit();
+					runs.add(run);
+
+					final String[] chunk = uris;
+					final int size = n;
+					futures.add(pool.submit(new Callable<Void>() {
+						public Void call() throws IOException {
+							Arrays.sort(chunk, 0, size);
+							write(Arrays.asList(chunk).subList(0, size).iterator(), run);
+							return null;
+						}
+					}));
+
+					uris = new String[Math.min(batch, 1024)];
+					n = 0;
+				}
+			}
+			r.close();
+
+			Arrays.sort(uris, 0, n);
+
+			while (done < futures.size()) {
+				get(futures.get(done++));
+			}
+
+			List<UriRun.Reader> readers = new ArrayList<UriRun.Reader>(runs.size());
+			try {
+				List<Iterator<String>> its = new ArrayList<Iterator<String>>(runs.size() + 1);
+				for (File run : runs) {
+					UriRun.Reader rr = new UriRun.Reader(run);
+					readers.add(rr);
+					its.add(rr);
+				}
+				its.add(Arrays.asList(uris).subList(0, n).iterator());
+
+				Iterator<String> it = its.size() == 1 ? its.get(0) : new LoserTree(its);
+
+				UriRun.Writer w = new UriRun.Writer(out, _gzipFrontier);
+				try {
+					String last = null;
+					while (it.hasNext()) {
+						String s = it.next();
+						// duplicates stay, the queues count them as in-links
+						if (s.equals(last)) {
+							duplicates++;
+						}
+						w.write(s);
+						last = s;
+					}
+				} finally {
+					w.close();
+				}
+				count = w.getCount();
+			} finally {
+				for (UriRun.Reader rr : readers) {
+					rr.close();
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+			r.close();
+			for (File run : runs) {
+				run.delete();
+			}
 		}
-		
-		BufferedReader br = new BufferedReader(new InputStreamReader(is));
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(os));
 
-		// Code from NxParser's Sort class
+		in.delete();
 
-		Iterator<Node[]> it = new NxParser(br);
+		_log.info("Finished sorting the frontier. Sorted " + count
+				+ " with " + duplicates + " duplicates in " + Math.max(1, runs.size()) + " runs.");
 
-		Callback cb = new CallbackNxAppender(bw);
+		return out;
+	}
 
-		NodeComparatorArgs nca = new NodeComparatorArgs();
+	static void get(Future<Void> f) throws IOException {
+		try {
+			f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause().toString());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while sorting");
+		}
+	}
 
-		// nca.setOrder(NodeComparatorArgs.getIntegerMask(cmd.getOptionValue("so")));
+	void write(Iterator<String> it, File f) throws IOException {
+		UriRun.Writer w = new UriRun.Writer(f, _gzipFrontier);
+		try {
+			while (it.hasNext()) {
+				w.write(it.next());
+			}
+		} finally {
+			w.close();
+		}
+	}
 
-		// allow duplicates
-		nca.setNoEquals(true);
-		nca.setNoZero(true);
+	/**
+	 * Merges sorted iterators, keeping duplicates. The tree holds the loser
+	 * of each match between two iterators, and the overall winner on top, so
+	 * taking the next URI replays the matches on the path of one iterator
+	 * only, i.e. log k comparisons for k iterators, rather than about twice
+	 * as many for sifting down a heap.
+	 */
+	static class LoserTree implements Iterator<String> {
+		final List<Iterator<String>> _its;
+		final String[] _heads;
+
+		/**
+		 * The losers of the matches, 1 being the root, and the winner at 0.
+		 */
+		final int[] _tree;
+		final int _k;
+
+		LoserTree(List<Iterator<String>> its) {
+			_its = its;
+			_k = its.size();
+			_heads = new String[_k];
+			_tree = new int[Math.max(1, _k)];
+
+			for (int i = 0; i < _k; i++) {
+				Iterator<String> it = its.get(i);
+				_heads[i] = it.hasNext() ? it.next() : null;
+			}
 
-		NodeComparator nc = new NodeComparator(nca);
+			if (_k == 0) {
+				return;
+			}
 
-		SortArgs sa = new SortArgs(it, (short) 1);
-		sa.setComparator(nc);
-		sa.setGzipBatches(_gzipFrontier);
+			// play the matches bottom up, the leaves being at k to 2k - 1
+			int[] winners = new int[2 * _k];
+			for (int i = 0; i < _k; i++) {
+				winners[_k + i] = i;
+			}
+			for (int node = _k - 1; node >= 1; node--) {
+				int a = winners[2 * node], b = winners[2 * node + 1];
+				if (beats(a, b)) {
+					winners[node] = a;
+					_tree[node] = b;
+				} else {
+					winners[node] = b;
+					_tree[node] = a;
+				}
+			}
+			_tree[0] = _k == 1 ? 0 : winners[1];
+		}
 
-		SortIterator si = new SortIterator(sa);
-		Iterator<Node[]> iter = si;
+		/**
+		 * Whether the head of iterator a comes before the head of b, the
+		 * ones at their end last.
+		 */
+		boolean beats(int a, int b) {
+			String sa = _heads[a], sb = _heads[b];
+			if (sa == null || sb == null) {
+				return sb == null && (sa != null || a < b);
+			}
+			int c = sa.compareTo(sb);
+			return c < 0 || c == 0 && a < b;
+		}
 
-		cb.startDocument();
-		
-		while (iter.hasNext()) {
-			cb.processStatement(iter.next());
+		public boolean hasNext() {
+			return _k > 0 && _heads[_tree[0]] != null;
 		}
-		
-		cb.endDocument();
 
-		br.close();
-		bw.close();
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
 
-		in.delete();
+			int w = _tree[0];
+			String s = _heads[w];
 
-		_log.info("Finished sorting the frontier. Sorted " + si.count()
-				+ " with " + si.duplicates() + " duplicates.");
+			Iterator<String> it = _its.get(w);
+			_heads[w] = it.hasNext() ? it.next() : null;
 
-		return out;
+			for (int node = (w + _k) >> 1; node >= 1; node >>= 1) {
+				if (beats(_tree[node], w)) {
+					int loser = w;
+					w = _tree[node];
+					_tree[node] = loser;
+				}
+			}
+			_tree[0] = w;
+
+			return s;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
-		_clo.close();
-		
+		_writer.close();
+
 	}
-	
-	
+
+
 }
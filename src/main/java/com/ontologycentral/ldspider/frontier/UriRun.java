@@ -0,0 +1,552 @@
+package com.ontologycentral.ldspider.frontier;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A compact binary file of URIs, for runs of sorted URIs in particular.
+ *
+ * The file starts with {@link #MAGIC}, followed by blocks of about
+ * {@link #BLOCK} bytes of URIs. Each block has a header with the number of
+ * URIs, the length of the URIs decoded and as stored, and the first URI of
+ * the block in full, such that a reader can skip blocks without reading
+ * them. Within a block, the URIs are front coded: each URI is written as the
+ * number of bytes it shares with the URI before, the number of bytes of the
+ * rest, both as varints, and the rest in UTF-8. The first URI of a block
+ * shares nothing, so each block can be decoded on its own. Blocks are
+ * deflated if asked to, unless that does not make them smaller.
+ */
+public class UriRun {
+	static final byte[] MAGIC = { 'L', 'D', 'U', 'R', 1 };
+
+	/**
+	 * Bytes of front-coded URIs per block.
+	 */
+	static final int BLOCK = 64 * 1024;
+
+	/**
+	 * Flags, number of URIs, length decoded, length stored and length of the
+	 * first URI.
+	 */
+	static final int HEADER = 1 + 4 + 4 + 4 + 4;
+
+	static final int DEFLATED = 1;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	public static void writeVarint(OutputStream os, int i) throws IOException {
+		while ((i & ~0x7f) != 0) {
+			os.write((i & 0x7f) | 0x80);
+			i >>>= 7;
+		}
+		os.write(i);
+	}
+
+	/**
+	 * @return the number of bytes {@link #writeVarint(OutputStream, int)}
+	 *         writes for the int
+	 */
+	public static int varintLength(int i) {
+		int n = 1;
+		while ((i & ~0x7f) != 0) {
+			i >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * @return the varint, or -1 at the end of the stream
+	 */
+	public static int readVarint(InputStream is) throws IOException {
+		int i = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = is.read();
+			if (b < 0) {
+				if (shift == 0) {
+					return -1;
+				}
+				throw new EOFException();
+			}
+			i |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return i;
+			}
+		}
+		throw new IOException("malformed varint");
+	}
+
+	/**
+	 * Front codes URIs against the URI written before. Not thread-safe.
+	 */
+	public static class Encoder {
+		byte[] _prev = new byte[0];
+		int _prevlen = 0;
+
+		public void write(OutputStream os, String uri) throws IOException {
+			byte[] b = uri.getBytes(UTF8);
+			write(os, b, b.length);
+		}
+
+		public void write(OutputStream os, byte[] key, int len) throws IOException {
+			int shared = 0;
+			int max = Math.min(len, _prevlen);
+			while (shared < max && key[shared] == _prev[shared]) {
+				shared++;
+			}
+
+			writeVarint(os, shared);
+			writeVarint(os, len - shared);
+			os.write(key, shared, len - shared);
+
+			if (_prev.length < len) {
+				_prev = Arrays.copyOf(_prev, Math.max(len, _prev.length * 2));
+			}
+			System.arraycopy(key, shared, _prev, shared, len - shared);
+			_prevlen = len;
+		}
+
+		/**
+		 * Write the next URI in full.
+		 */
+		public void reset() {
+			_prevlen = 0;
+		}
+	}
+
+	/**
+	 * Decodes what an {@link Encoder} wrote. Not thread-safe.
+	 */
+	public static class Decoder {
+		byte[] _key = new byte[0];
+		int _len = 0;
+
+		/**
+		 * @return the next URI, or null at the end of the stream
+		 */
+		public String read(InputStream is) throws IOException {
+			int shared = readVarint(is);
+			if (shared < 0) {
+				return null;
+			}
+			int rest = readVarint(is);
+			if (rest < 0 || shared > _len) {
+				throw new IOException("malformed uri record");
+			}
+
+			int len = shared + rest;
+			if (_key.length < len) {
+				_key = Arrays.copyOf(_key, Math.max(len, _key.length * 2));
+			}
+
+			int read = shared;
+			while (read < len) {
+				int r = is.read(_key, read, len - read);
+				if (r < 0) {
+					throw new EOFException();
+				}
+				read += r;
+			}
+			_len = len;
+
+			return new String(_key, 0, len, UTF8);
+		}
+	}
+
+	/**
+	 * Writes a file of URIs, in the order given. Not thread-safe.
+	 */
+	public static class Writer implements Closeable {
+		final DataOutputStream _os;
+		final Deflater _deflater;
+
+		final Block _block;
+		final Encoder _encoder;
+		byte[] _first;
+		int _count;
+
+		byte[] _deflated;
+
+		long _written;
+		boolean _closed;
+
+		/**
+		 * @param file
+		 *            the file, will be overwritten
+		 * @param compress
+		 *            whether to deflate the blocks
+		 */
+		public Writer(File file, boolean compress) throws IOException {
+			_os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 2 * BLOCK));
+			_os.write(MAGIC);
+
+			_deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+
+			_block = new Block(BLOCK + 1024);
+			_encoder = new Encoder();
+			_count = 0;
+			_written = 0;
+			_closed = false;
+		}
+
+		public void write(String uri) throws IOException {
+			byte[] b = uri.getBytes(UTF8);
+
+			if (_count == 0) {
+				_first = b;
+				_encoder.reset();
+			}
+			_encoder.write(_block, b, b.length);
+			_count++;
+			_written++;
+
+			if (_block.size() >= BLOCK) {
+				writeBlock();
+			}
+		}
+
+		void writeBlock() throws IOException {
+			if (_count == 0) {
+				return;
+			}
+
+			int raw = _block.size();
+			byte[] data = _block.array();
+			int stored = raw;
+			int flags = 0;
+
+			if (_deflater != null) {
+				if (_deflated == null || _deflated.length < raw) {
+					_deflated = new byte[raw];
+				}
+				_deflater.reset();
+				_deflater.setInput(data, 0, raw);
+				_deflater.finish();
+				int len = _deflater.deflate(_deflated, 0, raw);
+				// keep it as it is if it does not get smaller
+				if (_deflater.finished() && len < raw) {
+					data = _deflated;
+					stored = len;
+					flags = DEFLATED;
+				}
+			}
+
+			_os.writeByte(flags);
+			_os.writeInt(_count);
+			_os.writeInt(raw);
+			_os.writeInt(stored);
+			_os.writeInt(_first.length);
+			_os.write(_first);
+			_os.write(data, 0, stored);
+
+			_block.reset();
+			_count = 0;
+			_first = null;
+		}
+
+		/**
+		 * @return the number of URIs written
+		 */
+		public long getCount() {
+			return _written;
+		}
+
+		public void close() throws IOException {
+			if (_closed) {
+				return;
+			}
+			_closed = true;
+
+			try {
+				writeBlock();
+			} finally {
+				_os.close();
+				if (_deflater != null) {
+					_deflater.end();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Iterates over the URIs of a file, in the order they have been written,
+	 * and closes the file at the end. Not thread-safe.
+	 */
+	public static class Reader implements Iterator<String>, Closeable {
+		final RandomAccessFile _raf;
+		final long _length;
+		final Decoder _decoder;
+		Inflater _inflater;
+
+		final byte[] _header;
+		byte[] _stored;
+		byte[] _data;
+
+		/**
+		 * Header of the current block: flags, length decoded and as stored,
+		 * and offset of its URIs and of the next block.
+		 */
+		int _flags;
+		int _raw;
+		int _storedlen;
+		long _payload;
+		long _nextBlock;
+
+		/**
+		 * URIs of the current block not read yet, and the URIs decoded, null
+		 * until the first of them is read.
+		 */
+		int _left;
+		BlockInputStream _in;
+
+		String _next;
+		boolean _closed;
+
+		public Reader(File file) throws IOException {
+			_raf = new RandomAccessFile(file, "r");
+			_length = _raf.length();
+
+			byte[] magic = new byte[MAGIC.length];
+			try {
+				_raf.readFully(magic);
+			} catch (EOFException e) {
+				_raf.close();
+				throw new IOException(file + " is not a uri run");
+			}
+			if (!Arrays.equals(magic, MAGIC)) {
+				_raf.close();
+				throw new IOException(file + " is not a uri run");
+			}
+
+			_decoder = new Decoder();
+			_header = new byte[HEADER];
+			_nextBlock = MAGIC.length;
+			_left = 0;
+			_closed = false;
+		}
+
+		public boolean hasNext() {
+			if (_next == null && !_closed) {
+				try {
+					_next = advance();
+				} catch (IOException e) {
+					close();
+					throw new IllegalStateException(e);
+				}
+			}
+			return _next != null;
+		}
+
+		public String next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			String s = _next;
+			_next = null;
+			return s;
+		}
+
+		String advance() throws IOException {
+			while (_left == 0) {
+				if (_nextBlock >= _length) {
+					close();
+					return null;
+				}
+				header(_nextBlock);
+			}
+
+			if (_in == null) {
+				load();
+			}
+
+			_left--;
+			String s = _decoder.read(_in);
+			if (s == null) {
+				throw new EOFException("block ends before its " + _left + " last uris");
+			}
+			return s;
+		}
+
+		/**
+		 * Skip forward to the first URI not before the key, assuming the
+		 * URIs are sorted. Whole blocks before the key are skipped by their
+		 * headers without reading them.
+		 */
+		public void seek(String key) throws IOException {
+			if (_next != null) {
+				if (_next.compareTo(key) >= 0) {
+					return;
+				}
+				_next = null;
+			}
+
+			while (!_closed && _nextBlock < _length) {
+				String first = first(_nextBlock);
+				if (first.compareTo(key) > 0) {
+					break;
+				}
+				header(_nextBlock);
+			}
+
+			String s;
+			while (!_closed && (s = advance()) != null) {
+				if (s.compareTo(key) >= 0) {
+					_next = s;
+					return;
+				}
+			}
+		}
+
+		/**
+		 * @return the first URI of the block at the offset
+		 */
+		String first(long offset) throws IOException {
+			_raf.seek(offset);
+			_raf.readFully(_header);
+			byte[] first = new byte[ByteBuffer.wrap(_header).getInt(13)];
+			_raf.readFully(first);
+			return new String(first, UTF8);
+		}
+
+		/**
+		 * Make the block at the offset the current one.
+		 */
+		void header(long offset) throws IOException {
+			_raf.seek(offset);
+			_raf.readFully(_header);
+
+			ByteBuffer bb = ByteBuffer.wrap(_header);
+			_flags = bb.get(0);
+			_left = bb.getInt(1);
+			_raw = bb.getInt(5);
+			_storedlen = bb.getInt(9);
+			_payload = offset + HEADER + bb.getInt(13);
+			_nextBlock = _payload + _storedlen;
+			_in = null;
+
+			if (_nextBlock > _length || _left < 0) {
+				throw new EOFException("block at " + offset + " past the end of the file");
+			}
+		}
+
+		void load() throws IOException {
+			if (_stored == null || _stored.length < _storedlen) {
+				_stored = new byte[Math.max(_storedlen, BLOCK + 1024)];
+			}
+			_raf.seek(_payload);
+			_raf.readFully(_stored, 0, _storedlen);
+
+			if ((_flags & DEFLATED) == 0) {
+				_in = new BlockInputStream(_stored, _storedlen);
+				return;
+			}
+
+			if (_data == null || _data.length < _raw) {
+				_data = new byte[Math.max(_raw, BLOCK + 1024)];
+			}
+			if (_inflater == null) {
+				_inflater = new Inflater();
+			}
+			_inflater.reset();
+			_inflater.setInput(_stored, 0, _storedlen);
+			try {
+				int len = 0;
+				while (len < _raw && !_inflater.finished()) {
+					int n = _inflater.inflate(_data, len, _raw - len);
+					if (n == 0 && (_inflater.needsInput() || _inflater.needsDictionary())) {
+						break;
+					}
+					len += n;
+				}
+				if (len != _raw) {
+					throw new EOFException("block inflates to " + len + " rather than " + _raw + " bytes");
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e.getMessage());
+			}
+			_in = new BlockInputStream(_data, _raw);
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		public void close() {
+			if (_closed) {
+				return;
+			}
+			_closed = true;
+			_left = 0;
+			_in = null;
+
+			try {
+				_raf.close();
+			} catch (IOException e) {
+				;
+			}
+			if (_inflater != null) {
+				_inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Gives access to the bytes written so far, without copying them.
+	 */
+	static class Block extends ByteArrayOutputStream {
+		Block(int size) {
+			super(size);
+		}
+
+		byte[] array() {
+			return buf;
+		}
+	}
+
+	/**
+	 * Reads a block of bytes, unlike {@link java.io.ByteArrayInputStream}
+	 * without taking a lock per byte.
+	 */
+	static class BlockInputStream extends InputStream {
+		final byte[] _b;
+		final int _end;
+		int _pos;
+
+		BlockInputStream(byte[] b, int end) {
+			_b = b;
+			_end = end;
+			_pos = 0;
+		}
+
+		public int read() {
+			return _pos < _end ? _b[_pos++] & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len) {
+			if (_pos >= _end) {
+				return -1;
+			}
+			len = Math.min(len, _end - _pos);
+			System.arraycopy(_b, _pos, b, off, len);
+			_pos += len;
+			return len;
+		}
+	}
+}
@@ -26,6 +26,7 @@ import org.apache.http.params.HttpProtocolParams;
 
 import com.ontologycentral.ldspider.CrawlerConstants;
 import com.ontologycentral.ldspider.http.internal.CloseIdleConnectionThread;
+import com.ontologycentral.ldspider.http.internal.ConnectionReuseInterceptor;
 import com.ontologycentral.ldspider.http.internal.HttpRequestRetryHandler;
 import com.ontologycentral.ldspider.http.internal.ResponseGzipUncompress;
 
@@ -35,6 +36,8 @@ public class ConnectionManager {
 
 	private CloseIdleConnectionThread _ciThread;
 
+	private ConnectionReuseInterceptor _reuse;
+
     
     public ConnectionManager(String proxyHost, int proxyPort, String puser, String ppassword, int connections) {
     	// general setup
@@ -65,6 +68,9 @@ public class ConnectionManager {
     	_client = new DefaultHttpClient(cm, params);
     	_client.addResponseInterceptor(new ResponseGzipUncompress());
 
+    	_reuse = new ConnectionReuseInterceptor();
+    	_client.addRequestInterceptor(_reuse);
+
     	// check if we have a proxy
     	if (proxyHost != null) {
     		HttpHost proxy = new HttpHost(proxyHost, proxyPort, "http");
@@ -99,6 +105,32 @@ public class ConnectionManager {
 
     }
 
+    /**
+     * @return the number of requests sent
+     */
+    public long getRequests() {
+    	return _reuse.getRequests();
+    }
+
+    /**
+     * @return the number of requests sent over a kept-alive connection
+     */
+    public long getReusedConnections() {
+    	return _reuse.getReused();
+    }
+
+    /**
+     * @return the number of TLS handshakes saved by kept-alive connections
+     */
+    public long getTlsHandshakesSaved() {
+    	return _reuse.getTlsHandshakesSaved();
+    }
+
+    public String toString() {
+    	return _reuse.getRequests() + " requests, " + _reuse.getReused() + " on reused connections, "
+    			+ _reuse.getTlsHandshakesSaved() + " TLS handshakes saved";
+    }
+
     public HttpResponse connect(HttpGet get) throws ClientProtocolException, IOException {
     	return _client.execute(get);
     }
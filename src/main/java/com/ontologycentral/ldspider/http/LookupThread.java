@@ -2,6 +2,10 @@ package com.ontologycentral.ldspider.http;
 
 import java.io.InputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
@@ -10,6 +14,7 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.utils.DateUtils;
 import org.semanticweb.yars.nx.parser.Callback;
 import org.semanticweb.yars.util.Callbacks;
 
@@ -72,7 +77,8 @@ public class LookupThread extends Thread {
 		
 		int i = 0;
 
-		URI lu = _q.poll();
+		Iterator<URI> batch = _q.poll(CrawlerConstants.POLL_BATCH).iterator();
+		URI lu = batch.hasNext() ? batch.next() : null;
 
 		_log.fine("got " + lu);
 		
@@ -80,13 +86,20 @@ public class LookupThread extends Thread {
 			
 			if (!(!CrawlerConstants.URI_LIMIT_ENABLED || (_overall200FetchesWithRDF.get() < CrawlerConstants.URI_LIMIT_WITH_NON_EMPTY_RDF))) {
 				_log.info("URI limit reached. Stopping...");
+				// the rest of the batch is marked as seen, but not looked up
+				List<URI> rest = new ArrayList<URI>();
+				rest.add(lu);
+				while (batch.hasNext()) {
+					rest.add(batch.next());
+				}
+				_q.giveBack(rest);
 				break;
 			}
 				
 			
 			setName("LT-"+_no+":"+lu.toString());
 			
-			_q.addSeen(lu);
+			// the queue has marked the batch as seen already
 			
 			i++;
 			long time = System.currentTimeMillis();
@@ -98,6 +111,7 @@ public class LookupThread extends Thread {
 			long time3 = time1;
 			long bytes = -1;
 			int status = 0;
+			int response = 0;
 			String type = null;
 			
 //			List<URI> li = _sitemaps.getSitemapUris(lu);
@@ -114,6 +128,11 @@ public class LookupThread extends Thread {
 				_log.info("access denied per robots.txt for " + lu);
 				_eh.handleStatus(lu, CrawlerConstants.SKIP_ROBOTS, null, 0, -1);
 			} else {
+				long crawldelay = _robots.getCrawlDelay(lu);
+				if (crawldelay >= 0) {
+					_q.setCrawlDelay(lu, crawldelay);
+				}
+
 				time2 = System.currentTimeMillis();
 
 				HttpGet hget = new HttpGet(lu);
@@ -125,6 +144,7 @@ public class LookupThread extends Thread {
 					HttpEntity hen = hres.getEntity();
 
 					status = hres.getStatusLine().getStatusCode();
+					response = status;
 
 					Header ct = hres.getFirstHeader("Content-Type");
 					if (ct != null) {
@@ -191,6 +211,15 @@ public class LookupThread extends Thread {
 						_eh.handleRedirect(lu, to, status);
 	
 						headers = hres.getAllHeaders();
+					} else if (status == 429 || status == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+						Header ra = hres.getFirstHeader("Retry-After");
+						if (ra != null) {
+							long delay = parseRetryAfter(ra.getValue());
+							if (delay >= 0) {
+								_log.info("retry after " + delay + " ms for " + lu);
+								_q.setRetryAfter(lu, delay);
+							}
+						}
 					}
 
 					if (hen != null) {
@@ -205,6 +234,8 @@ public class LookupThread extends Thread {
 				
 				time3 = System.currentTimeMillis();
 				
+				_q.reportLookup(lu, response, time3 - time2);
+				
 				if (status != 0) {
 					_eh.handleStatus(lu, status, headers, (time3-time2), bytes);
 				}
@@ -212,12 +243,41 @@ public class LookupThread extends Thread {
 				_log.fine(lu + " " + (time1-time) + " ms before lookup, " + (time2-time1) + " ms to check if lookup is ok, " + (time3-time2) + " ms for lookup");
 			}
 
-			lu = _q.poll();
+			if (!batch.hasNext()) {
+				batch = _q.poll(CrawlerConstants.POLL_BATCH).iterator();
+			}
+			lu = batch.hasNext() ? batch.next() : null;
 		}
 		
+		_q.finishedPolling();
+		
 		_log.info("finished thread after fetching " + i + " uris; " + getOverall200Fetches() + " in all threads overall until now (" + getOverall200FetchesWithNonEmptyRDF() + " with non-empty RDF).");
 	}
 	
+	/**
+	 * Parse the value of a Retry-After header, either delta-seconds or an
+	 * HTTP-date.
+	 * 
+	 * @return the time to wait in ms, -1 if the value is not parsable
+	 */
+	static long parseRetryAfter(String value) {
+		value = value.trim();
+		
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds < 0 ? -1 : Math.min(seconds, Long.MAX_VALUE / 1000) * 1000;
+		} catch (NumberFormatException e) {
+			;
+		}
+		
+		Date date = DateUtils.parseDate(value);
+		if (date == null) {
+			return -1;
+		}
+
+		return Math.max(0, date.getTime() - System.currentTimeMillis());
+	}
+	
 	public static int getOverall200FetchesWithNonEmptyRDF() {
 		return _overall200FetchesWithRDF.get();
 	}
@@ -0,0 +1,62 @@
+package com.ontologycentral.ldspider.http.internal;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * Counts the requests sent over a connection that has been used before, i.e.
+ * kept alive, and the TLS handshakes saved that way. The connection is bound
+ * to the context before the request interceptors run, and its metrics start
+ * afresh whenever it is opened.
+ */
+public class ConnectionReuseInterceptor implements HttpRequestInterceptor {
+	final AtomicLong _requests = new AtomicLong(0);
+	final AtomicLong _reused = new AtomicLong(0);
+	final AtomicLong _tlsSaved = new AtomicLong(0);
+
+	public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+		_requests.incrementAndGet();
+
+		HttpConnection conn = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+		if (conn == null || conn.getMetrics().getRequestCount() == 0) {
+			return;
+		}
+
+		_reused.incrementAndGet();
+
+		HttpHost target = (HttpHost) context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+		if (target != null && "https".equalsIgnoreCase(target.getSchemeName())) {
+			_tlsSaved.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of requests sent
+	 */
+	public long getRequests() {
+		return _requests.get();
+	}
+
+	/**
+	 * @return the number of requests sent over a connection used before
+	 */
+	public long getReused() {
+		return _reused.get();
+	}
+
+	/**
+	 * @return the number of https requests sent over a connection used
+	 *         before, each saving a TLS handshake
+	 */
+	public long getTlsHandshakesSaved() {
+		return _tlsSaved.get();
+	}
+}
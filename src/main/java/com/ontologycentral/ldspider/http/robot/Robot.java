@@ -119,4 +119,19 @@ public class Robot {
 			return true;			
 		}
     }
+
+	/**
+	 * @return the Crawl-delay of the robots.txt in ms, -1 if there is none
+	 */
+	public long getCrawlDelay() {
+		if (_nrc == null) {
+			return -1;
+		}
+
+		try {
+			return _nrc.getCrawlDelay();
+		} catch (IllegalStateException ex) {
+			return -1;
+		}
+	}
 }
\ No newline at end of file
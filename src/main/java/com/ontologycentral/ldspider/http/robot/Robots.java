@@ -47,33 +47,15 @@ public class Robots {
     	URI hostUri;
     	URL url = null;
 		try {
-			if (uri.getPort() < 0) {
-				// The URI has no port specified. The most likely case.
-				hostUri = new URI(uri.getScheme(), uri.getAuthority(), null,
-						null, null);
-				url = uri.toURL();
-				}
-			else if ((uri.getPort() == 80 && uri.getScheme().equalsIgnoreCase(
-					"http"))
-					|| (uri.getPort() == 443 && uri.getScheme()
-							.equalsIgnoreCase("https"))
-					|| (uri.getPort() == 21 && uri.getScheme()
-							.equalsIgnoreCase("ftp"))) {
+			hostUri = getHostUri(uri);
+			if (hasDefaultPort(uri)) {
 				// The URI has a port specified which is the default for its scheme.
-				hostUri = new URI(uri.getScheme(), uri.getUserInfo(),
-						uri.getHost(), -1, null, null, null);
 				url = new URI(uri.getScheme(), uri.getUserInfo(),
 						uri.getHost(), -1, uri.getPath(), uri.getQuery(),
 						uri.getFragment()).toURL();
-			}
-			else {
-				// The URI has a port specified which is to remain part of
-				// authority in the caching of different instances of Robot.
-				hostUri = new URI(uri.getScheme(), uri.getAuthority(), null,
-						null, null);
+			} else {
 				url = uri.toURL();
 			}
-			
 		} catch (URISyntaxException e1) {
 			_log.fine(e1.getMessage() + " " + uri);
 			return false;
@@ -94,4 +76,44 @@ public class Robots {
 		
     	return r.isUrlAllowed(url);
     }
+
+    /**
+     * The Crawl-delay the host of the URI asks for. Only looks at the
+     * robots.txt fetched already, i.e. call {@link #accessOk(URI)} first.
+     * 
+     * @return the delay in ms, -1 if there is none
+     */
+    public long getCrawlDelay(URI uri) {
+    	URI hostUri;
+
+    	try {
+    		hostUri = getHostUri(uri);
+    	} catch (URISyntaxException e) {
+    		_log.fine(e.getMessage() + " " + uri);
+    		return -1;
+    	}
+
+    	Robot r = _robots.get(hostUri.toString());
+
+    	return r == null ? -1 : r.getCrawlDelay();
+    }
+
+    /**
+     * The key of the robots.txt for the URI: scheme and authority, without
+     * the port if it is the default one for the scheme, so that the same
+     * host with and without the default port shares one {@link Robot}.
+     */
+    private static URI getHostUri(URI uri) throws URISyntaxException {
+    	if (hasDefaultPort(uri)) {
+    		return new URI(uri.getScheme(), uri.getUserInfo(),
+    				uri.getHost(), -1, null, null, null);
+    	}
+    	return new URI(uri.getScheme(), uri.getAuthority(), null, null, null);
+    }
+
+    private static boolean hasDefaultPort(URI uri) {
+    	return (uri.getPort() == 80 && uri.getScheme().equalsIgnoreCase("http"))
+    			|| (uri.getPort() == 443 && uri.getScheme().equalsIgnoreCase("https"))
+    			|| (uri.getPort() == 21 && uri.getScheme().equalsIgnoreCase("ftp"));
+    }
 }
\ No newline at end of file
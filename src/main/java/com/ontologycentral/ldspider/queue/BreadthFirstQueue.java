@@ -1,5 +1,7 @@
 package com.ontologycentral.ldspider.queue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -9,7 +11,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.tld.TldManager;
@@ -26,11 +30,42 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 	private static final  Logger _log = Logger.getLogger(BreadthFirstQueue.class.getName());
 
-	Map<String, Queue<URI>> _queues;
-	Queue<String> _current;
+	/**
+	 * The PLDs are spread over the shards by hash, each shard has its own
+	 * locks and politeness clock.
+	 */
+	QueueShard[] _shards;
+
+	/**
+	 * Hands out the home shard of each thread.
+	 */
+	AtomicInteger _homes;
+	transient ThreadLocal<Integer> _home;
+
+	/**
+	 * With PLD affinity, the shard each PLD has been moved to when a thread
+	 * stole it, null without affinity. PLDs not in here are in the shard
+	 * they hash to.
+	 */
+	ConcurrentHashMap<String, QueueShard> _owners;
+
+	/**
+	 * With PLD affinity, one of these is held while a PLD moves to another
+	 * shard, and while adding to the queue of a PLD, such that adding does
+	 * not bring back a queue or slot of the PLD in the shard it has left.
+	 * Striped by PLD hash.
+	 */
+	transient Object[] _moving;
+
+	static final int MOVING_STRIPES = 64;
+
+	/**
+	 * Number of PLDs stolen since the last schedule.
+	 */
+	AtomicInteger _steals;
 	
 	/**
-	 * Point in time of the last schedule or the last queue turnaround.
+	 * Point in time of the last schedule.
 	 */
 	long _time;
 
@@ -60,7 +95,17 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	/**
 	 * If _minActPlds has been reached and thus we should finish up soon.
 	 */
-	boolean _minReached;
+	volatile boolean _minReached;
+
+	/**
+	 * If a frontier is currently being scheduled.
+	 */
+	volatile boolean _scheduling;
+
+	/**
+	 * The PLDs of the last batch polled by a thread.
+	 */
+	transient ThreadLocal<List<String>> _held;
 
 	/**
 	 * If the minActPlds limit should already apply in the downloading of the
@@ -68,6 +113,13 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	 */
 	boolean _minActPldsAlready4Seedlist;
 
+	/**
+	 * URIs of the next hop per PLD, prepared while the current hop is being
+	 * polled, and the lock held while preparing.
+	 */
+	Map<String, List<URI>> _prepared;
+	ReentrantLock _preparing;
+
 	/**
 	 * 
 	 * @param tldm
@@ -75,6 +127,29 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	 * @param maxplds
 	 */
 	public BreadthFirstQueue(TldManager tldm, Redirects redirs, Seen seen, int maxuris, int maxplds, int minActPlds, boolean minActPldsAlready4Seedlist) {
+		this(tldm, redirs, seen, maxuris, maxplds, minActPlds, minActPldsAlready4Seedlist,
+				CrawlerConstants.PLD_AFFINITY ? CrawlerConstants.NB_THREADS
+						: (CrawlerConstants.NB_THREADS + CrawlerConstants.THREADS_PER_QUEUE_SHARD - 1) / CrawlerConstants.THREADS_PER_QUEUE_SHARD,
+				CrawlerConstants.PLD_AFFINITY);
+	}
+
+	public BreadthFirstQueue(TldManager tldm, Redirects redirs, Seen seen, int maxuris, int maxplds, int minActPlds, boolean minActPldsAlready4Seedlist, int shards) {
+		this(tldm, redirs, seen, maxuris, maxplds, minActPlds, minActPldsAlready4Seedlist, shards, false);
+	}
+
+	/**
+	 * 
+	 * @param shards
+	 *            number of shards to spread the PLDs over; threads poll from
+	 *            their own shard and only turn to the others if there is
+	 *            nothing ready in theirs
+	 * @param affinity
+	 *            if a PLD a thread takes from another shard moves to the
+	 *            shard of the thread, i.e. idle threads steal whole PLDs;
+	 *            with one shard per thread, each PLD sticks to one thread
+	 *            and so do its keep-alive connections
+	 */
+	public BreadthFirstQueue(TldManager tldm, Redirects redirs, Seen seen, int maxuris, int maxplds, int minActPlds, boolean minActPldsAlready4Seedlist, int shards, boolean affinity) {
 		super(tldm, redirs, seen);
 
 		_maxuris = maxuris;
@@ -89,10 +164,17 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 		_minActPlds = minActPlds;
 
-		_current = new ConcurrentLinkedQueue<String>();
+		_shards = new QueueShard[Math.max(1, shards)];
+		for (int i = 0; i < _shards.length; i++)
+			_shards[i] = new QueueShard();
 
-		_queues = Collections
-				.synchronizedMap(new HashMap<String, Queue<URI>>());
+		_homes = new AtomicInteger(0);
+		_home = new ThreadLocal<Integer>();
+		if (affinity)
+			_owners = new ConcurrentHashMap<String, QueueShard>();
+		_moving = stripes();
+		_steals = new AtomicInteger(0);
+		_held = new PoliteScheduler.Held();
 
 		_minReached = false;
 
@@ -100,16 +182,43 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		
 		_minActPldsAlready4Seedlist = minActPldsAlready4Seedlist;
 
+		_prepared = new HashMap<String, List<URI>>();
+		_preparing = new ReentrantLock();
+
 	}
 	
 	/**
-	 * Put URIs from frontier to queue
+	 * The thread locals and the stripes are not serialised, so set them up
+	 * afresh.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+
+		_home = new ThreadLocal<Integer>();
+		_held = new PoliteScheduler.Held();
+		_moving = stripes();
+	}
+
+	static Object[] stripes() {
+		Object[] stripes = new Object[MOVING_STRIPES];
+		for (int i = 0; i < stripes.length; i++)
+			stripes[i] = new Object();
+		return stripes;
+	}
+
+	Object moving(String pld) {
+		return _moving[(pld.hashCode() & Integer.MAX_VALUE) % _moving.length];
+	}
+
+	/**
+	 * Put URIs from frontier to queue, together with the URIs prepared.
 	 * 
 	 */
 	public synchronized void schedule(Frontier f) {	
 		_log.info("start scheduling...");
 
 		_minReached = false;
+		_scheduling = true;
 		
 		long time = System.currentTimeMillis();
 		
@@ -117,7 +226,26 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		// Thus, I made schedule() abstract there.
 		// super.schedule(f);
 
-		_queues.clear();
+		for (QueueShard s : _shards)
+			s.clear();
+
+		_preparing.lock();
+		try {
+			for (Map.Entry<String, List<URI>> e : _prepared.entrySet()) {
+				PldQueue q = null;
+				for (URI u : e.getValue()) {
+					// the uri may have been polled in the tail of the hop
+					if (!checkSeen(u)) {
+						if (q == null)
+							q = shard(e.getKey()).getOrCreate(e.getKey());
+						q.add(u);
+					}
+				}
+			}
+			_prepared.clear();
+		} finally {
+			_preparing.unlock();
+		}
 
 		Iterator<URI> it = f.iterator();
 		while (it.hasNext()) {
@@ -129,30 +257,23 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		}
 
 		if (_minActPlds < 0)
-			for (String pld : _queues.keySet()) {
-				Queue<URI> q = _queues.get(pld);
+			for (PldQueue q : queues()) {
+				String pld = q.getPld();
 
-				// HACK to avoid hanging at slow servers
+				// avoid hanging at slow servers
 				int maxuris = _maxuris;
-				for (String s : CrawlerConstants.SITES_SLOW) {
-					if (s.equals(pld)) {
-						maxuris = maxuris / CrawlerConstants.SLOW_DIV;
-					}
+				if (isSlow(pld)) {
+					maxuris = maxuris / CrawlerConstants.SLOW_DIV;
 				}
 
 				if (q.size() > maxuris) {
 					int n = 0;
-					ConcurrentLinkedQueue<URI> nq = new ConcurrentLinkedQueue<URI>();
-					for (URI u : q) {
-						nq.add(u);
-						n++;
-						if (n >= maxuris) {
-							break;
+					for (Iterator<URI> qit = q.iterator(); qit.hasNext(); ) {
+						qit.next();
+						if (++n > maxuris) {
+							qit.remove();
 						}
 					}
-					q = nq;
-
-					_queues.put(pld, q);
 				}
 			}
 
@@ -162,16 +283,74 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		if (_maxplds < Integer.MAX_VALUE - 1) {
 			for (int i = _maxplds; i < lipld.size(); i++) {
 				String pld = lipld.get(i);
-				_queues.remove(pld);
+				shard(pld)._queues.remove(pld).discard();
 
 				_log.fine("removing " + pld);
 			}
 		}
 		
-		_current.addAll(_queues.keySet());
+		// registering in the order of the list, such that plds with many uris
+		// get the first turn if sorted.
+		for (String pld : lipld) {
+			QueueShard s = shard(pld);
+			if (s._queues.containsKey(pld))
+				s._scheduler.register(pld);
+		}
+		
+		resetScheduled(f);
 		
-		//_current.addAll(lipld);
+		++_scheduledFrontiers;
+		_scheduling = false;
+
+		_time = System.currentTimeMillis();
+
+		_log.info("scheduling " + active() + " plds done (" + size()
+				+ " URIs) in " + (_time - time) + " ms. This was schedule No. "
+				+ _scheduledFrontiers);
+		if (_owners != null)
+			_log.info(_steals.getAndSet(0) + " plds stolen by idle threads in the last hop");
+		_log.info(toString());
+	}
 		
+	public boolean canPrepare() {
+		return true;
+	}
+
+	/**
+	 * Collect the URIs of the frontier that have not been seen per PLD. The
+	 * cut-offs apply once they are scheduled.
+	 */
+	public void prepare(Frontier f) {
+		_preparing.lock();
+		try {
+			long time = System.currentTimeMillis();
+			int n = 0;
+
+			for (URI u : f) {
+				if (!checkSeen(u)) {
+					String pld = _tldm.getPLD(u);
+					if (pld != null) {
+						List<URI> li = _prepared.get(pld);
+						if (li == null) {
+							li = new ArrayList<URI>();
+							_prepared.put(pld, li);
+						}
+						li.add(u);
+						n++;
+					}
+				}
+			}
+
+			resetScheduled(f);
+
+			_log.info("prepared " + n + " URIs of " + _prepared.size() + " plds for the next hop in "
+					+ (System.currentTimeMillis() - time) + " ms");
+		} finally {
+			_preparing.unlock();
+		}
+	}
+
+	void resetScheduled(Frontier f) {
 		// now just forgets what's happened in the previous round; means that we might
 		// starve of URIs but helps the crawler move on
 		if (f instanceof DiskFrontier) {
@@ -185,97 +364,264 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		// Marks all URIs that have been scheduled as scheduled in the SortingDiskFrontier.
 		if (f instanceof SortingDiskFrontier)
 			f.reset();
-		
-		++_scheduledFrontiers;
-
-		_time = System.currentTimeMillis();
-
-		_log.info("scheduling " + _current.size() + " plds done (" + size()
-				+ " URIs) in " + (_time - time) + " ms. This was schedule No. "
-				+ _scheduledFrontiers);
-		_log.info(toString());
 	}
-		
+
 	/**
-	 * Poll a URI, one PLD after another. If queue turnaround is smaller than
-	 * DELAY, wait for DELAY ms to avoid overloading servers. Note that if there
-	 * are redirects to be processed, they are already returned by
-	 * {@link RedirectsFavouringSpiderQueue}. If {@link #_minActPlds} is used (>-1),
-	 * plds with many URIs are not favoured, otherwise they are.
+	 * Poll a URI from the PLD that has been waiting for the longest time. A
+	 * PLD is only handed out again {@link CrawlerConstants#MIN_DELAY} ms after
+	 * its last lookup to avoid overloading servers; callers wait only if no PLD
+	 * is ready at all. Note that if there are redirects to be processed, they
+	 * are already returned by {@link RedirectsFavouringSpiderQueue}. If
+	 * {@link #_minActPlds} is used (>-1), plds with many URIs are not
+	 * favoured, otherwise they get their first turn first.
 	 * 
 	 * @return URI
 	 */
-	protected synchronized URI pollInternal() {
-		if (_current == null) {
-			return null;
-		}
-		
-		URI next = null;
-		
+	protected URI pollInternal() {
 		long time = System.currentTimeMillis();
-		
-		int empty = 0;
 
-		long time1 = 0l;
+		releaseHeld();
 
-		do {	
-			time1 = System.currentTimeMillis();
+		URI next = null;
 
-			// randomly start from the beginning of the queue to spread out lookupt to large sites
-			if (_current.isEmpty() || (_minActPlds < 0 && (time1 - _time) > CrawlerConstants.MAX_DELAY))
-			{                       // ^^ only consider max delay if minActPLDs is disabled 
-				// queue is empty, done for this round
-				if (size() == 0) {
-					return null;
-				}
-							
-				if ((time1 - _time) < CrawlerConstants.MIN_DELAY) {
-					try {
-						_log.info("delaying queue " + CrawlerConstants.MIN_DELAY + " ms ...");
-						Thread.sleep(CrawlerConstants.MIN_DELAY);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				
-				_log.info("queue turnaround in " + (time1-_time) + " ms");
-
-				_time = System.currentTimeMillis();
-
-				List<String> lipld = getQueuePlds(_minActPlds < 0);
-				
-				_current.addAll(lipld);
-				
-				if (_minActPlds > -1 && _current.size() < _minActPlds && (_minActPldsAlready4Seedlist || _scheduledFrontiers > 1)) {
-					_log.info("The minimum number of active PLDs has been reached. Finishing this round...");
-					_minReached = true;
+		while (next == null) {
+			if (isDone())
+				return null;
+
+			List<String> plds = take(1, CrawlerConstants.MIN_DELAY);
+			if (plds.isEmpty())
+				continue;
+
+			String pld = plds.get(0);
+			Queue<URI> q = shard(pld)._queues.get(pld);
+
+			if (q != null) {
+				// the pld is ours until released, so nobody else polls from q
+				while ((next = q.poll()) != null && checkSeen(next))
+					;
+				if (next != null)
+					setSeen(next);
+			}
+
+			release(pld, next != null);
+		}
+
+		_log.fine("poll for " + next + " done in " + (System.currentTimeMillis() - time) + " ms");
+
+		return next;
+	}
+
+	/**
+	 * Add one URI from each of up to n PLDs that are ready. The PLDs stay
+	 * with the calling thread until it polls again, such that the politeness
+	 * delay only starts once the whole batch has been looked up. The number
+	 * of PLDs per batch is limited to the share of a thread of the active
+	 * PLDs, so that batches do not starve the other threads.
+	 */
+	protected void pollInternal(int n, List<URI> batch) {
+		releaseHeld();
+
+		if (n <= 0)
+			return;
+
+		List<String> held = _held.get();
+
+		do {
+			if (isDone())
+				return;
+
+			int share = Math.max(1, active() / Math.max(1, CrawlerConstants.NB_THREADS));
+
+			for (String pld : take(Math.min(n, share), batch.isEmpty() ? CrawlerConstants.MIN_DELAY : 0)) {
+				Queue<URI> q = shard(pld)._queues.get(pld);
+
+				URI next = null;
+				if (q != null)
+					while ((next = q.poll()) != null && checkSeen(next))
+						;
+
+				if (next != null) {
+					batch.add(next);
+					held.add(pld);
+				} else {
+					release(pld, false);
 				}
 			}
+		} while (batch.isEmpty());
+	}
 
-			if (_minReached)
-				return null;
-			
-			String pld = _current.poll();
-			Queue<URI> q = _queues.get(pld);
-			
-			if (q != null && !q.isEmpty()) {
-				next = q.poll();
-				
-				if (checkSeen(next)) {
-					next = null;
-				} else {			
-					setSeen(next);
+	/**
+	 * If the round is over, i.e. the queue is empty or the minimum number of
+	 * active PLDs has been reached.
+	 */
+	boolean isDone() {
+		if (_minReached)
+			return true;
+
+		int active = active();
+
+		// queue is empty, done for this round
+		if (active == 0)
+			return true;
+
+		if (_minActPlds > -1 && active < _minActPlds && (_minActPldsAlready4Seedlist || _scheduledFrontiers > 1)) {
+			_log.info("The minimum number of active PLDs has been reached. Finishing this round...");
+			_minReached = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Take up to n PLDs that are ready, from the home shard of the calling
+	 * thread if there are any, otherwise from the other shards. If none is
+	 * ready, waits at most maxwait ms for the shard with the PLD due next.
+	 * With affinity, PLDs taken from another shard move to the home shard.
+	 */
+	List<String> take(int n, long maxwait) {
+		int home = home();
+
+		for (int i = 0; i < _shards.length; i++) {
+			QueueShard s = _shards[(home + i) % _shards.length];
+			List<String> plds = s._scheduler.take(n, 0);
+			if (!plds.isEmpty())
+				return steal(plds, s, _shards[home]);
+		}
+
+		if (maxwait <= 0)
+			return Collections.emptyList();
+
+		QueueShard next = _shards[home];
+		long due = Long.MAX_VALUE;
+		for (QueueShard s : _shards) {
+			long d = s._scheduler.nextDue();
+			if (d < due) {
+				due = d;
+				next = s;
+			}
+		}
+
+		return steal(next._scheduler.take(n, Math.max(1, Math.min(due, maxwait))), next, _shards[home]);
+	}
+
+	/**
+	 * Move PLDs taken from a shard to another shard, if there is affinity.
+	 * Taken PLDs are held by the calling thread, so nobody else polls from
+	 * their queues or reports on them while they move. The PLDs get counted
+	 * in the new shard before they are dropped from the old one, so that the
+	 * queue does not look empty in between.
+	 *
+	 * @return the PLDs
+	 */
+	List<String> steal(List<String> plds, QueueShard from, QueueShard to) {
+		if (_owners == null || from == to)
+			return plds;
+
+		for (String pld : plds) {
+			synchronized (moving(pld)) {
+				to._scheduler.attach(from._scheduler.slot(pld));
+
+				PldQueue q = from._queues.get(pld);
+				if (q != null) {
+					to._queues.put(pld, q);
+					q.moveTo(to._queued, to._order);
 				}
-			} else {
-				empty++;
+
+				_owners.put(pld, to);
+
+				from._scheduler.detach(pld);
+				if (q != null)
+					from._queues.remove(pld);
 			}
-		} while (next == null && empty < _queues.size());
-		
-		time1 = System.currentTimeMillis();
-		
-		_log.fine("poll for " + next + " done in " + (time1 - time) + " ms");
+		}
 
-		return next;
+		_steals.addAndGet(plds.size());
+
+		return plds;
+	}
+
+	int home() {
+		Integer home = _home.get();
+		if (home == null) {
+			home = Integer.valueOf((_homes.getAndIncrement() & Integer.MAX_VALUE) % _shards.length);
+			_home.set(home);
+		}
+		return home.intValue();
+	}
+
+	QueueShard shard(String pld) {
+		if (_owners != null) {
+			QueueShard s = _owners.get(pld);
+			if (s != null)
+				return s;
+		}
+		return _shards[(pld.hashCode() & Integer.MAX_VALUE) % _shards.length];
+	}
+
+	/**
+	 * @return the number of PLDs waiting or held by a thread, over all shards
+	 */
+	int active() {
+		int active = 0;
+		for (QueueShard s : _shards)
+			active += s._scheduler.active();
+		return active;
+	}
+
+	List<PldQueue> queues() {
+		List<PldQueue> li = new ArrayList<PldQueue>();
+		for (QueueShard s : _shards)
+			li.addAll(s._queues.values());
+		return li;
+	}
+
+	void release(String pld, boolean accessed) {
+		QueueShard s = shard(pld);
+		Queue<URI> q = s._queues.get(pld);
+
+		boolean more = q != null && !q.isEmpty();
+		s._scheduler.release(pld, accessed, more);
+
+		// an add() may have happened between the check and the release
+		if (!more && q != null && !q.isEmpty())
+			s._scheduler.register(pld);
+	}
+
+	/**
+	 * Release the PLDs of the last batch of the calling thread.
+	 */
+	void releaseHeld() {
+		List<String> held = _held.get();
+
+		if (!held.isEmpty()) {
+			for (String pld : held)
+				release(pld, true);
+			held.clear();
+		}
+	}
+
+	public void finishedPolling() {
+		releaseHeld();
+		super.finishedPolling();
+	}
+
+	/**
+	 * If the PLD is known to be slow, or its delay has grown beyond
+	 * {@link CrawlerConstants#ADAPTIVE_DELAY_SLOW} in earlier rounds.
+	 */
+	boolean isSlow(String pld) {
+		for (String s : CrawlerConstants.SITES_SLOW) {
+			if (s.equals(pld)) {
+				return true;
+			}
+		}
+
+		return shard(pld)._scheduler.getDelay(pld) > CrawlerConstants.ADAPTIVE_DELAY_SLOW;
+	}
+
+	PoliteScheduler getScheduler(String pld) {
+		return pld == null ? null : shard(pld)._scheduler;
 	}
 	
 	List<String> getSortedQueuePlds() {
@@ -283,20 +629,21 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	}
 	
 	List<String> getQueuePlds(boolean sorted) {
+		if (sorted)
+			return QueueShard.plds(_shards);
+
 		List<String> li = new ArrayList<String>();
 
-		for (String pld : _queues.keySet()) {
-			if (!_queues.get(pld).isEmpty()) {
-				li.add(pld);
+		for (PldQueue q : queues()) {
+			if (!q.isEmpty()) {
+				li.add(q.getPld());
 			}
 		}
-		if (sorted)
-			Collections.sort(li, new PldCountComparator(_queues));
 
 		return li;
 	}
 	
-	public synchronized void add(URI u, boolean uriHasAlreadyBeenProcessed) {
+	public void add(URI u, boolean uriHasAlreadyBeenProcessed) {
 		if (!uriHasAlreadyBeenProcessed)
 			try {
 				u = Frontier.normalise(u);
@@ -307,32 +654,38 @@ public class BreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 		String pld = _tldm.getPLD(u);
 		if (pld != null) {
-			Queue<URI> q = _queues.get(pld);
-			if (q == null) {
-				q = new ConcurrentLinkedQueue<URI>();
-				_queues.put(pld, q);
-				// _current.add(pld);
+			if (_owners == null) {
+				enqueue(pld, u);
+			} else {
+				// the pld must not move to another shard meanwhile
+				synchronized (moving(pld)) {
+					enqueue(pld, u);
+				}
 			}
-			q.add(u);
 		}
 	}
 
+	void enqueue(String pld, URI u) {
+		QueueShard s = shard(pld);
+		s.getOrCreate(pld).add(u);
+
+		// while scheduling, the plds get registered after the cut-offs
+		if (!_scheduling)
+			s._scheduler.register(pld);
+	}
+
 	public int size() {
 		int size = super.size();
-		
-		for (Queue<URI> q : _queues.values()) {
-			size += q.size();
-		}
-		
+		for (QueueShard s : _shards)
+			size += s._queued.get();
 		return size;
 	}
 	
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		
-		for (String pld : _queues.keySet()) {
-			Queue<URI> q = _queues.get(pld);
-			sb.append(pld);
+		for (PldQueue q : queues()) {
+			sb.append(q.getPld());
 			sb.append(": ");
 			sb.append(q.size());
 			sb.append("\n");
@@ -0,0 +1,499 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.Seen;
+
+/**
+ * A checkpoint of a breadth-first crawl, from which the crawl can be resumed
+ * in the middle of a hop: the hop, the URIs queued per PLD with the
+ * politeness clock of each PLD, the redirects queued, seen, the URIs polled
+ * but not looked up yet, redirects and the frontier, including the URIs
+ * prepared for the next hop.
+ *
+ * The checkpoint is written to a temporary file that replaces the checkpoint
+ * once it is complete, such that there is always a complete checkpoint, and
+ * read via memory-mapped windows. Strings are UTF-8 with their length in
+ * bytes in front, each list ends with length -1.
+ *
+ * Checkpoints can be written while the crawl goes on. The queue is written
+ * before seen, and the URIs polled by threads that have not polled again
+ * since, or given back, after seen. None of them are marked as seen when
+ * reading the checkpoint, and the polled ones are queued again, so lookups
+ * in flight while writing are done again rather than lost.
+ */
+public class Checkpoint {
+	private static final Logger _log = Logger.getLogger(Checkpoint.class.getName());
+
+	static final byte[] MAGIC = { 'L', 'D', 'C', 'K', 2 };
+	static final int END = 0x4c44454e;
+
+	/**
+	 * Bytes mapped at once when reading.
+	 */
+	static final int WINDOW = 64 * 1024 * 1024;
+
+	static final int BUFFER = 1024 * 1024;
+
+	/**
+	 * Write a checkpoint of the queue, its seen and redirects, and the
+	 * frontier.
+	 *
+	 * @param f
+	 *            the checkpoint
+	 * @param q
+	 *            the queue
+	 * @param frontier
+	 *            the frontier, not part of the checkpoint if null or if it
+	 *            cannot be iterated while in use
+	 * @param hop
+	 *            the hop the crawl is in
+	 * @throws IOException
+	 *             also if seen cannot be iterated
+	 */
+	@SuppressWarnings("unchecked")
+	public static void write(File f, BreadthFirstQueue q, Frontier frontier, int hop) throws IOException {
+		long time = System.currentTimeMillis();
+
+		File tmp = new File(f.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, BUFFER));
+
+		long queued = 0, seen = 0, inflight = 0, redirects = 0, frontiered = 0;
+		boolean done = false;
+
+		try {
+			out.write(MAGIC);
+			out.writeInt(hop);
+			out.writeLong(time);
+
+			for (URI u : q._redirectsQueue) {
+				writeString(out, u.toString());
+				queued++;
+			}
+			out.writeInt(-1);
+
+			for (QueueShard s : q._shards) {
+				Set<String> plds = new HashSet<String>(s._scheduler._slots.keySet());
+				plds.addAll(s._queues.keySet());
+
+				for (String pld : plds) {
+					// not slot(pld), which would bring back the slot of a pld
+					// that has moved to another shard meanwhile
+					PoliteScheduler.Slot slot = s._scheduler._slots.get(pld);
+					PldQueue pq = s._queues.get(pld);
+					if (slot == null && pq == null) {
+						continue;
+					}
+					if (slot == null) {
+						slot = new PoliteScheduler.Slot(pld);
+					}
+
+					writeString(out, pld);
+					out.writeLong(slot._next);
+					out.writeLong(slot._delay);
+					out.writeLong(slot._crawldelay);
+					out.writeLong(slot._notbefore);
+
+					if (pq != null) {
+						for (URI u : pq) {
+							writeString(out, u.toString());
+							queued++;
+						}
+					}
+					out.writeInt(-1);
+				}
+			}
+			out.writeInt(-1);
+
+			Seen sn = q.getSeen();
+			if (!(sn instanceof Iterable)) {
+				throw new IOException(sn.getClass().getSimpleName() + " cannot be written to a checkpoint");
+			}
+			try {
+				for (URI u : (Iterable<URI>) sn) {
+					writeString(out, u.toString());
+					seen++;
+				}
+			} catch (UnsupportedOperationException e) {
+				throw new IOException(e.getMessage());
+			}
+			out.writeInt(-1);
+
+			// the uris polled are seen already, but may not be looked up, as
+			// are the ones given back. Any uri marked as seen above is in
+			// flight or given back unless its lookup is done.
+			q._polling.writeLock().lock();
+			try {
+				for (List<URI> li : q._inflight.values()) {
+					for (URI u : li) {
+						writeString(out, u.toString());
+						inflight++;
+					}
+				}
+				for (URI u : q._returned) {
+					writeString(out, u.toString());
+					inflight++;
+				}
+			} finally {
+				q._polling.writeLock().unlock();
+			}
+			out.writeInt(-1);
+
+			// DummyRedirects has nothing to write
+			if (q.getRedirects() instanceof Iterable) {
+				for (Map.Entry<URI, URI> e : (Iterable<Map.Entry<URI, URI>>) q.getRedirects()) {
+					writeString(out, e.getKey().toString());
+					writeString(out, e.getValue().toString());
+					redirects++;
+				}
+			}
+			out.writeInt(-1);
+
+			Iterator<URI> it = frontier == null ? null : frontier.snapshot();
+			if (it == null && frontier != null) {
+				_log.warning(frontier.getClass().getSimpleName() + " cannot be written to a checkpoint, resuming from " + f + " starts without its URIs");
+			}
+			while (it != null && it.hasNext()) {
+				writeString(out, it.next().toString());
+				frontiered++;
+			}
+
+			// the uris prepared for the next hop go back to the frontier
+			q._preparing.lock();
+			try {
+				for (List<URI> li : q._prepared.values()) {
+					for (URI u : li) {
+						writeString(out, u.toString());
+						frontiered++;
+					}
+				}
+			} finally {
+				q._preparing.unlock();
+			}
+			out.writeInt(-1);
+
+			out.writeInt(END);
+			out.flush();
+			fos.getFD().sync();
+
+			done = true;
+		} finally {
+			out.close();
+			if (!done) {
+				tmp.delete();
+			}
+		}
+
+		if (!tmp.renameTo(f)) {
+			// on some platforms, renaming does not replace the file
+			f.delete();
+			if (!tmp.renameTo(f)) {
+				throw new IOException("cannot rename " + tmp + " to " + f);
+			}
+		}
+
+		_log.info("checkpoint of hop " + hop + " with " + queued + " queued, " + seen + " seen, " + inflight + " in flight, " + redirects + " redirects and " + frontiered
+				+ " frontier URIs written to " + f + " in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * Restore a checkpoint into a queue that is not in use, its seen and
+	 * redirects, and the frontier.
+	 *
+	 * @param f
+	 *            the checkpoint
+	 * @param q
+	 *            the queue, which forgets what it has queued
+	 * @param frontier
+	 *            the frontier, may be null
+	 * @return the hop the crawl was in
+	 */
+	public static int read(File f, BreadthFirstQueue q, Frontier frontier) throws IOException {
+		long time = System.currentTimeMillis();
+
+		Input in = new Input(f);
+
+		int hop;
+		long queued = 0, seen = 0, inflight = 0, redirects = 0, frontiered = 0;
+
+		try {
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (in.readByte() != MAGIC[i]) {
+					throw new IOException(f + " is not a checkpoint");
+				}
+			}
+
+			hop = in.readInt();
+			long written = in.readLong();
+
+			Set<URI> inqueue = new HashSet<URI>();
+			long seenAt, afterInflight;
+
+			synchronized (q) {
+				for (QueueShard s : q._shards) {
+					s.clear();
+				}
+				q._redirectsQueue.clear();
+				q._returned.clear();
+				q._inflight.clear();
+
+				// register the plds in the order of their size below
+				q._scheduling = true;
+
+				String s;
+				URI u;
+				while ((s = in.readString()) != null) {
+					if ((u = toURI(s)) != null) {
+						q._redirectsQueue.add(u);
+						inqueue.add(u);
+						queued++;
+					}
+				}
+
+				String pld;
+				while ((pld = in.readString()) != null) {
+					QueueShard shard = q.shard(pld);
+
+					PoliteScheduler.Slot clock = new PoliteScheduler.Slot(pld);
+					clock._next = in.readLong();
+					clock._delay = in.readLong();
+					clock._crawldelay = in.readLong();
+					clock._notbefore = in.readLong();
+
+					boolean empty = true;
+					while ((s = in.readString()) != null) {
+						if ((u = toURI(s)) != null) {
+							shard.getOrCreate(pld).add(u);
+							inqueue.add(u);
+							queued++;
+							empty = false;
+						}
+					}
+
+					// a pld without uris does not get a slot again
+					PoliteScheduler.Slot slot = shard._scheduler._slots.get(pld);
+					if (slot == null && !empty) {
+						shard._scheduler.attach(clock);
+					} else if (slot != null) {
+						slot._next = clock._next;
+						slot._delay = clock._delay;
+						slot._crawldelay = clock._crawldelay;
+						slot._notbefore = clock._notbefore;
+					}
+				}
+
+				// the uris in flight come after seen, but must not be marked
+				// as seen, so seen is read once they are known
+				seenAt = in.position();
+				in.skipList();
+
+				while ((s = in.readString()) != null) {
+					if ((u = toURI(s)) != null && inqueue.add(u)) {
+						q._redirectsQueue.add(u);
+						inflight++;
+					}
+				}
+				afterInflight = in.position();
+
+				for (String p : q.getQueuePlds(true)) {
+					q.shard(p)._scheduler.register(p);
+				}
+
+				q._scheduledFrontiers = hop + 1;
+				q._minReached = false;
+				q._scheduling = false;
+			}
+
+			Seen sn = q.getSeen();
+			String s;
+			URI u;
+			in.seek(seenAt);
+			while ((s = in.readString()) != null) {
+				if ((u = toURI(s)) != null && !inqueue.contains(u)) {
+					sn.add(u);
+					seen++;
+				}
+			}
+			inqueue = null;
+			in.seek(afterInflight);
+
+			Redirects r = q.getRedirects();
+			while ((s = in.readString()) != null) {
+				URI to = toURI(in.readString());
+				if ((u = toURI(s)) != null && to != null) {
+					r.put(u, to);
+					redirects++;
+				}
+			}
+
+			while ((s = in.readString()) != null) {
+				if (frontier != null && (u = toURI(s)) != null) {
+					frontier.add(u);
+					frontiered++;
+				}
+			}
+
+			if (in.readInt() != END) {
+				throw new IOException(f + " is not a complete checkpoint");
+			}
+
+			_log.info("checkpoint of hop " + hop + " written at " + new Date(written) + " read from " + f + ": " + queued + " queued, " + seen
+					+ " seen, " + inflight + " in flight, " + redirects + " redirects and " + frontiered + " frontier URIs in " + (System.currentTimeMillis() - time) + " ms");
+		} finally {
+			in.close();
+		}
+
+		return hop;
+	}
+
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] b = s.getBytes("UTF-8");
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	static URI toURI(String s) {
+		if (s == null) {
+			return null;
+		}
+		try {
+			return new URI(s);
+		} catch (URISyntaxException e) {
+			_log.info("dropping " + s + " from checkpoint: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a file through a window that is mapped into memory, and moved on
+	 * once it has been read, so files of any size can be read.
+	 */
+	static class Input {
+		final RandomAccessFile _raf;
+		final FileChannel _ch;
+		final long _size;
+
+		/**
+		 * Position of the window in the file.
+		 */
+		long _base;
+		MappedByteBuffer _buf;
+
+		byte[] _bytes;
+
+		Input(File f) throws IOException {
+			_raf = new RandomAccessFile(f, "r");
+			_ch = _raf.getChannel();
+			_size = _ch.size();
+			_base = 0;
+			_buf = _ch.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(WINDOW, _size));
+			_bytes = new byte[256];
+		}
+
+		/**
+		 * Make sure the next n bytes are in the window.
+		 */
+		void ensure(int n) throws IOException {
+			if (_buf.remaining() >= n) {
+				return;
+			}
+
+			long pos = _base + _buf.position();
+			if (pos + n > _size) {
+				throw new EOFException();
+			}
+
+			_base = pos;
+			_buf = _ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(Math.max(WINDOW, n), _size - pos));
+		}
+
+		/**
+		 * @return the position in the file
+		 */
+		long position() {
+			return _base + _buf.position();
+		}
+
+		/**
+		 * Move the window to a position in the file.
+		 */
+		void seek(long pos) throws IOException {
+			if (pos > _size) {
+				throw new EOFException();
+			}
+			_base = pos;
+			_buf = _ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(WINDOW, _size - pos));
+		}
+
+		byte readByte() throws IOException {
+			ensure(1);
+			return _buf.get();
+		}
+
+		int readInt() throws IOException {
+			ensure(4);
+			return _buf.getInt();
+		}
+
+		long readLong() throws IOException {
+			ensure(8);
+			return _buf.getLong();
+		}
+
+		/**
+		 * @return the string, null at the end of a list
+		 */
+		String readString() throws IOException {
+			int len = readInt();
+			if (len < 0) {
+				return null;
+			}
+
+			ensure(len);
+			if (_bytes.length < len) {
+				_bytes = new byte[Math.max(len, _bytes.length * 2)];
+			}
+			_buf.get(_bytes, 0, len);
+
+			return new String(_bytes, 0, len, "UTF-8");
+		}
+
+		/**
+		 * Skip a list of strings.
+		 */
+		void skipList() throws IOException {
+			int len;
+			while ((len = readInt()) >= 0) {
+				if (_buf.remaining() >= len) {
+					_buf.position(_buf.position() + len);
+				} else {
+					seek(position() + len);
+				}
+			}
+		}
+
+		void close() throws IOException {
+			_buf = null;
+			_raf.close();
+		}
+	}
+}
@@ -0,0 +1,355 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.ContinuousFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.Seen;
+
+/**
+ * A queue for crawls without rounds. URIs discovered while fetching go into
+ * the queue right away and are fetched as soon as their PLD is due, so
+ * threads never wait for the slowest PLD of a hop.
+ *
+ * Each URI carries its hop, i.e. the distance to the seeds. The hop of a URI
+ * is the hop of the URI the thread adding it has polled last plus one, URIs
+ * beyond the maximum hop are dropped. Per PLD, URIs with lower hops are
+ * polled first.
+ *
+ * {@link #poll()} only returns null once the queue is empty and no other
+ * thread is still working on a URI, as that could yield new URIs.
+ */
+public class ContinuousQueue extends SpiderQueue {
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger _log = Logger.getLogger(ContinuousQueue.class.getName());
+
+	ConcurrentHashMap<String, Queue<Entry>> _queues;
+
+	/**
+	 * Each PLD waits here until it is due again.
+	 */
+	PoliteScheduler _scheduler;
+
+	int _maxhops;
+
+	/**
+	 * Number of URIs in the queues.
+	 */
+	AtomicInteger _queued;
+
+	/**
+	 * Number of URIs in the queues plus the URIs threads are working on. The
+	 * crawl is done when there are none left.
+	 */
+	AtomicInteger _outstanding;
+
+	AtomicLong _seq;
+
+	/**
+	 * The hop of the URI the current thread is working on.
+	 */
+	transient ThreadLocal<Integer> _hop;
+
+	transient Frontier _links;
+
+	public ContinuousQueue(TldManager tldm, Redirects redirs, Seen seen, int maxhops) {
+		super(tldm, redirs, seen);
+
+		_queues = new ConcurrentHashMap<String, Queue<Entry>>();
+		_scheduler = new PoliteScheduler(CrawlerConstants.MIN_DELAY);
+		_maxhops = maxhops;
+
+		_queued = new AtomicInteger(0);
+		_outstanding = new AtomicInteger(0);
+		_seq = new AtomicLong(0);
+
+		_hop = new ThreadLocal<Integer>();
+
+		_links = new LinkFrontier();
+	}
+
+	/**
+	 * The thread locals and the link frontier are not serialised, so set them
+	 * up afresh.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+
+		_hop = new ThreadLocal<Integer>();
+		_links = new LinkFrontier();
+	}
+
+	public void setMinDelay(int delay) {
+		_scheduler.setMinDelay(delay);
+	}
+
+	/**
+	 * Put the URIs in the frontier into the queue as seeds, i.e. with hop 0.
+	 * If the frontier is a {@link ContinuousFrontier}, all URIs added to the
+	 * frontier from now on go directly into the queue.
+	 */
+	public synchronized void schedule(Frontier f) {
+		long time = System.currentTimeMillis();
+
+		Iterator<URI> it = f.iterator();
+		while (it.hasNext()) {
+			URI u = it.next();
+			if (!checkSeen(u)) {
+				add(u, 0);
+			}
+		}
+		f.reset();
+
+		if (f instanceof ContinuousFrontier) {
+			((ContinuousFrontier) f).forwardTo(_links);
+		} else {
+			_log.warning("links added to " + f.getClass().getSimpleName() + " do not reach the queue");
+		}
+
+		_log.info("scheduling " + size() + " uris and " + _scheduler.active() + " plds done in " + (System.currentTimeMillis() - time) + " ms");
+	}
+
+	/**
+	 * @return the frontier that puts the URIs added into the queue
+	 */
+	public Frontier getLinkFrontier() {
+		return _links;
+	}
+
+	/**
+	 * Add URI to the queue, the hop is derived from the URI the current
+	 * thread is working on.
+	 */
+	void add(URI u, boolean uriHasAlreadyBeenProcessed) {
+		if (!uriHasAlreadyBeenProcessed) {
+			try {
+				u = Frontier.normalise(u);
+			} catch (URISyntaxException e) {
+				_log.info(u + " not parsable, skipping " + u);
+				return;
+			}
+		}
+
+		Integer hop = _hop.get();
+		add(u, hop == null ? 0 : hop.intValue() + 1);
+	}
+
+	/**
+	 * A redirect target is on the same hop as the URI redirecting.
+	 */
+	void addRedirect(URI u) {
+		Integer hop = _hop.get();
+		add(u, hop == null ? 0 : hop.intValue());
+	}
+
+	void add(URI u, int hop) {
+		if (hop > _maxhops) {
+			return;
+		}
+
+		String pld = _tldm.getPLD(u);
+		if (pld == null) {
+			return;
+		}
+
+		if (checkSeen(u)) {
+			return;
+		}
+
+		enqueue(pld, new Entry(u, hop, _seq.incrementAndGet(), false));
+	}
+
+	/**
+	 * The URIs go back with the hop of the URI the calling thread has polled
+	 * last, and are not dropped for being seen when polled again.
+	 */
+	public void giveBack(Collection<URI> c) {
+		Integer hop = _hop.get();
+
+		for (URI u : c) {
+			String pld = _tldm.getPLD(u);
+			if (pld != null) {
+				enqueue(pld, new Entry(u, hop == null ? 0 : hop.intValue(), _seq.incrementAndGet(), true));
+			}
+		}
+	}
+
+	void enqueue(String pld, Entry e) {
+		Queue<Entry> q = _queues.get(pld);
+		if (q == null) {
+			Queue<Entry> nq = new PriorityBlockingQueue<Entry>(11, ENTRY_ORDER);
+			q = _queues.putIfAbsent(pld, nq);
+			if (q == null) {
+				q = nq;
+			}
+		}
+
+		_outstanding.incrementAndGet();
+		_queued.incrementAndGet();
+		q.add(e);
+
+		_scheduler.register(pld);
+	}
+
+	/**
+	 * Poll the next URI. The URI the calling thread has polled before counts
+	 * as done.
+	 *
+	 * @return the URI, or null if the crawl is done
+	 */
+	public URI poll() {
+		finishedPolling();
+
+		while (_outstanding.get() > 0) {
+			String pld = _scheduler.take(CrawlerConstants.MIN_DELAY);
+			if (pld == null) {
+				continue;
+			}
+
+			Queue<Entry> q = _queues.get(pld);
+
+			Entry next = null;
+			while (next == null && (next = q.poll()) != null) {
+				if (!next._returned && checkSeen(next._u)) {
+					_queued.decrementAndGet();
+					_outstanding.decrementAndGet();
+					next = null;
+				}
+			}
+
+			if (next != null) {
+				// stays outstanding until the thread polls again
+				_queued.decrementAndGet();
+				_hop.set(Integer.valueOf(next._hop));
+				setSeen(next._u);
+			}
+
+			boolean more = !q.isEmpty();
+			_scheduler.release(pld, next != null, more);
+			// an add might have slipped in between the check and the release
+			if (!more && !q.isEmpty()) {
+				_scheduler.register(pld);
+			}
+
+			if (next != null) {
+				return next._u;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * The URI the calling thread has polled last counts as done. Has to be
+	 * called by threads that stop polling before the queue is empty.
+	 */
+	public void finishedPolling() {
+		if (_hop.get() != null) {
+			_hop.remove();
+			_outstanding.decrementAndGet();
+		}
+	}
+
+	PoliteScheduler getScheduler(String pld) {
+		return pld == null ? null : _scheduler;
+	}
+
+	public int size() {
+		return _queued.get();
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+
+		sb.append(size() + " uris on " + _queues.size() + " plds, " + _scheduler.active() + " plds active, max hop " + _maxhops + "\n");
+
+		for (Map.Entry<String, Queue<Entry>> en : _queues.entrySet()) {
+			if (!en.getValue().isEmpty()) {
+				sb.append(en.getKey() + ": " + en.getValue().size() + "\n");
+			}
+		}
+
+		return sb.toString();
+	}
+
+	static final Comparator<Entry> ENTRY_ORDER = new Comparator<Entry>() {
+		public int compare(Entry e1, Entry e2) {
+			if (e1._hop != e2._hop)
+				return e1._hop < e2._hop ? -1 : 1;
+			if (e1._seq != e2._seq)
+				return e1._seq < e2._seq ? -1 : 1;
+			return 0;
+		}
+	};
+
+	static class Entry implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final URI _u;
+		final int _hop;
+		final long _seq;
+
+		/**
+		 * Given back after being polled, and so marked as seen already.
+		 */
+		final boolean _returned;
+
+		Entry(URI u, int hop, long seq, boolean returned) {
+			_u = u;
+			_hop = hop;
+			_seq = seq;
+			_returned = returned;
+		}
+	}
+
+	/**
+	 * Puts the URIs added into the queue. The frontier itself never holds any
+	 * URIs, so there is nothing to remove and nothing to iterate over.
+	 */
+	class LinkFrontier extends Frontier {
+		public void add(URI u) {
+			ContinuousQueue.this.add(u, true);
+		}
+
+		/**
+		 * Does nothing, the URIs added are in the queue already.
+		 */
+		public void removeAll(Collection<URI> c) {
+			;
+		}
+
+		/**
+		 * @return an empty iterator, the URIs added are in the queue already
+		 */
+		public Iterator<URI> iterator() {
+			return Collections.<URI> emptyList().iterator();
+		}
+
+		public void reset() {
+			;
+		}
+
+		public String toString() {
+			return ContinuousQueue.this.getClass().getSimpleName();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import org.semanticweb.yars.nx.Literal;
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.NxParser;
+
+import com.ontologycentral.ldspider.frontier.UriRun;
+
+/**
+ * A sorted run of URIs with counts, as kept for the eternal in-link counts.
+ * Keys are UTF-8 and sorted by their bytes; each key is stored as the length
+ * of the prefix it shares with the previous key plus the rest, and lengths
+ * and counts are varints. Merging a run compares raw bytes, so neither URIs
+ * nor numbers need to be parsed.
+ */
+class CountRun {
+	static final byte[] MAGIC = { 'L', 'D', 'C', 'R', 1 };
+
+	/**
+	 * Compare keys as unsigned bytes.
+	 */
+	static int compare(byte[] b0, int len0, byte[] b1, int len1) {
+		int len = Math.min(len0, len1);
+		for (int i = 0; i < len; i++) {
+			int c = (b0[i] & 0xff) - (b1[i] & 0xff);
+			if (c != 0) {
+				return c;
+			}
+		}
+		return len0 - len1;
+	}
+
+	/**
+	 * Writes keys in ascending order.
+	 */
+	static class Writer {
+		final OutputStream _os;
+
+		byte[] _prev;
+		int _prevlen;
+
+		Writer(File f) throws IOException {
+			_os = new BufferedOutputStream(new FileOutputStream(f), 64 * 1024);
+			_os.write(MAGIC);
+			_prev = new byte[256];
+			_prevlen = 0;
+		}
+
+		void write(byte[] key, int len, int count) throws IOException {
+			int shared = 0;
+			int max = Math.min(len, _prevlen);
+			while (shared < max && key[shared] == _prev[shared]) {
+				shared++;
+			}
+
+			UriRun.writeVarint(_os, shared);
+			UriRun.writeVarint(_os, len - shared);
+			_os.write(key, shared, len - shared);
+			UriRun.writeVarint(_os, count);
+
+			if (_prev.length < len) {
+				byte[] prev = new byte[Math.max(len, _prev.length * 2)];
+				System.arraycopy(_prev, 0, prev, 0, shared);
+				_prev = prev;
+			}
+			System.arraycopy(key, shared, _prev, shared, len - shared);
+			_prevlen = len;
+		}
+
+		/**
+		 * Compare a key with the key written last.
+		 */
+		int compareToLast(byte[] key, int len) {
+			return compare(key, len, _prev, _prevlen);
+		}
+
+		void close() throws IOException {
+			_os.close();
+		}
+	}
+
+	/**
+	 * Reads keys one after another into the same buffer.
+	 */
+	static class Reader {
+		final InputStream _is;
+
+		byte[] _key;
+		int _len;
+		int _count;
+		boolean _done;
+
+		/**
+		 * Positions the reader on the first key, if there is one.
+		 */
+		Reader(File f) throws IOException {
+			_is = new BufferedInputStream(new FileInputStream(f), 64 * 1024);
+			_key = new byte[256];
+			_len = 0;
+
+			byte[] magic = new byte[MAGIC.length];
+			int read = 0, r;
+			while (read < magic.length && (r = _is.read(magic, read, magic.length - read)) > 0) {
+				read += r;
+			}
+
+			if (read == 0) {
+				// empty file, empty run
+				close();
+				return;
+			}
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (read < MAGIC.length || magic[i] != MAGIC[i]) {
+					close();
+					throw new IOException(f + " is not a count run");
+				}
+			}
+
+			advance();
+		}
+
+		/**
+		 * @return true if there is a current key
+		 */
+		boolean hasCurrent() {
+			return !_done;
+		}
+
+		/**
+		 * Move to the next key.
+		 */
+		void advance() throws IOException {
+			if (_done) {
+				return;
+			}
+
+			int shared = UriRun.readVarint(_is);
+			if (shared < 0) {
+				close();
+				return;
+			}
+			int rest = UriRun.readVarint(_is);
+
+			int len = shared + rest;
+			if (_key.length < len) {
+				byte[] key = new byte[Math.max(len, _key.length * 2)];
+				System.arraycopy(_key, 0, key, 0, shared);
+				_key = key;
+			}
+
+			int read = shared;
+			while (read < len) {
+				int r = _is.read(_key, read, len - read);
+				if (r < 0) {
+					throw new EOFException();
+				}
+				read += r;
+			}
+			_len = len;
+
+			_count = UriRun.readVarint(_is);
+			if (_count < 0) {
+				throw new EOFException();
+			}
+		}
+
+		/**
+		 * Compare the current key with another one.
+		 */
+		int compareTo(byte[] key, int len) {
+			return compare(_key, _len, key, len);
+		}
+
+		void close() throws IOException {
+			_done = true;
+			_is.close();
+		}
+	}
+
+	/**
+	 * Copy a file, e.g. to save a run.
+	 */
+	static void copy(File from, File to) throws IOException {
+		InputStream is = new FileInputStream(from);
+		OutputStream os = new FileOutputStream(to);
+		try {
+			byte[] buf = new byte[64 * 1024];
+			int read;
+			while ((read = is.read(buf)) > 0) {
+				os.write(buf, 0, read);
+			}
+		} finally {
+			is.close();
+			os.close();
+		}
+	}
+
+	/**
+	 * @return true if the file is gzipped, i.e. eternal counts in nx as
+	 *         written by earlier versions
+	 */
+	static boolean isGzip(File f) throws IOException {
+		InputStream is = new FileInputStream(f);
+		try {
+			return is.read() == 0x1f && is.read() == 0x8b;
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Convert eternal counts in gzipped nx, sorted by URI, into a run.
+	 *
+	 * @return the number of URIs skipped as they were not in the order of
+	 *         their bytes
+	 */
+	static int convert(File nxgz, File run) throws IOException {
+		InputStream is = new GZIPInputStream(new FileInputStream(nxgz));
+		Writer w = new Writer(run);
+
+		int skipped = 0;
+
+		try {
+			NxParser nxp = new NxParser(new BufferedReader(new InputStreamReader(is, "UTF-8")));
+			while (nxp.hasNext()) {
+				Node[] nx = nxp.next();
+				byte[] key = ((Resource) nx[0]).toURI().toString().getBytes("UTF-8");
+
+				// the old files are sorted as URIs, which mostly but not
+				// always matches the order of the bytes
+				if (w.compareToLast(key, key.length) <= 0) {
+					skipped++;
+					continue;
+				}
+
+				w.write(key, key.length, Integer.parseInt(((Literal) nx[1]).getData()));
+			}
+		} finally {
+			w.close();
+			is.close();
+		}
+
+		return skipped;
+	}
+}
@@ -1,20 +1,13 @@
 package com.ontologycentral.ldspider.queue;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
-import java.io.EOFException;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.net.URI;
 import java.util.Arrays;
@@ -23,15 +16,14 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
-import org.semanticweb.yars.nx.Literal;
 import org.semanticweb.yars.nx.Node;
 import org.semanticweb.yars.nx.NodeComparator;
 import org.semanticweb.yars.nx.NodeComparator.NodeComparatorArgs;
@@ -46,9 +38,6 @@ import org.semanticweb.yars.nx.util.NxUtil;
 import org.semanticweb.yars.tld.TldManager;
 import org.semanticweb.yars.util.CallbackNxAppender;
 import org.semanticweb.yars.util.CallbackNxBufferedWriter;
-import org.semanticweb.yars.util.Node2uriConvertingIterator;
-import org.semanticweb.yars.util.PeekingIterator;
-import org.semanticweb.yars.util.PleaseCloseTheDoorWhenYouLeaveIterator;
 
 import com.ontologycentral.ldspider.CrawlerConstants;
 import com.ontologycentral.ldspider.Util;
@@ -74,8 +63,6 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	private static final String ETERNAL_BASE_TEMP_FILENAME = BASE_TEMP_FILENAME
 			+ "EternalCounts";
 
-	private static final String TEMPFILE_SUFFIX = ".nx";
-
 	private static final String COUNT1FULLSTOP = "\"1\" .";
 	private static final short _two = 2;
 
@@ -83,9 +70,19 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		ONE_HOP, ETERNALLY
 	}
 
-	Map<String, File> _files;
-	Map<String, NxParser> _nxps;
-	Set<BufferedReader> _brs;
+	/**
+	 * The URIs of the current hop, sorted per PLD.
+	 */
+	transient SpillFile _spill;
+	Map<String, SpillFile.Cursor> _cursors;
+
+	/**
+	 * The cursors holding a read buffer, least recently polled first. At
+	 * most _window of them, such that all buffers together stay within
+	 * {@link CrawlerConstants#DISKBREADTHFIRSTQUEUE_READ_BUFFER}.
+	 */
+	LinkedHashMap<String, SpillFile.Cursor> _open;
+	int _window;
 
 	private final CountLifeTime _lifeTimeOfCounts;
 
@@ -94,7 +91,11 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 	private File _eternalFileCounts;
 
-	private Iterator<URI> _it4poll;
+	/**
+	 * Hands out the plds of the hop, each once its delay has passed since its
+	 * last poll. A pld with a cursor that has URIs left is registered.
+	 */
+	PoliteScheduler _scheduler;
 
 	boolean _minActPldsAlready4Seedlist;
 	int _minimumActivePlds;
@@ -104,9 +105,12 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 	TldManager _tm;
 
-	Writer _writer;
-
-	Callback _frontierDumper;
+	/**
+	 * The next hop, prepared while the current hop is being polled, and the
+	 * lock held while building a hop.
+	 */
+	Hop _prepared;
+	ReentrantLock _building;
 
 	static final NodeComparator _nc;
 	static {
@@ -119,6 +123,48 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 	private int _noOfUris;
 
+	/**
+	 * Bounds for the number of URIs of a pld to sort in memory, larger plds
+	 * are sorted in runs.
+	 */
+	static final int MIN_SORT_BATCH = 10000;
+	static final int MAX_SORT_BATCH = 1000000;
+
+	/**
+	 * Estimated heap use of a URI while sorting, on top of its characters.
+	 */
+	static final int SORT_OVERHEAD = 96;
+
+	static final int MIN_READ_BUFFER = 512;
+	static final int MAX_READ_BUFFER = 64 * 1024;
+
+	/**
+	 * Pick the number of URIs each sorting thread sorts in memory such that
+	 * all threads together take about half of the heap available.
+	 * 
+	 * @param records
+	 *            number of URIs to sort
+	 * @param bytes
+	 *            size of the URIs on disk
+	 * @param threads
+	 *            number of sorting threads
+	 */
+	static int sortBatch(long records, long bytes, int threads) {
+		Runtime rt = Runtime.getRuntime();
+		long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+
+		long perRecord = SORT_OVERHEAD + 2 * bytes / Math.max(1, records);
+		long batch = available / 2 / threads / perRecord;
+
+		return (int) Math.max(MIN_SORT_BATCH, Math.min(MAX_SORT_BATCH, batch));
+	}
+
+	static File createTempFile(String prefix) throws IOException {
+		File file = File.createTempFile(prefix, ".bin");
+		file.deleteOnExit();
+		return file;
+	}
+
 	public DiskBreadthFirstQueue(TldManager tldm, Redirects redirs, Seen seen,
 			int minimumActivePLDs, boolean minActPldsAlready4Seedlist) {
 		super(tldm, redirs, seen);
@@ -126,18 +172,20 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		_scheduledFrontiers = 0;
 		_noOfUris = 0;
 		_noURIsLeft = false;
-		_it4poll = null;
-		_nxps = null;
-		_brs = new HashSet<BufferedReader>();
-		_files = new HashMap<String, File>();
+		_scheduler = new PoliteScheduler(CrawlerConstants.MIN_DELAY);
+		_spill = null;
+		_cursors = new HashMap<String, SpillFile.Cursor>();
+		_open = new LinkedHashMap<String, SpillFile.Cursor>(16, 0.75f, true);
+		_window = 1;
 		_minimumActivePlds = minimumActivePLDs;
 		_minActPldsAlready4Seedlist = minActPldsAlready4Seedlist;
+		_prepared = null;
+		_building = new ReentrantLock();
 
 		_lifeTimeOfCounts = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
 		if (_lifeTimeOfCounts == CountLifeTime.ETERNALLY) {
 			try {
-				_eternalFileCounts = File.createTempFile(
-						ETERNAL_BASE_TEMP_FILENAME, TEMPFILE_SUFFIX + ".gz");
+				_eternalFileCounts = createTempFile(ETERNAL_BASE_TEMP_FILENAME);
 			} catch (IOException e) {
 				_log.warning("could not create eternal temp file");
 			}
@@ -149,26 +197,23 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 						+ f.getAbsolutePath());
 				
 				try {
-					// does the copying from input to temp file
-					InputStream is = new BufferedInputStream(
-							new FileInputStream(f));
-					OutputStream os = new BufferedOutputStream(
-							new FileOutputStream(_eternalFileCounts));
-					
-					int data = -1;
-					while ((data = is.read()) > -1)
-						os.write(data);
-
-					is.close();
-					os.close();
-					
+					// does the copying from input to temp file, converting
+					// counts saved as nx by earlier versions
+					if (CountRun.isGzip(f)) {
+						int skipped = CountRun.convert(f, _eternalFileCounts);
+						if (skipped > 0)
+							_log.warning("skipped " + skipped
+									+ " URIs out of order in " + f);
+					} else
+						CountRun.copy(f, _eternalFileCounts);
 				} catch (FileNotFoundException e) {
 					_log.info("File not found: " + f.getAbsolutePath());
 				} catch (IOException e) {
+					_log.warning(e.getLocalizedMessage()
+							+ ", starting with empty eternal counts");
 					try {
-						_eternalFileCounts = File.createTempFile(
-								ETERNAL_BASE_TEMP_FILENAME, TEMPFILE_SUFFIX
-										+ ".gz");
+						_eternalFileCounts.delete();
+						_eternalFileCounts = createTempFile(ETERNAL_BASE_TEMP_FILENAME);
 					} catch (IOException e2) {
 						_log.warning("could not create eternal temp file");
 					}
@@ -186,56 +231,101 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 	}
 
 	private int calculateCurrentlyActivePlds() {
-		int activePlds = 0;
-		for (NxParser nx : _nxps.values())
-			if (nx.hasNext())
-				++activePlds;
-		return activePlds;
+		// cursors are dropped once they run dry
+		return _cursors.size();
 	}
 
+	/**
+	 * Poll a URI of the pld that is due first. Callers wait for a pld to be
+	 * due without holding the queue, and only if none is due at all.
+	 */
 	@Override
-	protected synchronized URI pollInternal() {
+	protected URI pollInternal() {
 		long time0 = System.currentTimeMillis();
 
-		if (_noURIsLeft)
-			return null;
+		while (true) {
+			synchronized (this) {
+				if (_noURIsLeft)
+					return null;
 
-		if (!_isScheduled)
-			throw new IllegalStateException("No frontier scheduled");
+				if (!_isScheduled)
+					throw new IllegalStateException("No frontier scheduled");
 
-		if (_minimumActivePlds > -1
-				&& _minimumActivePlds > calculateCurrentlyActivePlds()
-				&& (_minActPldsAlready4Seedlist || _scheduledFrontiers > 1)) {
-			_log.info("The minimum number of active PLDs has been reached. Finishing this round...");
-			return null;
-		}
+				if (_minimumActivePlds > -1
+						&& _minimumActivePlds > calculateCurrentlyActivePlds()
+						&& (_minActPldsAlready4Seedlist || _scheduledFrontiers > 1)) {
+					_log.info("The minimum number of active PLDs has been reached. Finishing this round...");
+					return null;
+				}
+
+				if (_cursors.isEmpty()) {
+					_log.info("last uri polled, closing this hop...");
+					_noURIsLeft = true;
+					_isScheduled = false;
+
+					clear();
+
+					return null;
+				}
+			}
 
-		if (_it4poll == null)
-			_it4poll = new Node2uriConvertingIterator(
-					new PoliteRoundRobinIterator(_nxps.values()), 0);
+			String pld = _scheduler.take(CrawlerConstants.MIN_DELAY);
+			if (pld == null)
+				continue;
+
+			URI next = null;
+			boolean more;
+
+			synchronized (this) {
+				SpillFile.Cursor c = _cursors.get(pld);
+				if (c != null)
+					open(pld, c);
+				while (next == null && c != null && c.hasNext()) {
+					next = URI.create(c.next()._uri);
+					--_noOfUris;
+
+					// a hop prepared in the tail of the previous one may
+					// contain uris polled in that tail
+					if (checkSeen(next))
+						next = null;
+				}
 
-		if (_it4poll.hasNext()) {
-			URI next = _it4poll.next();
+				// drop the pld from the hop once it runs dry
+				more = c != null && c.hasNext();
+				if (c != null && !more) {
+					_cursors.remove(pld);
+					_open.remove(pld);
+				}
+			}
 
-			--_noOfUris;
-			_time = System.currentTimeMillis();
+			_scheduler.release(pld, next != null, more);
 
-			_log.fine("poll for " + next + " done in " + (_time - time0)
-					+ " ms");
-			return next;
-		} else {
-			_log.info("last uri polled, closing this hop...");
-			_noURIsLeft = true;
-			_isScheduled = false;
+			if (next != null) {
+				_time = System.currentTimeMillis();
 
-			_nxps.clear();
-			_it4poll = null;
+				_log.fine("poll for " + next + " done in " + (_time - time0)
+						+ " ms");
+				return next;
+			}
+		}
+	}
 
-			clear();
+	/**
+	 * Mark the cursor of the PLD as holding a read buffer, and drop the
+	 * buffer of the cursor polled least recently if there are too many.
+	 */
+	private void open(String pld, SpillFile.Cursor c) {
+		_open.put(pld, c);
 
-			return null;
+		if (_open.size() > _window) {
+			Iterator<SpillFile.Cursor> it = _open.values().iterator();
+			it.next().release();
+			it.remove();
 		}
+	}
 
+	PoliteScheduler getScheduler(String pld) {
+		return pld == null ? null : _scheduler;
 	}
 
 	@Override
@@ -245,100 +335,182 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 	/**
 	 * Schedules a frontier. Requires the frontier to return an iterator that
-	 * traverses the URIs in a sorted manner.
+	 * traverses the URIs in a sorted manner. If a hop has been
+	 * {@link #prepare(Frontier) prepared}, that hop is handed out instead and
+	 * the frontier stays for the hop after.
 	 */
 	@Override
 	public void schedule(Frontier f) {
+		_log.info("start scheduling...");
 
-		// if the previous round has not been ended by pollInternal, the data
-		// structures haven't been cleaned up yet:
+		long time = System.currentTimeMillis();
 
-		clear();
+		Hop next;
 
-		_log.info("start scheduling...");
+		_building.lock();
+		try {
+			next = _prepared;
+			_prepared = null;
+
+			if (next == null)
+				next = build(f, _scheduledFrontiers);
+			else
+				_log.info("handing out the hop prepared, " + f
+						+ " stays for the next hop");
+		} finally {
+			_building.unlock();
+		}
 
-		_time = System.currentTimeMillis();
+		synchronized (this) {
+			// if the previous round has not been ended by pollInternal, the
+			// data structures haven't been cleaned up yet:
+			clear();
 
-		++_scheduledFrontiers;
-		_noURIsLeft = false;
-		Iterator<URI> it = f.iterator();
-		
-		BufferedWriter frontierbw = null;
+			++_scheduledFrontiers;
+			_noURIsLeft = false;
 
-		if (CrawlerConstants.DUMP_FRONTIER)
-			try {
-				frontierbw = new BufferedWriter(new OutputStreamWriter(
-						new GZIPOutputStream(new FileOutputStream(new File(
-								CrawlerConstants.DUMP_FRONTIER_FILENAME + "-"
-										+ (_scheduledFrontiers - 1) + ".nx.gz")))));
-				_frontierDumper = new CallbackNxAppender(frontierbw);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
+			_spill = next._spill;
+			_cursors = next._cursors;
+			_window = next._window;
+			_noOfUris = next._uris;
 
-		_writer = new Writer();
+			// the clocks of the plds stay from the hops before
+			for (String pld : _cursors.keySet())
+				_scheduler.register(pld);
 
-		processFrontiersIterator(it);
+			_isScheduled = true;
+		}
 
-		_writer.finishUp();
-		
-		System.gc();
+		_log.info("scheduling " + _cursors.size() + " plds done (" + size()
+				+ " URIs) in " + (System.currentTimeMillis() - time)
+				+ " ms. This was schedule No. " + _scheduledFrontiers + ".");
+	}
 
-		if (CrawlerConstants.DUMP_FRONTIER && frontierbw != null)
-			try {
-				frontierbw.close();
-			} catch (IOException e2) {
-				e2.printStackTrace();
-			}
+	@Override
+	public boolean canPrepare() {
+		return true;
+	}
+
+	/**
+	 * Builds the next hop from the frontier while the current hop is still
+	 * being polled, which includes sorting it on disk and merging the eternal
+	 * counts. The next {@link #schedule(Frontier)} hands it out.
+	 */
+	@Override
+	public void prepare(Frontier f) {
+		_building.lock();
+		try {
+			if (_prepared != null)
+				throw new IllegalStateException("a hop has been prepared already");
 
-		Map<String, File> sortedFiles = new HashMap<String, File>(_files.size());
-		if (_nxps == null)
-			_nxps = new HashMap<String, NxParser>(_files.size());
-		else
-			_nxps.clear();
-
-		for (Entry<String, File> e : _files.entrySet()) {
-			sortedFiles
-					.put(e.getKey(),
-							sort(TEMP_FILENAME_SORTED + "-" + e.getKey(),
-									e.getValue()));
+			_prepared = build(f, _scheduledFrontiers);
+		} finally {
+			_building.unlock();
 		}
+	}
 
-		_files.clear();
-		_files = sortedFiles;
+	/**
+	 * The sorted URIs of a hop, ready to be polled.
+	 */
+	private static class Hop {
+		SpillFile _spill;
+		Map<String, SpillFile.Cursor> _cursors = new HashMap<String, SpillFile.Cursor>();
+		int _window = 1;
+		int _uris;
+	}
 
-		System.gc();
+	/**
+	 * Spill the URIs of the frontier per PLD and sort them.
+	 * 
+	 * @param hop
+	 *            the number of the hop, for the files dumped
+	 */
+	private Hop build(Frontier f, int hop) {
+		Hop h = new Hop();
 
-		BufferedReader br = null;
-		for (Entry<String, File> e : _files.entrySet()) {
+		Writer writer = new Writer(hop);
+
+		h._uris = processFrontiersIterator(f.iterator(), writer);
+
+		writer.finishUp();
+
+		SpillFile unsorted = writer._spill;
+		h._spill = unsorted;
+
+		if (unsorted != null) {
+			SpillFile scratch = null;
 			try {
-				e.getValue().deleteOnExit();
-				br = new BufferedReader(new FileReader(e.getValue()));
-				_nxps.put(e.getKey(), new NxParser(br));
-				_brs.add(br);
-			} catch (FileNotFoundException e1) {
-				_log.warning(e1.getLocalizedMessage());
-			} catch (Exception e3) {
-				e3.printStackTrace();
+				h._spill = new SpillFile(createTempFile(TEMP_FILENAME_SORTED),
+						CrawlerConstants.DISKBREADTHFIRSTQUEUE_SPILL_BUFFER);
+				scratch = new SpillFile(createTempFile(BASE_TEMP_FILENAME
+						+ "Runs"), CrawlerConstants.DISKBREADTHFIRSTQUEUE_SPILL_BUFFER);
+
+				long time = System.currentTimeMillis();
+				long records = unsorted.count();
+				long bytes = unsorted.length();
+				int threads = Math.max(1, CrawlerConstants.DISKBREADTHFIRSTQUEUE_SORT_THREADS);
+				int batch = sortBatch(records, bytes, threads);
+
+				unsorted.sortInto(h._spill, scratch, threads, batch);
+
+				time = Math.max(1, System.currentTimeMillis() - time);
+				_log.info("sorted " + records + " URIs of "
+						+ unsorted.plds().size() + " plds (" + bytes
+						+ " bytes) with " + threads + " threads in batches of "
+						+ batch + " in " + time + " ms for hop "
+						+ hop + ": " + (records * 1000 / time)
+						+ " URIs/s, " + (bytes * 1000 / time / 1024) + " KB/s");
+
+				unsorted.delete();
+			} catch (IOException e) {
+				_log.warning(e.getLocalizedMessage()
+						+ " while sorting, polling the unsorted URIs");
+				if (h._spill != unsorted) {
+					h._spill.delete();
+				}
+				h._spill = unsorted;
+			}
+			if (scratch != null) {
+				scratch.delete();
 			}
 		}
+
+		if (h._spill != null) {
+			// the read buffers of all plds together stay within bounds: if
+			// there are more plds than buffers of the minimum size fit in,
+			// only the plds polled last keep theirs
+			int bufsize = CrawlerConstants.DISKBREADTHFIRSTQUEUE_READ_BUFFER
+					/ Math.max(1, h._spill.plds().size());
+			bufsize = Math.max(MIN_READ_BUFFER,
+					Math.min(MAX_READ_BUFFER, bufsize));
+			h._window = Math.max(1, CrawlerConstants.DISKBREADTHFIRSTQUEUE_READ_BUFFER / bufsize);
+
+			for (String pld : h._spill.plds()) {
+				try {
+					SpillFile.Cursor c = h._spill.cursor(pld, bufsize);
+					if (c.hasNext())
+						h._cursors.put(pld, c);
+				} catch (IOException e) {
+					_log.warning(e.getLocalizedMessage() + " for pld " + pld);
+				}
+			}
+		}
+
 		f.reset();
-		_it4poll = null;
-		_isScheduled = true;
 
-		_log.info("scheduling " + _nxps.size() + " plds done (" + size()
-				+ " URIs) in " + (System.currentTimeMillis() - _time)
-				+ " ms. This was schedule No. " + _scheduledFrontiers + ".");
+		return h;
 	}
 
-	private void processFrontiersIterator(Iterator<URI> it) {
-
-		Map<String, Callback> callbacks = new HashMap<String, Callback>();
+	/**
+	 * @return the number of URIs written
+	 */
+	private int processFrontiersIterator(Iterator<URI> it, Writer writer) {
 
 		URI currentURI = null;
 		URI prevURI = null;
 
 		int currentCount = 1;
+		int uris = 0;
 
 		while (it.hasNext()) {
 			prevURI = currentURI;
@@ -350,8 +522,8 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 					++currentCount;
 				else {
 					if (!checkSeen(prevURI)) {
-						++_noOfUris;
-						_writer.writeOut(prevURI, currentCount);
+						++uris;
+						writer.writeOut(prevURI, currentCount);
 					}
 					currentCount = 1;
 				}
@@ -359,17 +531,11 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 		// the last one if there was one at all:
 		if (currentURI != null && !checkSeen(currentURI)) {
-			++_noOfUris;
-			_writer.writeOut(currentURI, currentCount);
-		}
-
-		// close all callbacks
-		for (Callback c : callbacks.values()) {
-			c.endDocument();
+			++uris;
+			writer.writeOut(currentURI, currentCount);
 		}
 
-		callbacks.clear();
-
+		return uris;
 	}
 
 	public int size() {
@@ -381,55 +547,51 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		private final CountLifeTime _countLifeTime;
 		boolean _stateFinished;
 
-		URI _currentURI;
-		URI _prevURI;
+		final int _hop;
 
-		int _currentCount;
+		BufferedWriter _frontierbw;
+		Callback _frontierDumper;
 
-		Map<String, Callback> _callbacks;
+		SpillFile _spill;
 
-		PeekingIterator<Node[]> _eternal;
+		CountRun.Reader _eternal;
 		File _newEternalCountsFile = null;
-		Callback _newEternalCountsCB = null;
+		CountRun.Writer _newEternalCounts = null;
+
+		public Writer(int hop) {
+			_hop = hop;
 
-		public Writer() {
-			_callbacks = new HashMap<String, Callback>();
+			if (CrawlerConstants.DUMP_FRONTIER)
+				try {
+					_frontierbw = new BufferedWriter(new OutputStreamWriter(
+							new GZIPOutputStream(new FileOutputStream(new File(
+									CrawlerConstants.DUMP_FRONTIER_FILENAME + "-"
+											+ hop + ".nx.gz")))));
+					_frontierDumper = new CallbackNxAppender(_frontierbw);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+			try {
+				_spill = new SpillFile(createTempFile(BASE_TEMP_FILENAME),
+						CrawlerConstants.DISKBREADTHFIRSTQUEUE_SPILL_BUFFER);
+			} catch (IOException e) {
+				_log.warning(e.getLocalizedMessage()
+						+ " while creating the spill file");
+			}
 			_countLifeTime = _lifeTimeOfCounts;
-			_currentCount = 1;
 			_stateFinished = false;
 
 			if (_countLifeTime == CountLifeTime.ETERNALLY) {
-				BufferedReader br = null;
 				try {
-					br = new BufferedReader(new InputStreamReader(
-							new GZIPInputStream(new FileInputStream(
-									_eternalFileCounts))));
-					_eternal = new PeekingIterator<Node[]>(
-							new PleaseCloseTheDoorWhenYouLeaveIterator<Node[]>(
-									new NxParser(br), br));
-				} catch (FileNotFoundException e) {
-					e.printStackTrace();
-				} catch (EOFException e) {
-					// gzip does not like empty files
-					_eternal = new PeekingIterator<Node[]>(
-							Collections.<Node[]> emptySet());
+					_eternal = new CountRun.Reader(_eternalFileCounts);
 				} catch (IOException e) {
 					e.printStackTrace();
 				}
 
-				// if (_eternal.hasNext())
-				// _current = _eternal.next();
-				// else
-				// _eternalEmptyAndFirstUriNotYetProcessed = true;
-
 				try {
-					_newEternalCountsFile = File.createTempFile(
-							ETERNAL_BASE_TEMP_FILENAME, TEMPFILE_SUFFIX);
-					_newEternalCountsFile.deleteOnExit();
-					_newEternalCountsCB = new CallbackNxBufferedWriter(
-							new BufferedWriter(new OutputStreamWriter(
-									new GZIPOutputStream(new FileOutputStream(
-											_newEternalCountsFile)))), true);
+					_newEternalCountsFile = createTempFile(ETERNAL_BASE_TEMP_FILENAME);
+					_newEternalCounts = new CountRun.Writer(_newEternalCountsFile);
 				} catch (IOException e) {
 					_log.warning("Could not create new temp file for eternal counts.");
 				}
@@ -444,7 +606,7 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 			if (u == null)
 				return;
 
-			if (CrawlerConstants.DUMP_FRONTIER) {
+			if (_frontierDumper != null) {
 				Node[] nx = new Node[] { new Resource(NxUtil.escapeForNx(u
 						.toString())) };
 				for (int j = 0; j < i; ++j)
@@ -453,35 +615,17 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 			String currentPLD = _tm.getPLD(u);
 
-			Callback cb = null;
-
-			if ((cb = _callbacks.get(currentPLD)) == null) {
-				try {
-					File file = File.createTempFile(BASE_TEMP_FILENAME + "-"
-							+ currentPLD, ".nx");
-					file.deleteOnExit();
-					cb = new CallbackNxBufferedWriter(new BufferedWriter(
-							new FileWriter(file)), true);
-					_callbacks.put(currentPLD, cb);
-					_files.put(currentPLD, file);
-				} catch (IOException e) {
-					_log.warning(e.getLocalizedMessage()
-							+ " while creating file for pld "
-							+ currentPLD
-							+ " ("
-							+ _files.size()
-							+ " files for plds overall at the moment in this queue).");
-					e.printStackTrace();
-				}
-			}
-
 			switch (_countLifeTime) {
 			case ETERNALLY:
 				i = determineEternalCountAndWriteToEternal(u, i);
 			default:
-				cb.processStatement(new Node[] {
-						new Resource(NxUtil.escapeForNx(u.toString())),
-						new Literal(Integer.toString(i)) });
+				try {
+					_spill.add(currentPLD, u.toString(), i);
+				} catch (IOException e) {
+					_log.warning(e.getLocalizedMessage() + " while spilling "
+							+ u + " (" + _spill.length()
+							+ " bytes in the spill file at the moment).");
+				}
 				break;
 			}
 
@@ -489,88 +633,58 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 
 		private int determineEternalCountAndWriteToEternal(URI u,
 				int itsCountInThisRound) {
-			Node[] prev = null;
-			Node[] current = null;
-
-			// empty eternal or in the previous rounds we got the last one of
-			// it.
-			if (_eternal.peek() == null) {
-				_newEternalCountsCB.processStatement(new Node[] {
-						new Resource(NxUtil.escapeForNx(u.toString())),
-						new Literal(Integer.toString(itsCountInThisRound)) });
-				return itsCountInThisRound;
-			}
+			try {
+				byte[] key = u.toString().getBytes("UTF-8");
 
-			// insertion of uris before first one in eternal
-			if (((Resource) _eternal.peek()[0]).toURI().compareTo(u) > 0) {
-				_newEternalCountsCB.processStatement(new Node[] {
-						new Resource(NxUtil.escapeForNx(u.toString())),
-						new Literal(Integer.toString(itsCountInThisRound)) });
-				return itsCountInThisRound;
-			}
+				if (_newEternalCounts.compareToLast(key, key.length) <= 0) {
+					// the run has to stay sorted by bytes
+					_log.fine("out of order for the eternal counts: " + u);
+					return itsCountInThisRound;
+				}
 
-			// iterate until eternal ends or uri has been put:
-			while (_eternal.hasNext()) {
-				prev = current;
-				current = _eternal.peek();
+				// copy the uris before u
+				while (_eternal.hasCurrent()
+						&& _eternal.compareTo(key, key.length) < 0) {
+					_newEternalCounts.write(_eternal._key, _eternal._len,
+							_eternal._count);
+					_eternal.advance();
+				}
 
-				// should only be null if we just started off at the beginning
-				// of eternal or we just went through the next if check:
-				if (prev != null)
-					_newEternalCountsCB.processStatement(prev);
+				int count = itsCountInThisRound;
 
 				// if we are AT u in eternal:
-				if (current != null
-						&& ((Resource) current[0]).toURI().equals(u)) {
-					int count = itsCountInThisRound
-							+ Integer
-									.parseInt(((Literal) current[1]).getData());
-					current[1] = new Literal(Integer.toString(count));
-					_newEternalCountsCB.processStatement(current);
-					// to step forward, the object has already been peeked
-					// anyway:
-					_eternal.next();
-					return count;
+				if (_eternal.hasCurrent()
+						&& _eternal.compareTo(key, key.length) == 0) {
+					count += _eternal._count;
+					_eternal.advance();
 				}
 
-				// if there is no entry for u in eternal (we just skipped over
-				// its empty place):
-				if (current != null
-						&& ((Resource) current[0]).toURI().compareTo(u) > 0) {
-					_newEternalCountsCB
-							.processStatement(new Node[] {
-									new Resource(NxUtil.escapeForNx(u.toString())),
-									new Literal(Integer
-											.toString(itsCountInThisRound)) });
-					return itsCountInThisRound;
-				}
+				_newEternalCounts.write(key, key.length, count);
 
-				// to step forward, the object has already been peeked anyway:
-				_eternal.next();
+				return count;
+			} catch (IOException e) {
+				_log.warning(e.getLocalizedMessage()
+						+ " while merging the eternal counts at " + u);
+				return itsCountInThisRound;
 			}
-
-			// if the uri is to be put at the end of the non-empty eternal:
-			_newEternalCountsCB.processStatement(current);
-			_newEternalCountsCB.processStatement(new Node[] {
-					new Resource(NxUtil.escapeForNx(u.toString())),
-					new Literal(Integer.toString(itsCountInThisRound)) });
-			return itsCountInThisRound;
 		}
 
 		public void finishUp() {
 
-			// the last one if there was one at all:
-			if (_currentURI != null) {
-				if (_prevURI != null && _currentURI.equals(_prevURI))
-					++_currentCount;
-				writeOut(_currentURI, _currentCount);
-			}
-
 			if (_countLifeTime == CountLifeTime.ETERNALLY) {
-				// copy the rest of the old to the new eternal count list
-				while (_eternal.hasNext())
-					_newEternalCountsCB.processStatement(_eternal.next());
-				_newEternalCountsCB.endDocument();
+				try {
+					// copy the rest of the old to the new eternal count list
+					while (_eternal.hasCurrent()) {
+						_newEternalCounts.write(_eternal._key, _eternal._len,
+								_eternal._count);
+						_eternal.advance();
+					}
+					_eternal.close();
+					_newEternalCounts.close();
+				} catch (IOException e) {
+					_log.warning(e.getLocalizedMessage()
+							+ " while merging the eternal counts");
+				}
 				
 				_eternalFileCounts.delete();
 
@@ -581,39 +695,30 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 					File f = new File(
 							Util.createFileNameForHopwiseOperation(
 									CrawlerConstants.DISKBREADTHFIRSTQUEUE_ETERNALCOUNTSAVEBASEFILENAME,
-									"nx.gz", _scheduledFrontiers - 1));
+									"bin", _hop));
 
 					try {
-						OutputStream os = new BufferedOutputStream(
-								new FileOutputStream(f));
-						InputStream is = new BufferedInputStream(
-								new FileInputStream(_eternalFileCounts));
-
-						int data = -1;
-
-						while ((data = is.read()) > -1) {
-							os.write(data);
-						}
-
-						is.close();
-						os.close();
-					} catch (FileNotFoundException e) {
-						e.printStackTrace();
+						CountRun.copy(_eternalFileCounts, f);
 					} catch (IOException e) {
 						e.printStackTrace();
 					}
-					
-					
 				}
 
 			}
 
-			// close all callbacks
-			for (Callback c : _callbacks.values()) {
-				c.endDocument();
+			try {
+				_spill.flush();
+			} catch (IOException e) {
+				_log.warning(e.getLocalizedMessage()
+						+ " while writing the spill file");
 			}
 
-			_callbacks.clear();
+			if (_frontierbw != null)
+				try {
+					_frontierbw.close();
+				} catch (IOException e2) {
+					e2.printStackTrace();
+				}
 
 			_stateFinished = true;
 		}
@@ -772,111 +877,19 @@ public class DiskBreadthFirstQueue extends RedirectsFavouringSpiderQueue {
 		}
 	}
 
-	private static class PoliteRoundRobinIterator implements Iterator<Node[]> {
-
-		Collection<NxParser> _nxparsers;
-
-		Iterator<NxParser> _nxpIt;
-
-		NxParser _next = null;
-
-		boolean _firstOfNewRound;
-
-		long _time;
-
-		boolean _hasNextCache;
-		boolean _hasNextCacheIsFresh;
-
-		public PoliteRoundRobinIterator(Collection<NxParser> nxparsers) {
-			_nxparsers = nxparsers;
-			_nxpIt = nxparsers.iterator();
-			_time = System.currentTimeMillis();
-			_firstOfNewRound = false;
-			_hasNextCache = false;
-			_hasNextCacheIsFresh = false;
-		}
-
-		public boolean hasNext() {
-			// So that calling hasNext() twice or more often does not
-			// change the state of the iterator:
-			if (!_hasNextCacheIsFresh)
-				_hasNextCache = hasNextInternal();
-			_hasNextCacheIsFresh = true;
-			return _hasNextCache;
-		}
-
-		private boolean hasNextInternal() {
-			if (_nxparsers.isEmpty())
-				return false;
-			boolean thereWasAfullRoundWithoutUris = false;
-			boolean iStartedOverAgain = false;
-
-			while (!thereWasAfullRoundWithoutUris) {
-
-				while (_nxpIt.hasNext()) {
-					_next = _nxpIt.next();
-					if (_next.hasNext())
-						return true;
-				}
-				if (iStartedOverAgain)
-					thereWasAfullRoundWithoutUris = true;
-				_nxpIt = _nxparsers.iterator();
-				_firstOfNewRound = true;
-				iStartedOverAgain = true;
-			}
-			return false;
-		}
-
-		public Node[] next() {
-			_hasNextCacheIsFresh = false;
-			Node[] n = _next.next();
-
-			// Politeness:
-			if (_firstOfNewRound) {
-				if (System.currentTimeMillis() - _time < CrawlerConstants.MIN_DELAY) {
-					_log.info("delaying queue " + CrawlerConstants.MIN_DELAY
-							+ " ms ...");
-					try {
-						Thread.sleep(CrawlerConstants.MIN_DELAY);
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				}
-				_log.info("queue turnaround in "
-						+ (System.currentTimeMillis() - _time) + " ms");
-				_time = System.currentTimeMillis();
-			}
-			_firstOfNewRound = false;
-			return n;
-		}
-
-		public void remove() {
-			throw new UnsupportedOperationException();
-		}
-
-	}
-
 	public void clear() {
-		if (_nxps != null && !_nxps.isEmpty())
-			_nxps.clear();
+		if (_cursors != null && !_cursors.isEmpty())
+			_cursors.clear();
+		_open.clear();
 
-		if (_brs != null && !_brs.isEmpty())
-			for (BufferedReader br : _brs)
-				try {
-					br.close();
-				} catch (IOException e4) {
-					e4.printStackTrace();
-				}
+		_scheduler.clear();
 
-		if (_files != null && !_files.isEmpty()) {
-			for (File file : _files.values())
-				file.delete();
-			_files.clear();
+		if (_spill != null) {
+			_spill.delete();
+			_spill = null;
 		}
 
 		_noOfUris = 0;
-
-		System.gc();
 	}
 
 }
@@ -2,11 +2,13 @@ package com.ontologycentral.ldspider.queue;
 
 import java.net.URI;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.logging.Logger;
 
-public class HashTableRedirects implements Redirects {
+public class HashTableRedirects implements Redirects, Iterable<Map.Entry<URI, URI>> {
 	/**
 	 * 
 	 */
@@ -36,4 +38,16 @@ public class HashTableRedirects implements Redirects {
 		
 		return from;
 	}
+
+	/**
+	 * Iterates over a copy of the redirects, such that redirects can be put
+	 * meanwhile, e.g. while writing a checkpoint.
+	 */
+	public Iterator<Map.Entry<URI, URI>> iterator() {
+		Map<URI, URI> copy;
+		synchronized (_map) {
+			copy = new HashMap<URI, URI>(_map);
+		}
+		return copy.entrySet().iterator();
+	}
 }
@@ -1,16 +1,16 @@
 package com.ontologycentral.ldspider.queue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.tld.TldManager;
@@ -25,33 +25,204 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 	private static final  Logger _log = Logger.getLogger(LoadBalancingQueue.class.getName());
 
 
-	Map<String, Queue<URI>> _queues;
-	Queue<String> _current;
+	Map<String, PldQueue> _queues;
 
-	long _mindelay, _maxdelay;
-	long _mintime, _maxtime;
+	/**
+	 * Number of URIs in all PLD queues.
+	 */
+	AtomicInteger _queued;
+
+	/**
+	 * The non-empty PLD queues, most URIs first.
+	 */
+	PldOrder _order;
+
+	/**
+	 * Each PLD waits here until it is due again.
+	 */
+	PoliteScheduler _scheduler;
+
+	long _mintime;
 	
 	int _depth = 0;
-	
-	static Queue<String> POISON = new ConcurrentLinkedQueue<String>();
+
+	/**
+	 * If a frontier is currently being scheduled.
+	 */
+	boolean _scheduling;
+
+	/**
+	 * Number of URIs that may still be polled, -1 for no limit.
+	 */
+	AtomicInteger _polllimit;
+
+	/**
+	 * The PLDs of the last batch polled by a thread.
+	 */
+	transient ThreadLocal<List<String>> _held;
+
+	/**
+	 * If threads finding the queue empty wait for the next round rather than
+	 * stop polling.
+	 */
+	transient boolean _waitForRounds;
+
+	/**
+	 * The current round, and the number of threads waiting for the next one.
+	 */
+	transient long _round;
+	transient int _idle;
+
+	transient Object _rounds;
 	
 	public LoadBalancingQueue(TldManager tldm, Redirects r, Seen seen) {
 		super(tldm, r, seen);
 
-		_current = new ConcurrentLinkedQueue<String>();
-		
-		_mindelay = CrawlerConstants.MIN_DELAY;
-		_maxdelay = CrawlerConstants.MAX_DELAY;
+		_queues = Collections.synchronizedMap(new HashMap<String, PldQueue>());
+		_queued = new AtomicInteger(0);
+		_order = new PldOrder();
+		_scheduler = new PoliteScheduler(CrawlerConstants.MIN_DELAY);
+		_polllimit = new AtomicInteger(-1);
+		_held = new PoliteScheduler.Held();
+		_rounds = new Object();
 	}
 	
+	/**
+	 * The thread local and the round state are not serialised, so set them
+	 * up afresh.
+	 */
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+
+		_held = new PoliteScheduler.Held();
+		_rounds = new Object();
+	}
+
 	public void setMinDelay(int delay) {
-		_mindelay = delay;
+		_scheduler.setMinDelay(delay);
 	}
 	
+	/**
+	 * Has no effect any more: a PLD is revisited as soon as its delay has
+	 * passed, there is no skipping to the start of the queue.
+	 * 
+	 * @deprecated the PLDs are only held back by the delay set with
+	 *             {@link #setMinDelay(int)}
+	 */
+	@Deprecated
 	public void setMaxDelay(int delay) {
-		_maxdelay = delay;
+		;
+	}
+
+	/**
+	 * Limit the number of URIs to be polled, after that the queue reports
+	 * to be done.
+	 * 
+	 * @param limit
+	 *            the number of URIs, -1 for no limit
+	 */
+	public void setPollLimit(int limit) {
+		_polllimit.set(limit);
 	}
 	
+	/**
+	 * Let threads that find the queue empty wait for the next round, such
+	 * that the same threads keep polling across rounds. Once switched off,
+	 * the waiting threads get no URI and stop polling.
+	 * 
+	 * @param wait if threads wait for the next round
+	 */
+	public void setWaitForRounds(boolean wait) {
+		synchronized (_rounds) {
+			_waitForRounds = wait;
+			_rounds.notifyAll();
+		}
+	}
+
+	/**
+	 * Start the next round, i.e. wake up the threads waiting after the queue
+	 * has been scheduled again.
+	 */
+	public void nextRound() {
+		synchronized (_rounds) {
+			_round++;
+			_idle = 0;
+			_rounds.notifyAll();
+		}
+	}
+
+	/**
+	 * Wait until the given number of threads wait for the next round, i.e.
+	 * the current round is done.
+	 * 
+	 * @param threads the number of threads polling
+	 * @param maxwait the maximum time to wait in ms
+	 * @return true if the round is done, false if the time has run out
+	 * @throws InterruptedException
+	 */
+	public boolean awaitRound(int threads, long maxwait) throws InterruptedException {
+		long end = System.currentTimeMillis() + maxwait;
+
+		synchronized (_rounds) {
+			long left;
+			while (_idle < threads && (left = end - System.currentTimeMillis()) > 0) {
+				_rounds.wait(left);
+			}
+			return _idle >= threads;
+		}
+	}
+
+	/**
+	 * Wait for the next round, if enabled with
+	 * {@link #setWaitForRounds(boolean)}. A thread is counted as idle until
+	 * the next round starts.
+	 * 
+	 * @return true if there is a next round to poll from
+	 */
+	boolean waitForNextRound() {
+		synchronized (_rounds) {
+			if (!_waitForRounds)
+				return false;
+
+			long round = _round;
+			_idle++;
+			_rounds.notifyAll();
+
+			try {
+				while (_waitForRounds && _round == round) {
+					_rounds.wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+
+			return _waitForRounds;
+		}
+	}
+
+	/**
+	 * Poll the next URI, waiting for the next round if this one is done.
+	 */
+	@Override
+	public URI poll() {
+		URI u;
+		while ((u = super.poll()) == null && waitForNextRound())
+			;
+		return u;
+	}
+
+	/**
+	 * Poll the next batch, waiting for the next round if this one is done.
+	 */
+	@Override
+	public List<URI> poll(int n) {
+		List<URI> batch;
+		while ((batch = super.poll(n)).isEmpty() && waitForNextRound())
+			;
+		return batch;
+	}
+
 	/**
 	 * Put URIs from frontier to queue
 	 * 
@@ -64,7 +235,11 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 
 //		super.schedule(f);
 
-		_queues = Collections.synchronizedMap(new HashMap<String, Queue<URI>>());
+		_queues = Collections.synchronizedMap(new HashMap<String, PldQueue>());
+		_queued.set(0);
+		_order.clear();
+		_scheduler.clear();
+		_scheduling = true;
 		
 		Iterator<URI> it = f.iterator();
 		
@@ -77,11 +252,14 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 			//f.remove(u);
 		}
 	
-		_current.addAll(getSortedQueuePlds());
+		// the plds with the most uris get their first turn first
+		for (String pld : getSortedQueuePlds())
+			_scheduler.register(pld);
+		_scheduling = false;
 		
-		_mintime = _maxtime = System.currentTimeMillis();
+		_mintime = System.currentTimeMillis();
 		
-		_log.info("scheduling depth " + _depth + " with " + size() + " uris and " + getSortedQueuePlds().size() + " plds done in " + (_mintime - time) + " ms");
+		_log.info("scheduling depth " + _depth + " with " + size() + " uris and " + _scheduler.active() + " plds done in " + (_mintime - time) + " ms");
 	}
 	
 //	/**
@@ -115,105 +293,185 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 
 		String pld = _tldm.getPLD(u);
 		if (pld != null) {	
-			Queue<URI> q = _queues.get(pld);
+			PldQueue q = _queues.get(pld);
 			if (q == null) {
-				q = new ConcurrentLinkedQueue<URI>();
+				q = new PldQueue(pld, _queued, _order);
 				_queues.put(pld, q);
-				_current.add(pld);
 			}
 			q.add(u);
+
+			// while scheduling, the plds get registered sorted afterwards
+			if (!_scheduling)
+				_scheduler.register(pld);
 		}
 	}
 	
 	/**
-	 * Poll a URI, one PLD after another.
-	 * If queue turnaround is smaller than DELAY, wait for DELAY ms to
-	 * avoid overloading servers.
+	 * Poll a URI from the next PLD that is due. Each PLD is due
+	 * {@link CrawlerConstants#MIN_DELAY} ms after its last lookup, so the
+	 * queue only reports to be done if it is empty (or the poll limit has been
+	 * reached), not if the plds are cycled through too fast.
 	 * 
 	 * @return URI
 	 */
-	protected synchronized URI pollInternal() {
-		if (_current == null) {
-			return null;
-		}
-		
+	protected URI pollInternal() {
 		long time = System.currentTimeMillis();
 
+		releaseHeld();
+
 		URI next = null;
 
-		int empty = 0;
+		while (next == null) {
+			if (isDone())
+				return null;
 
-		do {
-			long time1 = System.currentTimeMillis();
+			String pld = _scheduler.take(CrawlerConstants.MIN_DELAY);
+			if (pld == null)
+				continue;
 
-			if (_current.isEmpty()) {
-				// queue is empty, done for this round
-				if (size() == 0) {
-					_log.info("queue size is 0: " + toString());
-					return null;
-				}
-				if (_current == POISON) {
-					return null;
-				}
+			next = pollFrom(pld);
+			if (next != null)
+				setSeen(next);
+
+			release(pld, next != null);
+		}
 		
-				if ((time1 - _mintime) < _mindelay) {
-					_log.info("fetching plds too fast, rescheduling, remaining uris in queue " + size());
-					_log.info(toString());
-					_current = POISON;
-					return null;
+		_log.info("poll for " + next + " done in " + (System.currentTimeMillis() - time) + " ms");
+
+		return next;
+	}
+
+	/**
+	 * Add one URI from each of up to n PLDs that are due. The PLDs stay with
+	 * the calling thread until it polls again, such that the politeness delay
+	 * only starts once the whole batch has been looked up. The number of PLDs
+	 * per batch is limited to the share of a thread of the active PLDs.
+	 */
+	protected void pollInternal(int n, List<URI> batch) {
+		releaseHeld();
+
+		if (n <= 0)
+			return;
+
+		List<String> held = _held.get();
+
+		do {
+			if (isDone())
+				return;
+
+			int share = Math.max(1, _scheduler.active() / Math.max(1, CrawlerConstants.NB_THREADS));
+
+			for (String pld : _scheduler.take(Math.min(n, share), batch.isEmpty() ? CrawlerConstants.MIN_DELAY : 0)) {
+				URI next = pollFrom(pld);
+
+				if (next != null) {
+					batch.add(next);
+					held.add(pld);
+				} else {
+					release(pld, false);
 				}
-				
-				_log.info("queue turnaround in " + (time1-_mintime) + " ms");
-
-				_mintime = _maxtime = System.currentTimeMillis();
-				
-				_current.addAll(getSortedQueuePlds());
-			} else if ((time1 - _maxtime) > _maxdelay) {
-				_log.info("skipped to start of queue in " + (time1-_maxtime) + " ms, queue size " + size());
-
-				_maxtime = System.currentTimeMillis();
-				
-				_current = new ConcurrentLinkedQueue<String>();
-				_current.addAll(getSortedQueuePlds());				
 			}
+		} while (batch.isEmpty());
+	}
 
-			String pld = _current.poll();
-			Queue<URI> q = _queues.get(pld);
-			
-			if (q != null && !q.isEmpty()) {
-				next = q.poll();
+	boolean isDone() {
+		if (_scheduler.active() == 0) {
+			_log.info("queue size is 0");
+			return true;
+		}
 
-				setSeen(next);
-			} else {
-				empty++;
-			}
-		} while (next == null && empty < _queues.size());
-		
-		long time1 = System.currentTimeMillis();
-		
-		_log.info("poll for " + next + " done in " + (time1 - time) + " ms");
+		return _polllimit.get() == 0;
+	}
+
+	/**
+	 * Poll a URI from the queue of a PLD held by the calling thread, counting
+	 * it against the poll limit. The poll is counted before the URI is taken,
+	 * such that a URI is never taken off and put back at the tail.
+	 */
+	URI pollFrom(String pld) {
+		Queue<URI> q = _queues.get(pld);
+
+		if (q == null || q.isEmpty() || !countPoll())
+			return null;
+
+		URI next = q.poll();
+		if (next == null)
+			uncountPoll();
 
 		return next;
 	}
+
+	void release(String pld, boolean accessed) {
+		Queue<URI> q = _queues.get(pld);
+
+		boolean more = q != null && !q.isEmpty();
+		_scheduler.release(pld, accessed, more);
+
+		// an add() may have happened between the check and the release
+		if (!more && q != null && !q.isEmpty())
+			_scheduler.register(pld);
+	}
+
+	/**
+	 * Release the PLDs of the last batch of the calling thread.
+	 */
+	void releaseHeld() {
+		List<String> held = _held.get();
+
+		if (!held.isEmpty()) {
+			for (String pld : held)
+				release(pld, true);
+			held.clear();
+		}
+	}
+
+	public void finishedPolling() {
+		releaseHeld();
+		super.finishedPolling();
+	}
+
+	PoliteScheduler getScheduler(String pld) {
+		return pld == null ? null : _scheduler;
+	}
 	
+	/**
+	 * Count a poll against the poll limit.
+	 * 
+	 * @return false if the limit has already been reached
+	 */
+	boolean countPoll() {
+		int limit;
+		do {
+			limit = _polllimit.get();
+			if (limit < 0)
+				return true;
+			if (limit == 0)
+				return false;
+		} while (!_polllimit.compareAndSet(limit, limit - 1));
+		return true;
+	}
+
+	/**
+	 * Give a poll counted for a URI that was not there back to the poll limit.
+	 */
+	void uncountPoll() {
+		int limit;
+		do {
+			limit = _polllimit.get();
+			if (limit < 0)
+				return;
+		} while (!_polllimit.compareAndSet(limit, limit + 1));
+	}
+	
+	/**
+	 * @return the plds of non-empty queues, most uris first
+	 */
 	List<String> getSortedQueuePlds() {
-		List<String> li = new ArrayList<String>();
-		
-		li.addAll(_queues.keySet());
-		
-		Collections.sort(li, new PldCountComparator(_queues));
-		
-		return li;
+		return _order.plds();
 	}
 	
 	public int size() {
-		int size = 0;
-		
-		for (Queue<URI> q : _queues.values()) {
-			size += q.size();
-		}
-		
-		return size;
+		return _queued.get();
 	}
 	
 	public String toString() {
@@ -224,7 +482,7 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 		sb.append("\n");
 		
 		for (String pld : getSortedQueuePlds()) {
-			Queue<URI> q = _queues.get(pld);
+			PldQueue q = _queues.get(pld);
 			sb.append(pld);
 			sb.append(": ");
 			sb.append(q.size());
@@ -234,15 +492,3 @@ public class LoadBalancingQueue extends RedirectsFavouringSpiderQueue {
 		return sb.toString();
 	}
 }
-
-class PldCountComparator implements Comparator<String> {
-	Map<String, Queue<URI>> _map;
-	
-	public PldCountComparator(Map<String, Queue<URI>> map) {
-		_map = map;
-	}
-	
-	public int compare(String arg0, String arg1) {
-		return _map.get(arg1).size() - _map.get(arg0).size();
-	}
-}
\ No newline at end of file
@@ -0,0 +1,93 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Keeps the non-empty PLD queues ordered by the number of URIs they hold,
+ * most URIs first. {@link PldQueue}s report each change of their size, which
+ * costs O(log n) in the number of PLDs, so getting the ordered PLDs does not
+ * involve sorting.
+ */
+public class PldOrder implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	TreeSet<PldQueue> _set;
+
+	public PldOrder() {
+		_set = new TreeSet<PldQueue>(new BySize());
+	}
+
+	/**
+	 * Move the queue to the position matching its current size, or drop it
+	 * if it is empty.
+	 */
+	synchronized void update(PldQueue q) {
+		// the set finds the queue by the size it has been ordered with
+		if (q._ranked) {
+			_set.remove(q);
+		}
+
+		q._key = q.size();
+		q._ranked = q._key > 0;
+
+		if (q._ranked) {
+			_set.add(q);
+		}
+	}
+
+	synchronized void remove(PldQueue q) {
+		if (q._ranked) {
+			_set.remove(q);
+			q._ranked = false;
+		}
+	}
+
+	public synchronized void clear() {
+		for (PldQueue q : _set) {
+			q._ranked = false;
+		}
+		_set.clear();
+	}
+
+	/**
+	 * @return the PLDs of non-empty queues, most URIs first
+	 */
+	public synchronized List<String> plds() {
+		List<String> li = new ArrayList<String>(_set.size());
+
+		for (PldQueue q : _set) {
+			li.add(q._pld);
+		}
+
+		return li;
+	}
+
+	/**
+	 * @return the non-empty queues, most URIs first
+	 */
+	synchronized List<PldQueue> queues() {
+		return new ArrayList<PldQueue>(_set);
+	}
+
+	/**
+	 * @return the number of non-empty queues
+	 */
+	public synchronized int size() {
+		return _set.size();
+	}
+
+	static class BySize implements Comparator<PldQueue>, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		public int compare(PldQueue q0, PldQueue q1) {
+			if (q0._key != q1._key) {
+				return q0._key > q1._key ? -1 : 1;
+			}
+			return q0._pld.compareTo(q1._pld);
+		}
+	}
+}
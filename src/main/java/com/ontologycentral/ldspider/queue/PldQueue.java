@@ -0,0 +1,150 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.Serializable;
+import java.net.URI;
+import java.util.AbstractQueue;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The URIs of one PLD. Unlike {@link ConcurrentLinkedQueue#size()}, which
+ * walks the whole queue, {@link #size()} is a counter. Optionally, the URIs
+ * are counted in a total shared by all PLDs of a spider queue as well, and
+ * the queue keeps its place in a {@link PldOrder}.
+ */
+public class PldQueue extends AbstractQueue<URI> implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final String _pld;
+
+	ConcurrentLinkedQueue<URI> _q;
+
+	AtomicInteger _size;
+
+	/**
+	 * Counts the URIs over all PLDs, may be null.
+	 */
+	AtomicInteger _total;
+
+	/**
+	 * Keeps the PLDs ordered by size, may be null.
+	 */
+	PldOrder _order;
+
+	/**
+	 * The size the queue is ordered by in {@link #_order}, and if it is in
+	 * there at all. Guarded by {@link #_order}.
+	 */
+	int _key;
+	boolean _ranked;
+
+	public PldQueue() {
+		this(null, null, null);
+	}
+
+	public PldQueue(AtomicInteger total) {
+		this(null, total, null);
+	}
+
+	public PldQueue(String pld, AtomicInteger total, PldOrder order) {
+		_pld = pld;
+		_q = new ConcurrentLinkedQueue<URI>();
+		_size = new AtomicInteger(0);
+		_total = total;
+		_order = order;
+	}
+
+	public String getPld() {
+		return _pld;
+	}
+
+	public boolean offer(URI u) {
+		// count first, such that the counters never drop below zero
+		inc(1);
+		return _q.offer(u);
+	}
+
+	public URI poll() {
+		URI u = _q.poll();
+		if (u != null) {
+			inc(-1);
+		}
+		return u;
+	}
+
+	public URI peek() {
+		return _q.peek();
+	}
+
+	public boolean isEmpty() {
+		return _q.isEmpty();
+	}
+
+	public int size() {
+		return _size.get();
+	}
+
+	/**
+	 * Drop all URIs at once. Not to be called while other threads use the
+	 * queue.
+	 */
+	public void discard() {
+		inc(-_size.get());
+		_q.clear();
+	}
+
+	public Iterator<URI> iterator() {
+		final Iterator<URI> it = _q.iterator();
+
+		return new Iterator<URI>() {
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			public URI next() {
+				return it.next();
+			}
+
+			public void remove() {
+				it.remove();
+				inc(-1);
+			}
+		};
+	}
+
+	/**
+	 * Move the queue to another total and order, e.g. when its PLD moves to
+	 * another shard. Not to be called while other threads use the queue.
+	 */
+	void moveTo(AtomicInteger total, PldOrder order) {
+		int size = _size.get();
+
+		// count in the new total first, such that the URIs never go missing
+		if (total != null) {
+			total.addAndGet(size);
+		}
+		if (_total != null) {
+			_total.addAndGet(-size);
+		}
+		_total = total;
+
+		if (_order != null) {
+			_order.remove(this);
+		}
+		_order = order;
+		if (_order != null) {
+			_order.update(this);
+		}
+	}
+
+	void inc(int delta) {
+		_size.addAndGet(delta);
+		if (_total != null) {
+			_total.addAndGet(delta);
+		}
+		if (_order != null) {
+			_order.update(this);
+		}
+	}
+}
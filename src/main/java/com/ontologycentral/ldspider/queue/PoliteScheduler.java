@@ -0,0 +1,373 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+
+/**
+ * Keeps track of the point in time each PLD may be accessed again and hands
+ * out PLDs in the order they become ready. A PLD taken from the scheduler is
+ * held exclusively by the caller until it is {@link #release released}, so
+ * there is at most one lookup in flight per PLD. Callers only wait if there is
+ * no PLD ready at all.
+ * 
+ * The delay between two accesses starts at the minimum delay and, if
+ * {@link CrawlerConstants#ADAPTIVE_DELAY} is set, adapts to each PLD with the
+ * outcome of the lookups {@link #report reported}: it shrinks step by step
+ * while the server answers quickly, down to
+ * {@link CrawlerConstants#ADAPTIVE_DELAY_MIN}, and doubles on errors. It never drops below
+ * the Crawl-delay a site asks for, and a PLD that answered with Retry-After
+ * is not handed out before that time has passed.
+ */
+public class PoliteScheduler implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	ConcurrentHashMap<String, Slot> _slots;
+	DelayQueue<Slot> _ready;
+
+	AtomicInteger _active;
+	AtomicLong _seq;
+
+	long _mindelay;
+
+	public PoliteScheduler() {
+		this(CrawlerConstants.MIN_DELAY);
+	}
+
+	public PoliteScheduler(long mindelay) {
+		_slots = new ConcurrentHashMap<String, Slot>();
+		_ready = new DelayQueue<Slot>();
+		_active = new AtomicInteger(0);
+		_seq = new AtomicLong(0);
+		_mindelay = mindelay;
+	}
+
+	public void setMinDelay(long delay) {
+		_mindelay = delay;
+	}
+
+	/**
+	 * Announce that there is something to fetch on a PLD. Does nothing if the
+	 * PLD is already waiting in the scheduler or held by a caller.
+	 *
+	 * @param pld
+	 *            the PLD
+	 */
+	public void register(String pld) {
+		Slot s = slot(pld);
+
+		if (s._scheduled.compareAndSet(false, true)) {
+			_active.incrementAndGet();
+			s._seq = _seq.incrementAndGet();
+			_ready.offer(s);
+		}
+	}
+
+	/**
+	 * Adapt the delay of a PLD to the outcome of a lookup.
+	 *
+	 * @param pld
+	 *            the PLD
+	 * @param latency
+	 *            response time of the lookup in ms
+	 * @param failed
+	 *            if the lookup failed in a way that hints at an overloaded
+	 *            server, e.g. timeout, 429 or 5xx
+	 */
+	public void report(String pld, long latency, boolean failed) {
+		if (!CrawlerConstants.ADAPTIVE_DELAY)
+			return;
+
+		Slot s = slot(pld);
+
+		synchronized (s) {
+			long delay = getDelay(s);
+
+			if (failed) {
+				delay = Math.min(CrawlerConstants.ADAPTIVE_DELAY_MAX, Math.max(delay, 1) * 2);
+			} else {
+				delay = Math.max(delay - CrawlerConstants.ADAPTIVE_DELAY_STEP, latency * CrawlerConstants.ADAPTIVE_DELAY_LATENCY_FACTOR);
+				delay = Math.max(CrawlerConstants.ADAPTIVE_DELAY_MIN, delay);
+				delay = Math.min(CrawlerConstants.ADAPTIVE_DELAY_MAX, delay);
+			}
+
+			s._delay = delay;
+		}
+	}
+
+	/**
+	 * Set the delay a PLD asks for, e.g. with Crawl-delay in its robots.txt.
+	 * The delay of the PLD does not drop below the largest delay set for any
+	 * of its hosts.
+	 *
+	 * @param pld
+	 *            the PLD
+	 * @param delay
+	 *            the delay in ms, capped at
+	 *            {@link CrawlerConstants#MAX_SERVER_DELAY}
+	 */
+	public void setCrawlDelay(String pld, long delay) {
+		delay = Math.min(delay, CrawlerConstants.MAX_SERVER_DELAY);
+
+		Slot s = slot(pld);
+
+		synchronized (s) {
+			if (delay > s._crawldelay)
+				s._crawldelay = delay;
+		}
+	}
+
+	/**
+	 * Do not hand out the PLD before some time has passed, e.g. after a
+	 * Retry-After on a 429 or 503.
+	 *
+	 * @param pld
+	 *            the PLD
+	 * @param delay
+	 *            ms from now, capped at
+	 *            {@link CrawlerConstants#MAX_SERVER_DELAY}
+	 */
+	public void retryAfter(String pld, long delay) {
+		long time = System.currentTimeMillis() + Math.min(delay, CrawlerConstants.MAX_SERVER_DELAY);
+
+		Slot s = slot(pld);
+
+		synchronized (s) {
+			if (time > s._notbefore)
+				s._notbefore = time;
+		}
+	}
+
+	/**
+	 * @return the current delay between two accesses of the PLD in ms
+	 */
+	public long getDelay(String pld) {
+		Slot s = _slots.get(pld);
+		return s == null ? _mindelay : getDelay(s);
+	}
+
+	long getDelay(Slot s) {
+		return Math.max(s._delay < 0 ? _mindelay : s._delay, s._crawldelay);
+	}
+
+	/**
+	 * Take the PLD that has been ready for the longest time. Waits at most
+	 * maxwait ms if no PLD is ready yet.
+	 *
+	 * @param maxwait
+	 *            maximum time to wait in ms
+	 * @return the PLD, or null if none became ready in time
+	 */
+	public String take(long maxwait) {
+		Slot s = _ready.poll();
+
+		if (s == null && maxwait > 0)
+			try {
+				s = _ready.poll(maxwait, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+		return s == null ? null : s._pld;
+	}
+
+	Slot slot(String pld) {
+		Slot s = _slots.get(pld);
+		if (s == null) {
+			Slot ns = new Slot(pld);
+			s = _slots.putIfAbsent(pld, ns);
+			if (s == null)
+				s = ns;
+		}
+		return s;
+	}
+
+	/**
+	 * Take up to n PLDs that are ready, longest waiting first. Waits at most
+	 * maxwait ms if no PLD is ready yet.
+	 *
+	 * @param n
+	 *            maximum number of PLDs
+	 * @param maxwait
+	 *            maximum time to wait in ms
+	 * @return the PLDs, empty if none became ready in time
+	 */
+	public List<String> take(int n, long maxwait) {
+		List<Slot> slots = new ArrayList<Slot>(n);
+
+		_ready.drainTo(slots, n);
+
+		if (slots.isEmpty() && maxwait > 0) {
+			String pld = take(maxwait);
+			if (pld != null) {
+				slots.add(_slots.get(pld));
+				_ready.drainTo(slots, n - 1);
+			}
+		}
+
+		List<String> plds = new ArrayList<String>(slots.size());
+		for (Slot s : slots)
+			plds.add(s._pld);
+
+		return plds;
+	}
+
+	/**
+	 * Give back a PLD obtained via {@link #take(long)} or
+	 * {@link #take(int, long)}.
+	 *
+	 * @param pld
+	 *            the PLD
+	 * @param accessed
+	 *            if the PLD has been accessed, i.e. the politeness delay
+	 *            applies before the next access
+	 * @param more
+	 *            if there is more to fetch on the PLD
+	 */
+	public void release(String pld, boolean accessed, boolean more) {
+		Slot s = _slots.get(pld);
+		if (s == null)
+			return;
+
+		if (accessed)
+			s._next = System.currentTimeMillis() + getDelay(s);
+		if (s._notbefore > s._next)
+			s._next = s._notbefore;
+
+		if (more) {
+			s._seq = _seq.incrementAndGet();
+			_ready.offer(s);
+		} else if (s._scheduled.compareAndSet(true, false)) {
+			_active.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Take over the slot of a PLD held by a caller from another scheduler,
+	 * with its point in time and delays. The caller releases the PLD to this
+	 * scheduler.
+	 */
+	void attach(Slot s) {
+		_slots.put(s._pld, s);
+		if (s._scheduled.get())
+			_active.incrementAndGet();
+	}
+
+	/**
+	 * Forget about a PLD held by a caller, once another scheduler has
+	 * {@link #attach attached} its slot.
+	 */
+	void detach(String pld) {
+		Slot s = _slots.remove(pld);
+		if (s != null && s._scheduled.get())
+			_active.decrementAndGet();
+	}
+
+	/**
+	 * @return ms until the next PLD waiting is ready, Long.MAX_VALUE if there
+	 *         is none waiting
+	 */
+	public long nextDue() {
+		Slot s = _ready.peek();
+		return s == null ? Long.MAX_VALUE : s.getDelay(TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return the number of PLDs that are waiting or held by a caller
+	 */
+	public int active() {
+		return _active.get();
+	}
+
+	/**
+	 * @return the number of PLDs the scheduler has seen
+	 */
+	public int size() {
+		return _slots.size();
+	}
+
+	/**
+	 * Forget about the PLDs waiting, but keep the point in time each PLD may
+	 * be accessed again.
+	 */
+	public void clear() {
+		_ready.clear();
+		for (Slot s : _slots.values())
+			s._scheduled.set(false);
+		_active.set(0);
+	}
+
+	/**
+	 * The PLDs a thread holds, e.g. while looking up a batch of URIs.
+	 */
+	static class Held extends ThreadLocal<List<String>> {
+		protected List<String> initialValue() {
+			return new ArrayList<String>();
+		}
+	}
+
+	static class Slot implements Delayed, Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final String _pld;
+		final AtomicBoolean _scheduled;
+
+		/**
+		 * Point in time from which on the PLD may be accessed again.
+		 */
+		volatile long _next;
+
+		/**
+		 * Tie-breaker, keeps the registration order among PLDs that are ready
+		 * at the same time.
+		 */
+		volatile long _seq;
+
+		/**
+		 * Delay between two accesses, -1 for the minimum delay.
+		 */
+		volatile long _delay;
+
+		/**
+		 * Delay the PLD asks for, -1 if none.
+		 */
+		volatile long _crawldelay;
+
+		/**
+		 * Point in time the PLD asked not to be accessed before.
+		 */
+		volatile long _notbefore;
+
+		Slot(String pld) {
+			_pld = pld;
+			_scheduled = new AtomicBoolean(false);
+			_next = 0;
+			_delay = -1;
+			_crawldelay = -1;
+			_notbefore = 0;
+		}
+
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(_next - System.currentTimeMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+
+		public int compareTo(Delayed o) {
+			Slot s = (Slot) o;
+			if (_next != s._next)
+				return _next < s._next ? -1 : 1;
+			if (_seq != s._seq)
+				return _seq < s._seq ? -1 : 1;
+			return 0;
+		}
+	}
+}
@@ -0,0 +1,117 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A part of a queue that holds the PLDs hashing to it, with its own counts,
+ * order and politeness clock. Threads working on different shards do not
+ * share any locks.
+ */
+class QueueShard implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	ConcurrentHashMap<String, PldQueue> _queues;
+
+	/**
+	 * Number of URIs in the PLD queues of this shard.
+	 */
+	AtomicInteger _queued;
+
+	/**
+	 * The non-empty PLD queues, most URIs first.
+	 */
+	PldOrder _order;
+
+	/**
+	 * Hands out the PLDs of this shard that may be accessed again.
+	 */
+	PoliteScheduler _scheduler;
+
+	QueueShard() {
+		_queues = new ConcurrentHashMap<String, PldQueue>();
+		_queued = new AtomicInteger(0);
+		_order = new PldOrder();
+		_scheduler = new PoliteScheduler();
+	}
+
+	PldQueue getOrCreate(String pld) {
+		PldQueue q = _queues.get(pld);
+		if (q == null) {
+			PldQueue nq = new PldQueue(pld, _queued, _order);
+			q = _queues.putIfAbsent(pld, nq);
+			if (q == null) {
+				q = nq;
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * Forget about all PLDs, but keep the politeness clock.
+	 */
+	void clear() {
+		_queues.clear();
+		_queued.set(0);
+		_order.clear();
+		_scheduler.clear();
+	}
+
+	/**
+	 * Merge the orders of the shards.
+	 *
+	 * @return the PLDs of non-empty queues over all shards, most URIs first
+	 */
+	static List<String> plds(QueueShard[] shards) {
+		if (shards.length == 1) {
+			return shards[0]._order.plds();
+		}
+
+		final PldOrder.BySize bysize = new PldOrder.BySize();
+
+		PriorityQueue<Cursor> heads = new PriorityQueue<Cursor>(shards.length, new Comparator<Cursor>() {
+			public int compare(Cursor c0, Cursor c1) {
+				return bysize.compare(c0._head, c1._head);
+			}
+		});
+
+		for (QueueShard s : shards) {
+			Cursor c = new Cursor(s._order.queues().iterator());
+			if (c.advance()) {
+				heads.add(c);
+			}
+		}
+
+		List<String> li = new ArrayList<String>();
+
+		Cursor c;
+		while ((c = heads.poll()) != null) {
+			li.add(c._head._pld);
+			if (c.advance()) {
+				heads.add(c);
+			}
+		}
+
+		return li;
+	}
+
+	static class Cursor {
+		final Iterator<PldQueue> _it;
+		PldQueue _head;
+
+		Cursor(Iterator<PldQueue> it) {
+			_it = it;
+		}
+
+		boolean advance() {
+			_head = _it.hasNext() ? _it.next() : null;
+			return _head != null;
+		}
+	}
+}
@@ -1,8 +1,16 @@
 package com.ontologycentral.ldspider.queue;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.tld.TldManager;
@@ -17,14 +25,52 @@ public abstract class RedirectsFavouringSpiderQueue extends SpiderQueue {
 	
 	Queue<URI> _redirectsQueue;
 
+	/**
+	 * URIs polled and given back without being looked up, which are marked
+	 * as seen already.
+	 */
+	Queue<URI> _returned;
+
+	/**
+	 * The URIs last polled by each thread, by thread id. They are marked as
+	 * seen, but may not have been looked up yet. A thread is done with them
+	 * once it polls again or has finished polling.
+	 */
+	ConcurrentHashMap<Long, List<URI>> _inflight;
+
+	/**
+	 * Held shared while polling and giving back, such that a
+	 * {@link Checkpoint} holding it exclusively finds every URI taken from
+	 * the queues either in flight or given back.
+	 */
+	ReentrantReadWriteLock _polling;
+
 	public RedirectsFavouringSpiderQueue(TldManager tldm, Redirects redirs, Seen seen) {
 		super(tldm, redirs, seen);
-		_redirectsQueue = new ConcurrentLinkedQueue<URI>();
+		_redirectsQueue = new PldQueue();
+		_returned = new PldQueue();
+		_inflight = new ConcurrentHashMap<Long, List<URI>>();
+		_polling = new ReentrantReadWriteLock();
 	}
 
 	@Override
 	public URI poll() {
-		URI u;
+		_polling.readLock().lock();
+		try {
+			URI u = pollNext();
+			setInFlight(u == null ? Collections.<URI> emptyList() : Collections.singletonList(u));
+			return u;
+		} finally {
+			_polling.readLock().unlock();
+		}
+	}
+
+	URI pollNext() {
+		URI u = _returned.poll();
+		if (u != null) {
+			return u;
+		}
+
 		do {
 			u = _redirectsQueue.poll();
 			if (u != null) {
@@ -44,8 +90,106 @@ public abstract class RedirectsFavouringSpiderQueue extends SpiderQueue {
 //			return pollInternal();
 	}
 
+	/**
+	 * Fills the batch with the URIs given back and the redirects first, then
+	 * with URIs from the queue. The redirects are marked as seen one by one
+	 * as they are taken, such that a redirect queued twice is only taken
+	 * once, and URIs from the queue that are redirects of the batch already
+	 * are dropped. The URIs from the queue are marked as seen in one go.
+	 */
+	@Override
+	public List<URI> poll(int n) {
+		_polling.readLock().lock();
+		try {
+			List<URI> batch = pollBatch(n);
+			setInFlight(batch);
+			return batch;
+		} finally {
+			_polling.readLock().unlock();
+		}
+	}
+
+	List<URI> pollBatch(int n) {
+		List<URI> batch = new ArrayList<URI>(n);
+
+		URI u;
+		while (batch.size() < n && (u = _returned.poll()) != null) {
+			batch.add(u);
+		}
+
+		while (batch.size() < n && (u = _redirectsQueue.poll()) != null) {
+			if (_seen.add(u)) {
+				batch.add(u);
+			}
+		}
+
+		int taken = batch.size();
+
+		pollInternal(n - taken, batch);
+
+		List<URI> polled = batch.subList(taken, batch.size());
+		if (taken > 0 && !polled.isEmpty()) {
+			Set<URI> first = new HashSet<URI>(batch.subList(0, taken));
+			for (Iterator<URI> it = polled.iterator(); it.hasNext(); ) {
+				if (first.contains(it.next())) {
+					it.remove();
+				}
+			}
+		}
+
+		addSeen(polled);
+
+		return batch;
+	}
+
+	/**
+	 * The URIs go back in front of the redirects, without being checked
+	 * against seen.
+	 */
+	@Override
+	public void giveBack(Collection<URI> c) {
+		_polling.readLock().lock();
+		try {
+			_returned.addAll(c);
+		} finally {
+			_polling.readLock().unlock();
+		}
+	}
+
+	/**
+	 * The calling thread is done with the URIs it has polled before.
+	 */
+	@Override
+	public void finishedPolling() {
+		_inflight.remove(Thread.currentThread().getId());
+	}
+
+	void setInFlight(List<URI> li) {
+		if (li.isEmpty()) {
+			_inflight.remove(Thread.currentThread().getId());
+		} else {
+			_inflight.put(Thread.currentThread().getId(), new ArrayList<URI>(li));
+		}
+	}
+
 	protected abstract URI pollInternal();
 
+	/**
+	 * Add up to n URIs to the batch. Must not wait if the batch already holds
+	 * URIs. By default, adds a single URI.
+	 * 
+	 * @param n the maximum number of URIs to add
+	 * @param batch the batch
+	 */
+	protected void pollInternal(int n, List<URI> batch) {
+		if (n > 0 && batch.isEmpty()) {
+			URI u = pollInternal();
+			if (u != null) {
+				batch.add(u);
+			}
+		}
+	}
+
 	@Override
 	public abstract void add(URI u, boolean uriHasAlreadyBeenProcessed);
 
@@ -56,7 +200,7 @@ public abstract class RedirectsFavouringSpiderQueue extends SpiderQueue {
 	}
 
 	public int size() {
-		return _redirectsQueue.size();
+		return _redirectsQueue.size() + _returned.size();
 	}
 	
 }
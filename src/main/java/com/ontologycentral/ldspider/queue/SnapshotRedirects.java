@@ -0,0 +1,298 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.ontologycentral.ldspider.seen.FingerprintSeen;
+import com.ontologycentral.ldspider.seen.MappedLongs;
+
+/**
+ * {@link Redirects} that takes the redirects of a snapshot, on top of
+ * wrapped {@link Redirects} for the redirects put since, which take
+ * precedence. The index of the snapshot is mapped into memory and searched in
+ * place, and a redirect is only read from the file once it is looked up, so
+ * resuming a crawl does not wait for the redirects to be read.
+ *
+ * The file starts with {@link #MAGIC}, padded to 8 bytes, and the number of
+ * redirects. The index follows, with the fingerprint of each URI redirected
+ * from, see {@link FingerprintSeen#fingerprint(String)}, and the position of
+ * the redirect in the file, in the order of the fingerprints. Each redirect
+ * is the URI redirected from and the URI redirected to, as UTF-8 with their
+ * length in bytes in front, as in a {@link Checkpoint}. Snapshots are written
+ * with a {@link Writer}.
+ */
+public class SnapshotRedirects implements Redirects, Iterable<Map.Entry<URI, URI>>, Closeable {
+	private static final long serialVersionUID = 1L;
+
+	private final static Logger _log = Logger.getLogger(SnapshotRedirects.class.getName());
+
+	static final byte[] MAGIC = { 'L', 'D', 'R', 'D', 1 };
+	static final int HEADER = 16;
+
+	final File _file;
+	transient final RandomAccessFile _raf;
+	transient final FileChannel _ch;
+	transient final MappedLongs _index;
+	final long _size;
+
+	Redirects _redirects;
+
+	/**
+	 * @param f
+	 *            the snapshot
+	 * @param redirects
+	 *            take the redirects put, and are asked first
+	 */
+	public SnapshotRedirects(File f, Redirects redirects) throws IOException {
+		_file = f;
+		_size = readHeader(f);
+		_index = new MappedLongs(f, HEADER, 2 * _size);
+		_raf = new RandomAccessFile(f, "r");
+		_ch = _raf.getChannel();
+		_redirects = redirects;
+
+		_log.info("mapped the index of " + _size + " redirects from " + f);
+	}
+
+	public void put(URI from, URI to) {
+		_redirects.put(from, to);
+	}
+
+	public URI getRedirect(URI from) {
+		URI to = _redirects.getRedirect(from);
+		if (to != null && !to.equals(from)) {
+			return to;
+		}
+
+		String s = from.toString();
+		long fp = FingerprintSeen.fingerprint(s);
+		long i = _index.search(fp, 2);
+		if (i < 0) {
+			return from;
+		}
+
+		// redirects from URIs sharing the fingerprint are next to each other
+		while (i > 0 && _index.get(2 * (i - 1)) == fp) {
+			i--;
+		}
+		try {
+			for (; i < _size && _index.get(2 * i) == fp; i++) {
+				String[] r = read(_index.get(2 * i + 1));
+				if (r[0].equals(s)) {
+					URI u = Checkpoint.toURI(r[1]);
+					return u == null ? from : u;
+				}
+			}
+		} catch (IOException e) {
+			_log.warning("cannot read redirect of " + from + " from " + _file + ": " + e.getMessage());
+		}
+
+		return from;
+	}
+
+	/**
+	 * Read the redirect at a position, with positional reads, as lookups may
+	 * come from many threads.
+	 */
+	String[] read(long pos) throws IOException {
+		String[] r = new String[2];
+		for (int i = 0; i < 2; i++) {
+			ByteBuffer len = ByteBuffer.allocate(4);
+			readFully(len, pos);
+			ByteBuffer b = ByteBuffer.allocate(len.getInt(0));
+			readFully(b, pos + 4);
+			r[i] = new String(b.array(), "UTF-8");
+			pos += 4 + b.capacity();
+		}
+		return r;
+	}
+
+	void readFully(ByteBuffer b, long pos) throws IOException {
+		while (b.hasRemaining()) {
+			int n = _ch.read(b, pos);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			pos += n;
+		}
+	}
+
+	/**
+	 * @return the number of redirects in the snapshot
+	 */
+	public long size() {
+		return _size;
+	}
+
+	/**
+	 * Iterates over a copy of the redirects of the snapshot and the ones put
+	 * since, if these can be iterated, e.g. while writing a checkpoint.
+	 */
+	@SuppressWarnings("unchecked")
+	public Iterator<Map.Entry<URI, URI>> iterator() {
+		Map<URI, URI> copy = new HashMap<URI, URI>();
+
+		try {
+			Checkpoint.Input in = new Checkpoint.Input(_file);
+			try {
+				in.seek(HEADER + 16 * _size);
+				for (long i = 0; i < _size; i++) {
+					URI from = Checkpoint.toURI(in.readString());
+					URI to = Checkpoint.toURI(in.readString());
+					if (from != null && to != null) {
+						copy.put(from, to);
+					}
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read redirects from " + _file, e);
+		}
+
+		if (_redirects instanceof Iterable) {
+			for (Map.Entry<URI, URI> e : (Iterable<Map.Entry<URI, URI>>) _redirects) {
+				copy.put(e.getKey(), e.getValue());
+			}
+		}
+
+		return copy.entrySet().iterator();
+	}
+
+	public void close() throws IOException {
+		_index.close();
+		_raf.close();
+	}
+
+	/**
+	 * @return true if the file is a snapshot of redirects, rather than e.g. a
+	 *         redirects file of N-Triples
+	 */
+	public static boolean isSnapshot(File f) throws IOException {
+		try {
+			readHeader(f);
+			return true;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the number of redirects in the snapshot
+	 */
+	static long readHeader(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			byte[] b = new byte[HEADER - 8];
+			in.readFully(b);
+			if (!Arrays.equals(Arrays.copyOf(b, MAGIC.length), MAGIC)) {
+				throw new IOException(f + " is not a snapshot of redirects");
+			}
+			return in.readLong();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the redirects put, which are kept in memory until
+	 * the snapshot is written on close. A URI redirected from twice keeps the
+	 * redirect put last, as with {@link HashTableRedirects}. The snapshot is
+	 * written to a temporary file first, such that a complete snapshot
+	 * replaces the file.
+	 */
+	public static class Writer implements Closeable {
+		final File _file;
+		Map<String, String> _redirects;
+
+		public Writer(File f) {
+			_file = f;
+			_redirects = new HashMap<String, String>();
+		}
+
+		public void put(String from, String to) {
+			_redirects.put(from, to);
+		}
+
+		/**
+		 * Write the snapshot.
+		 */
+		public void close() throws IOException {
+			final String[] froms = _redirects.keySet().toArray(new String[_redirects.size()]);
+			final long[] fps = new long[froms.length];
+			Integer[] order = new Integer[froms.length];
+			for (int i = 0; i < froms.length; i++) {
+				fps[i] = FingerprintSeen.fingerprint(froms[i]);
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer a, Integer b) {
+					return fps[a] < fps[b] ? -1 : (fps[a] == fps[b] ? 0 : 1);
+				}
+			});
+
+			File tmp = new File(_file.getPath() + ".tmp");
+			FileOutputStream fos = new FileOutputStream(tmp);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024));
+			boolean done = false;
+			try {
+				out.write(MAGIC);
+				out.write(new byte[HEADER - 8 - MAGIC.length]);
+				out.writeLong(froms.length);
+
+				byte[][] bytes = new byte[2 * froms.length][];
+				long pos = HEADER + 16L * froms.length;
+				for (int i = 0; i < order.length; i++) {
+					String from = froms[order[i]];
+					bytes[2 * i] = from.getBytes("UTF-8");
+					bytes[2 * i + 1] = _redirects.get(from).getBytes("UTF-8");
+
+					out.writeLong(fps[order[i]]);
+					out.writeLong(pos);
+					pos += 8 + bytes[2 * i].length + bytes[2 * i + 1].length;
+				}
+
+				for (byte[] b : bytes) {
+					out.writeInt(b.length);
+					out.write(b);
+				}
+
+				out.flush();
+				fos.getFD().sync();
+				done = true;
+			} finally {
+				out.close();
+				if (!done) {
+					tmp.delete();
+				}
+			}
+			_redirects = null;
+
+			if (!tmp.renameTo(_file)) {
+				_file.delete();
+				if (!tmp.renameTo(_file)) {
+					throw new IOException("cannot rename " + tmp + " to " + _file);
+				}
+			}
+
+			_log.info("snapshot of " + froms.length + " redirects written to " + _file);
+		}
+	}
+}
@@ -3,6 +3,9 @@ package com.ontologycentral.ldspider.queue;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.logging.Logger;
 
 import org.semanticweb.yars.tld.TldManager;
@@ -19,6 +22,26 @@ public abstract class SpiderQueue implements Serializable{
 	public abstract URI poll();
 	public abstract int size();
 	
+	/**
+	 * Poll up to n URIs at once, which saves going through the queue for each
+	 * URI. All URIs returned are marked as seen. By default, the batch
+	 * consists of a single URI.
+	 * 
+	 * @param n the maximum number of URIs
+	 * @return the URIs, an empty list once the queue is done
+	 */
+	public List<URI> poll(int n) {
+		List<URI> batch = new ArrayList<URI>(1);
+		
+		URI u = poll();
+		if (u != null) {
+			batch.add(u);
+			addSeen(batch);
+		}
+		
+		return batch;
+	}
+	
 	protected Seen _seen;
 	
 	LRUMapCache<URI, Integer> _redirsCache = new LRUMapCache<URI, Integer>(2 * CrawlerConstants.NB_THREADS);
@@ -37,6 +60,111 @@ public abstract class SpiderQueue implements Serializable{
 	 */
 	public abstract void schedule(Frontier f);
 	
+	/**
+	 * Schedule a frontier for the next hop in the background, while the
+	 * current hop is still being polled. The URIs prepared are only handed
+	 * out by the next {@link #schedule(Frontier)}. Only to be called if
+	 * {@link #canPrepare()}.
+	 * 
+	 * @param f the frontier, which is not added to any more
+	 * @throws UnsupportedOperationException if the queue cannot prepare a hop
+	 */
+	public void prepare(Frontier f) {
+		throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot prepare a hop");
+	}
+
+	/**
+	 * @return if the queue can {@link #prepare(Frontier) prepare} a hop
+	 */
+	public boolean canPrepare() {
+		return false;
+	}
+	
+	/**
+	 * Give URIs polled back to the queue that have not been looked up, e.g.
+	 * by a thread that stops at the URI limit in the middle of a batch. The
+	 * URIs are marked as seen already, so queues that drop URIs seen when
+	 * polling put them back without the check. By default, the URIs are
+	 * added again.
+	 * 
+	 * @param c the URIs
+	 */
+	public void giveBack(Collection<URI> c) {
+		for (URI u : c) {
+			add(u, true);
+		}
+	}
+
+	/**
+	 * Called by a thread that stops polling from the queue, e.g. once the URI
+	 * limit is reached.
+	 */
+	public void finishedPolling() {
+		;
+	}
+	
+	/**
+	 * Report the outcome of a lookup, such that the queue can adapt the delay
+	 * for the PLD of the URI.
+	 * 
+	 * @param u the URI looked up
+	 * @param status the HTTP status, 0 if there was no response, e.g. on a timeout
+	 * @param latency the time the lookup took in ms
+	 */
+	public void reportLookup(URI u, int status, long latency) {
+		String pld = _tldm.getPLD(u);
+		PoliteScheduler s = getScheduler(pld);
+		if (s != null) {
+			s.report(pld, latency, isOverloaded(status));
+		}
+	}
+	
+	/**
+	 * Set the delay between two accesses the host of the URI asks for, i.e.
+	 * the Crawl-delay in its robots.txt.
+	 * 
+	 * @param u a URI on the host
+	 * @param delay the delay in ms
+	 */
+	public void setCrawlDelay(URI u, long delay) {
+		String pld = _tldm.getPLD(u);
+		PoliteScheduler s = getScheduler(pld);
+		if (s != null) {
+			s.setCrawlDelay(pld, delay);
+		}
+	}
+	
+	/**
+	 * Do not access the PLD of the URI before the time the server asked for
+	 * with Retry-After has passed.
+	 * 
+	 * @param u the URI looked up
+	 * @param delay ms from now
+	 */
+	public void setRetryAfter(URI u, long delay) {
+		String pld = _tldm.getPLD(u);
+		PoliteScheduler s = getScheduler(pld);
+		if (s != null) {
+			s.retryAfter(pld, delay);
+		}
+	}
+	
+	/**
+	 * @return the scheduler keeping the politeness delays of the PLD, null if
+	 *         the queue has none
+	 */
+	PoliteScheduler getScheduler(String pld) {
+		return null;
+	}
+	
+	/**
+	 * If the status of a lookup hints at an overloaded server.
+	 * @param status the HTTP status, 0 if there was no response
+	 */
+	static boolean isOverloaded(int status) {
+		return status == 0 || status == 429 || status >= 500;
+	}
+	
 	/**
 	 * Set a redirect (303)
 	 * @param from
@@ -135,6 +263,15 @@ public abstract class SpiderQueue implements Serializable{
 			_seen.add(u);
 	}
 	
+	/**
+	 * Set the URIs supplied as seen, all at once.
+	 * @param c the URIs
+	 */
+	public void addSeen(Collection<URI> c) {
+		if (!c.isEmpty())
+			_seen.add(c);
+	}
+	
 	/**
 	 * Checks if a given URI has been seen.
 	 * @param u the URI
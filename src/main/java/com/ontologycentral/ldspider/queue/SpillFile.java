@@ -0,0 +1,666 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.ontologycentral.ldspider.frontier.UriRun;
+
+/**
+ * One append-only file holding the URIs (with counts) of all PLDs. Records
+ * are staged in memory and written out PLD by PLD as segments once the
+ * staging buffer is full. The segments of a PLD are chained via the offset of
+ * the previous segment, and an index in memory points to the last segment of
+ * each PLD. Hence, there is one file descriptor no matter how many PLDs there
+ * are, and writes are large and sequential. The URIs of a segment are front
+ * coded as in a {@link UriRun}, the first URI of each segment in full, each
+ * followed by its count as varint.
+ *
+ * Records are read back in the order they have been added for a PLD, through
+ * {@link Cursor}s doing positional reads on the one channel of the file. When
+ * sorting, threads append whole segments for different PLDs at the same time.
+ */
+class SpillFile {
+	/**
+	 * Offset of the previous segment of the PLD, and length of the payload.
+	 */
+	static final int HEADER = 8 + 4;
+
+	/**
+	 * Size of the segments written by {@link #append(String, Iterator)}.
+	 */
+	static final int SEGMENT = 1024 * 1024;
+
+	File _file;
+	RandomAccessFile _raf;
+	FileChannel _channel;
+
+	/**
+	 * Bytes written so far, i.e. the offset of the next segment.
+	 */
+	long _length;
+
+	Map<String, Chain> _chains;
+
+	Map<Chain, Staged> _staged;
+	int _stagedBytes;
+	int _budget;
+
+	/**
+	 * @param file
+	 *            the file, will be overwritten
+	 * @param budget
+	 *            bytes to stage in memory before writing segments
+	 */
+	SpillFile(File file, int budget) throws IOException {
+		_file = file;
+		_raf = new RandomAccessFile(file, "rw");
+		_raf.setLength(0);
+		_channel = _raf.getChannel();
+		_length = 0;
+
+		_chains = new HashMap<String, Chain>();
+		_staged = new HashMap<Chain, Staged>();
+		_stagedBytes = 0;
+		_budget = budget;
+	}
+
+	/**
+	 * Append a record for a PLD.
+	 */
+	synchronized void add(String pld, String uri, int count) throws IOException {
+		Chain c = _chains.get(pld);
+		if (c == null) {
+			c = new Chain(pld);
+			_chains.put(pld, c);
+		}
+
+		Staged st = _staged.get(c);
+		if (st == null) {
+			st = new Staged();
+			_staged.put(c, st);
+		}
+
+		int size = st.size();
+		write(st, st._encoder, uri, count);
+		_stagedBytes += st.size() - size;
+		c._count++;
+
+		if (_stagedBytes >= _budget) {
+			flush();
+		}
+	}
+
+	static void write(OutputStream os, UriRun.Encoder enc, String uri, int count) throws IOException {
+		enc.write(os, uri);
+		UriRun.writeVarint(os, count);
+	}
+
+	static Record read(InputStream is, UriRun.Decoder dec) throws IOException {
+		String uri = dec.read(is);
+		int count = uri == null ? -1 : UriRun.readVarint(is);
+		if (count < 0) {
+			throw new EOFException("segment ends within a record");
+		}
+		return new Record(uri, count);
+	}
+
+	/**
+	 * Write the staged records as one segment per PLD.
+	 */
+	synchronized void flush() throws IOException {
+		if (_staged.isEmpty()) {
+			return;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(_stagedBytes + _staged.size() * HEADER);
+		DataOutputStream dos = new DataOutputStream(out);
+
+		for (Map.Entry<Chain, Staged> e : _staged.entrySet()) {
+			Chain c = e.getKey();
+			long offset = _length + out.size();
+
+			dos.writeLong(c._last);
+			dos.writeInt(e.getValue().size());
+			e.getValue().writeTo(dos);
+
+			c._last = offset;
+			c._segments++;
+		}
+
+		ByteBuffer bb = ByteBuffer.wrap(out.toByteArray());
+		long pos = _length;
+		while (bb.hasRemaining()) {
+			pos += _channel.write(bb, pos);
+		}
+		_length = pos;
+
+		_staged.clear();
+		_stagedBytes = 0;
+	}
+
+	/**
+	 * Append the records of a PLD as segments of at most {@link #SEGMENT}
+	 * bytes, bypassing the staging buffer. Several threads may append at the
+	 * same time, as long as they append for different PLDs, and there are no
+	 * records staged for the PLD.
+	 */
+	void append(String pld, Iterator<Record> records) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(SEGMENT + HEADER);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		// room for the header
+		dos.writeLong(-1);
+		dos.writeInt(0);
+
+		UriRun.Encoder enc = new UriRun.Encoder();
+		int count = 0;
+
+		while (records.hasNext()) {
+			Record r = records.next();
+			write(dos, enc, r._uri, r._count);
+			count++;
+
+			if (baos.size() >= SEGMENT) {
+				writeSegment(pld, baos.toByteArray(), count);
+				baos.reset();
+				dos.writeLong(-1);
+				dos.writeInt(0);
+				enc.reset();
+				count = 0;
+			}
+		}
+
+		if (count > 0) {
+			writeSegment(pld, baos.toByteArray(), count);
+		}
+	}
+
+	/**
+	 * Reserve room for a segment at the end of the file and link it to the
+	 * chain of the PLD, then write it outside the lock.
+	 */
+	void writeSegment(String pld, byte[] segment, int count) throws IOException {
+		long offset;
+		long prev;
+
+		synchronized (this) {
+			Chain c = _chains.get(pld);
+			if (c == null) {
+				c = new Chain(pld);
+				_chains.put(pld, c);
+			}
+
+			offset = _length;
+			_length += segment.length;
+
+			prev = c._last;
+			c._last = offset;
+			c._segments++;
+			c._count += count;
+		}
+
+		ByteBuffer bb = ByteBuffer.wrap(segment);
+		bb.putLong(0, prev);
+		bb.putInt(8, segment.length - HEADER);
+
+		long pos = offset;
+		while (bb.hasRemaining()) {
+			pos += _channel.write(bb, pos);
+		}
+	}
+
+	/**
+	 * @return the PLDs with records
+	 */
+	synchronized Set<String> plds() {
+		return _chains.keySet();
+	}
+
+	/**
+	 * @return the number of records of the PLD
+	 */
+	synchronized int count(String pld) {
+		Chain c = _chains.get(pld);
+		return c == null ? 0 : c._count;
+	}
+
+	/**
+	 * @return the number of records of all PLDs
+	 */
+	synchronized long count() {
+		long count = 0;
+		for (Chain c : _chains.values()) {
+			count += c._count;
+		}
+		return count;
+	}
+
+	/**
+	 * Read the records of a PLD. The records staged have to be
+	 * {@link #flush() flushed} before.
+	 *
+	 * @param bufsize
+	 *            size of the read buffer of the cursor
+	 */
+	Cursor cursor(String pld, int bufsize) throws IOException {
+		int segments, count;
+		long offset;
+		synchronized (this) {
+			Chain c = _chains.get(pld);
+			if (c == null) {
+				return new Cursor(this, new long[0], new int[0], 0, bufsize);
+			}
+			segments = c._segments;
+			count = c._count;
+			offset = c._last;
+		}
+
+		// walk the chain backwards, only reading the headers
+		long[] offsets = new long[segments];
+		int[] lengths = new int[segments];
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER);
+		for (int i = segments - 1; i >= 0; i--) {
+			header.clear();
+			readFully(header, offset);
+			header.flip();
+
+			offsets[i] = offset + HEADER;
+			lengths[i] = header.getInt(8);
+			offset = header.getLong(0);
+		}
+
+		return new Cursor(this, offsets, lengths, count, bufsize);
+	}
+
+	void readFully(ByteBuffer bb, long pos) throws IOException {
+		while (bb.hasRemaining()) {
+			int read = _channel.read(bb, pos);
+			if (read < 0) {
+				throw new EOFException(_file + " at " + pos);
+			}
+			pos += read;
+		}
+	}
+
+	/**
+	 * @return bytes written to disk
+	 */
+	synchronized long length() {
+		return _length;
+	}
+
+	/**
+	 * Close and delete the file.
+	 */
+	synchronized void delete() {
+		try {
+			_raf.close();
+		} catch (IOException e) {
+			;
+		}
+		_file.delete();
+		_chains.clear();
+		_staged.clear();
+		_stagedBytes = 0;
+	}
+
+	static class Chain {
+		final String _pld;
+
+		/**
+		 * Offset of the last segment, -1 if none has been written.
+		 */
+		long _last;
+		int _segments;
+		int _count;
+
+		Chain(String pld) {
+			_pld = pld;
+			_last = -1;
+			_segments = 0;
+			_count = 0;
+		}
+	}
+
+	/**
+	 * Records staged for a PLD, front coded against each other.
+	 */
+	static class Staged extends ByteArrayOutputStream {
+		final UriRun.Encoder _encoder;
+
+		Staged() {
+			super(256);
+			_encoder = new UriRun.Encoder();
+		}
+	}
+
+	static class Record {
+		final String _uri;
+		final int _count;
+
+		Record(String uri, int count) {
+			_uri = uri;
+			_count = count;
+		}
+	}
+
+	/**
+	 * Iterates over the records of a PLD. The read buffer is only allocated
+	 * while there are records left.
+	 */
+	static class Cursor implements Iterator<Record> {
+		final SpillFile _spill;
+		final long[] _offsets;
+		final int[] _lengths;
+		final int _bufsize;
+
+		int _left;
+		SegmentsInputStream _segments;
+		InputStream _in;
+		UriRun.Decoder _decoder;
+
+		Cursor(SpillFile spill, long[] offsets, int[] lengths, int count, int bufsize) {
+			_spill = spill;
+			_offsets = offsets;
+			_lengths = lengths;
+			_left = count;
+			_bufsize = bufsize;
+		}
+
+		public boolean hasNext() {
+			return _left > 0;
+		}
+
+		/**
+		 * @return the number of records left
+		 */
+		int left() {
+			return _left;
+		}
+
+		public Record next() {
+			if (_left <= 0) {
+				throw new NoSuchElementException();
+			}
+
+			try {
+				if (_in == null) {
+					if (_segments == null) {
+						_segments = new SegmentsInputStream();
+						_decoder = new UriRun.Decoder();
+					}
+					_in = new BufferedInputStream(_segments, _bufsize);
+				}
+
+				Record r = read(_in, _decoder);
+
+				if (--_left == 0) {
+					_segments = null;
+					_in = null;
+					_decoder = null;
+				}
+
+				return r;
+			} catch (IOException e) {
+				_left = 0;
+				_segments = null;
+				_in = null;
+				_decoder = null;
+				throw new IllegalStateException(e);
+			}
+		}
+
+		/**
+		 * Drop the read buffer. The bytes read ahead are read again once the
+		 * next record is read, with a new buffer.
+		 */
+		void release() {
+			if (_in == null) {
+				return;
+			}
+
+			try {
+				_segments.unread(_in.available());
+			} catch (IOException e) {
+				_left = 0;
+				_segments = null;
+				_decoder = null;
+				throw new IllegalStateException(e);
+			} finally {
+				_in = null;
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Reads the payloads of the segments one after another.
+		 */
+		class SegmentsInputStream extends InputStream {
+			int _seg = -1;
+			long _pos = 0;
+			long _end = 0;
+
+			public int read() throws IOException {
+				byte[] b = new byte[1];
+				return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			public int read(byte[] b, int off, int len) throws IOException {
+				while (_pos >= _end) {
+					if (++_seg >= _offsets.length) {
+						return -1;
+					}
+					_pos = _offsets[_seg];
+					_end = _pos + _lengths[_seg];
+				}
+
+				len = (int) Math.min(len, _end - _pos);
+				int read = _spill._channel.read(ByteBuffer.wrap(b, off, len), _pos);
+				if (read < 0) {
+					throw new EOFException(_spill._file + " at " + _pos);
+				}
+				_pos += read;
+
+				return read;
+			}
+
+			/**
+			 * Step back n bytes, across segments if need be.
+			 */
+			void unread(long n) {
+				while (n > 0 && n > _pos - _offsets[_seg]) {
+					n -= _pos - _offsets[_seg];
+					--_seg;
+					_end = _offsets[_seg] + _lengths[_seg];
+					_pos = _end;
+				}
+				_pos -= n;
+			}
+		}
+	}
+
+	/**
+	 * Sort the records of each PLD with the most frequent URIs first, and
+	 * write them to another spill file. The PLDs are sorted in parallel,
+	 * largest first. PLDs with more records than fit in memory are sorted in
+	 * runs, which are merged afterwards.
+	 *
+	 * @param out
+	 *            the spill file to write the sorted records to
+	 * @param scratch
+	 *            spill file for the runs of large PLDs
+	 * @param threads
+	 *            number of PLDs to sort at the same time
+	 * @param batch
+	 *            maximum number of records a thread sorts in memory
+	 */
+	void sortInto(final SpillFile out, final SpillFile scratch, int threads, final int batch) throws IOException {
+		flush();
+
+		List<String> plds = new ArrayList<String>(plds());
+		Collections.sort(plds, new Comparator<String>() {
+			public int compare(String p0, String p1) {
+				int c0 = count(p0), c1 = count(p1);
+				return c0 > c1 ? -1 : c0 < c1 ? 1 : 0;
+			}
+		});
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(plds.size());
+
+			for (final String pld : plds) {
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						sort(pld, out, scratch, batch);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof IOException) {
+						throw (IOException) e.getCause();
+					}
+					throw new IOException(e.getCause().toString());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("interrupted while sorting");
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	void sort(String pld, SpillFile out, SpillFile scratch, int batch) throws IOException {
+		Cursor c = cursor(pld, 64 * 1024);
+
+		List<Record> li = new ArrayList<Record>(Math.min(batch, c.left()));
+		List<String> runs = new ArrayList<String>();
+
+		while (c.hasNext()) {
+			li.add(c.next());
+
+			if (li.size() >= batch && c.hasNext()) {
+				String run = pld + " " + runs.size();
+				Collections.sort(li, BY_COUNT);
+				scratch.append(run, li.iterator());
+				runs.add(run);
+				li.clear();
+			}
+		}
+
+		Collections.sort(li, BY_COUNT);
+
+		if (runs.isEmpty()) {
+			out.append(pld, li.iterator());
+			return;
+		}
+
+		// merge the runs and the rest in memory
+		List<Iterator<Record>> its = new ArrayList<Iterator<Record>>(runs.size() + 1);
+		for (String run : runs) {
+			its.add(scratch.cursor(run, Math.max(1024, 1024 * 1024 / runs.size())));
+		}
+		its.add(li.iterator());
+
+		out.append(pld, new Merger(its));
+	}
+
+	/**
+	 * Most frequent first, then by URI.
+	 */
+	static final Comparator<Record> BY_COUNT = new Comparator<Record>() {
+		public int compare(Record r0, Record r1) {
+			if (r0._count != r1._count) {
+				return r0._count > r1._count ? -1 : 1;
+			}
+			return r0._uri.compareTo(r1._uri);
+		}
+	};
+
+	/**
+	 * Merges sorted iterators.
+	 */
+	static class Merger implements Iterator<Record> {
+		final PriorityQueue<Head> _heads;
+
+		Merger(List<Iterator<Record>> its) {
+			_heads = new PriorityQueue<Head>(Math.max(1, its.size()));
+			for (Iterator<Record> it : its) {
+				if (it.hasNext()) {
+					_heads.add(new Head(it));
+				}
+			}
+		}
+
+		public boolean hasNext() {
+			return !_heads.isEmpty();
+		}
+
+		public Record next() {
+			Head h = _heads.poll();
+			if (h == null) {
+				throw new NoSuchElementException();
+			}
+
+			Record r = h._record;
+			if (h._it.hasNext()) {
+				h._record = h._it.next();
+				_heads.add(h);
+			}
+			return r;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		static class Head implements Comparable<Head> {
+			final Iterator<Record> _it;
+			Record _record;
+
+			Head(Iterator<Record> it) {
+				_it = it;
+				_record = it.next();
+			}
+
+			public int compareTo(Head h) {
+				return BY_COUNT.compare(_record, h._record);
+			}
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter over 64-bit hashes, e.g. {@link FingerprintSeen#fingerprint}.
+ * The bit positions are derived from the hash by double hashing. Bits are set
+ * atomically, so the filter can be added to and probed by several threads at
+ * once.
+ */
+public class BloomFilter implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	final AtomicLongArray _words;
+	final long _bits;
+	final int _k;
+
+	/**
+	 * @param expected
+	 *            the number of hashes the filter is sized for
+	 * @param fpp
+	 *            the false positive probability once the filter holds that
+	 *            many hashes
+	 */
+	public BloomFilter(long expected, double fpp) {
+		expected = Math.max(1, expected);
+
+		long bits = (long) Math.ceil(-expected * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+		bits = Math.max(64, Math.min(bits, 64L * Integer.MAX_VALUE));
+
+		_words = new AtomicLongArray((int) ((bits + 63) / 64));
+		_bits = 64L * _words.length();
+		_k = Math.max(1, (int) Math.round((double) _bits / expected * Math.log(2)));
+	}
+
+	/**
+	 * @return true if the hash has not been added before, i.e. at least one
+	 *         of its bits was not set yet
+	 */
+	public boolean add(long hash) {
+		long h2 = step(hash);
+
+		boolean added = false;
+		for (int i = 1; i <= _k; i++) {
+			long bit = index(hash + i * h2);
+			int w = (int) (bit >>> 6);
+			long mask = 1L << bit;
+
+			long old;
+			while (((old = _words.get(w)) & mask) == 0) {
+				if (_words.compareAndSet(w, old, old | mask)) {
+					added = true;
+					break;
+				}
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * @return false if the hash has certainly not been added
+	 */
+	public boolean mightContain(long hash) {
+		long h2 = step(hash);
+
+		for (int i = 1; i <= _k; i++) {
+			long bit = index(hash + i * h2);
+			if ((_words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The second hash of double hashing, from the halves of the hash swapped
+	 * and mixed; odd, so it never degenerates to 0.
+	 */
+	static long step(long hash) {
+		return (Long.rotateLeft(hash, 32) * 0x9e3779b97f4a7c15L) | 1;
+	}
+
+	long index(long combined) {
+		return (combined & Long.MAX_VALUE) % _bits;
+	}
+
+	/**
+	 * @return the number of bits, i.e. an eighth of the bytes taken
+	 */
+	public long getBits() {
+		return _bits;
+	}
+
+	/**
+	 * @return the number of bits per hash
+	 */
+	public int getHashes() {
+		return _k;
+	}
+}
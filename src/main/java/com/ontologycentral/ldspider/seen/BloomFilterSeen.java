@@ -0,0 +1,186 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Seen} implementation that puts a {@link ScalableBloomFilter} in
+ * front of a wrapped {@link Seen} implementation. Most URIs looked up have
+ * not been seen, and the filter answers those without asking the wrapped
+ * {@link Seen}, which pays off if that is on disk or otherwise slow. Only
+ * URIs the filter may have seen are looked up in the wrapped {@link Seen}.
+ *
+ * URIs the wrapped {@link Seen} holds already are added to the filter when
+ * wrapping it, so it has to be empty if it cannot be iterated. URIs must not
+ * be added to the wrapped {@link Seen} other than through this one.
+ */
+public class BloomFilterSeen implements Seen, Iterable<URI> {
+	private static final Logger _log = Logger.getLogger(BloomFilterSeen.class.getName());
+
+	Seen _seen;
+	ScalableBloomFilter _filter;
+
+	/**
+	 * Lookups answered by the filter alone, lookups found in the wrapped
+	 * {@link Seen}, and lookups the filter passed on in vain.
+	 */
+	final AtomicLong _negatives;
+	final AtomicLong _hits;
+	final AtomicLong _falsePositives;
+
+	public BloomFilterSeen(Seen seen) {
+		this(seen, 1000000, 0.01);
+	}
+
+	/**
+	 * @param seen
+	 *            the wrapped {@link Seen}
+	 * @param initial
+	 *            the number of URIs the filter is sized for at first
+	 * @param fpp
+	 *            the false positive probability of the filter
+	 * @throws IllegalArgumentException
+	 *             if the wrapped {@link Seen} holds URIs, but cannot be
+	 *             iterated to add them to the filter
+	 */
+	@SuppressWarnings("unchecked")
+	public BloomFilterSeen(Seen seen, long initial, double fpp) {
+		_seen = seen;
+		_filter = new ScalableBloomFilter(initial, fpp);
+
+		_negatives = new AtomicLong(0);
+		_hits = new AtomicLong(0);
+		_falsePositives = new AtomicLong(0);
+
+		long time = System.currentTimeMillis();
+		long n = 0;
+		boolean iterated = false;
+
+		if (seen instanceof Iterable) {
+			try {
+				for (URI u : (Iterable<URI>) seen) {
+					_filter.add(FingerprintSeen.fingerprint(u));
+					n++;
+				}
+				iterated = true;
+			} catch (UnsupportedOperationException e) {
+				_log.fine(e.getMessage());
+			}
+		}
+
+		if (iterated) {
+			if (n > 0) {
+				_log.info("added " + n + " URIs seen before to the filter in " + (System.currentTimeMillis() - time) + " ms");
+			}
+		} else {
+			// the filter would deny having seen the uris held already
+			long size = size(seen);
+			if (size > 0 || n > 0) {
+				throw new IllegalArgumentException(seen.getClass().getSimpleName() + " holds URIs, but cannot be iterated to add them to the filter");
+			} else if (size < 0) {
+				_log.warning(seen.getClass().getSimpleName() + " cannot be iterated, URIs it holds already are not taken as seen");
+			}
+		}
+	}
+
+	/**
+	 * @return the number of URIs the {@link Seen} holds if known without
+	 *         iterating, at least 1 if it is known not to be empty, -1 if it
+	 *         is not known
+	 */
+	static long size(Seen seen) {
+		if (seen instanceof FingerprintSeen) {
+			return ((FingerprintSeen) seen).size();
+		} else if (seen instanceof SnapshotSeen) {
+			SnapshotSeen ss = (SnapshotSeen) seen;
+			return ss.size() > 0 ? ss.size() : size(ss.getSeen());
+		} else if (seen instanceof WrappingCallbackSeen) {
+			return size(((WrappingCallbackSeen) seen)._seen);
+		} else if (seen instanceof BloomFilterSeen) {
+			return size(((BloomFilterSeen) seen)._seen);
+		}
+		return -1;
+	}
+
+	public boolean hasBeenSeen(URI u) {
+		if (!_filter.mightContain(FingerprintSeen.fingerprint(u))) {
+			_negatives.incrementAndGet();
+			return false;
+		}
+
+		if (_seen.hasBeenSeen(u)) {
+			_hits.incrementAndGet();
+			return true;
+		}
+
+		_falsePositives.incrementAndGet();
+		return false;
+	}
+
+	public boolean add(Collection<URI> uris) {
+		boolean ret = true;
+		for (URI u : uris) {
+			ret = add(u) && ret;
+		}
+		return ret;
+	}
+
+	public boolean add(URI uri) {
+		// into the filter first, such that a lookup never misses a uri that
+		// is in the wrapped seen
+		_filter.add(FingerprintSeen.fingerprint(uri));
+		return _seen.add(uri);
+	}
+
+	/**
+	 * @return the number of lookups the filter answered alone
+	 */
+	public long getNegatives() {
+		return _negatives.get();
+	}
+
+	/**
+	 * @return the number of lookups of URIs seen
+	 */
+	public long getHits() {
+		return _hits.get();
+	}
+
+	/**
+	 * @return the number of lookups the filter passed on to the wrapped
+	 *         {@link Seen} for URIs not seen
+	 */
+	public long getFalsePositives() {
+		return _falsePositives.get();
+	}
+
+	/**
+	 * @return the wrapped {@link Seen}
+	 */
+	public Seen getSeen() {
+		return _seen;
+	}
+
+	/**
+	 * Iterates over the URIs of the wrapped {@link Seen}.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             if the wrapped {@link Seen} cannot be iterated
+	 */
+	@SuppressWarnings("unchecked")
+	public Iterator<URI> iterator() {
+		if (!(_seen instanceof Iterable))
+			throw new UnsupportedOperationException(_seen.getClass().getSimpleName() + " cannot be iterated");
+		return ((Iterable<URI>) _seen).iterator();
+	}
+
+	public String toString() {
+		long negatives = _negatives.get(), falsePositives = _falsePositives.get();
+		return negatives + " lookups answered by the filter, " + _hits.get() + " hits, " + falsePositives + " false positives ("
+				+ (negatives + falsePositives == 0 ? 0 : (double) falsePositives / (negatives + falsePositives)) + " of the URIs not seen); "
+				+ _filter.getFilters() + " filters with " + (_filter.getBits() >> 23) + " MB";
+	}
+}
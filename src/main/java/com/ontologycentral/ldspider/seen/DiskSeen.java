@@ -0,0 +1,886 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Logger;
+
+import com.ontologycentral.ldspider.frontier.UriRun;
+
+/**
+ * A {@link Seen} implementation for crawls larger than the memory, in the
+ * manner of a log-structured merge tree. URIs go to a buffer in memory; a
+ * full buffer is sorted and written to an immutable run file in the
+ * background, while a new buffer fills up. Each run keeps a Bloom filter and
+ * the first URI of each block of {@link #BLOCK} URIs in memory, so that
+ * looking up a URI reads at most one block from each run whose Bloom filter
+ * does not rule it out, which is one block in the common case. Runs are
+ * merged on another thread once there are {@link #FANOUT} of the same level,
+ * so full buffers keep being written while runs are merged.
+ *
+ * Per billion URIs, the Bloom filters take about 1.2 GB and the block index
+ * about 1 GB of memory. The runs are kept in a directory and read again when
+ * the directory is opened later; the buffer is written to a run on
+ * {@link #close()}.
+ *
+ * Within a run, the URIs are sorted as strings and stored as UTF-8, each as
+ * the length of the prefix it shares with the previous URI of its block plus
+ * the rest; lengths are varints. The number of URIs ends the file.
+ */
+public class DiskSeen implements Seen, Iterable<URI>, Closeable {
+	private static final Logger _log = Logger.getLogger(DiskSeen.class.getName());
+
+	static final byte[] MAGIC = { 'L', 'D', 'S', 'R', 1 };
+
+	/**
+	 * URIs per block, i.e. read from disk per lookup.
+	 */
+	static final int BLOCK = 128;
+
+	/**
+	 * Number of runs of one level that are merged into a run of the next.
+	 */
+	static final int FANOUT = 4;
+
+	/**
+	 * False positive probability of the Bloom filter of a run.
+	 */
+	static final double FPP = 0.01;
+
+	final File _dir;
+	final int _buffer;
+
+	/**
+	 * Guards the buffers, the runs and the generation.
+	 */
+	final Object _lock;
+
+	/**
+	 * The URIs added to the buffer, and the full buffer being written.
+	 */
+	Set<String> _memtable;
+	Set<String> _flushing;
+
+	/**
+	 * The runs. Probing takes the read lock, closing runs once they are merged
+	 * takes the write lock.
+	 */
+	volatile List<Run> _runs;
+	final ReentrantReadWriteLock _rw;
+
+	/**
+	 * Counts the buffers written to runs.
+	 */
+	volatile int _generation;
+
+	int _seq;
+	IOException _error;
+	boolean _closed;
+
+	final Thread _writer;
+	final Thread _merger;
+
+	/**
+	 * @param dir
+	 *            the directory for the runs, created if needed
+	 */
+	public DiskSeen(File dir) throws IOException {
+		this(dir, 1000000);
+	}
+
+	/**
+	 * @param dir
+	 *            the directory for the runs, created if needed
+	 * @param buffer
+	 *            the number of URIs held in memory before they are written
+	 */
+	public DiskSeen(File dir, int buffer) throws IOException {
+		_dir = dir;
+		_buffer = Math.max(1, buffer);
+		_lock = new Object();
+		_rw = new ReentrantReadWriteLock();
+
+		if (!_dir.isDirectory() && !_dir.mkdirs()) {
+			throw new IOException("cannot create " + _dir);
+		}
+
+		List<Run> runs = new ArrayList<Run>();
+		for (File f : _dir.listFiles()) {
+			String name = f.getName();
+			if (name.startsWith("run-") && name.endsWith(".run")) {
+				String[] parts = name.substring(4, name.length() - 4).split("-");
+				Run r = Run.open(f, Integer.parseInt(parts[0]));
+				runs.add(r);
+				_seq = Math.max(_seq, Integer.parseInt(parts[1]) + 1);
+			} else if (name.endsWith(".run.tmp")) {
+				// incomplete, the URIs are still in another run
+				f.delete();
+			}
+		}
+		_runs = runs;
+
+		_memtable = new HashSet<String>();
+
+		_writer = new Writer();
+		_writer.setDaemon(true);
+		_writer.start();
+
+		_merger = new Merger();
+		_merger.setDaemon(true);
+		_merger.start();
+
+		_log.info("opened " + runs.size() + " runs with " + size() + " URIs in " + _dir);
+	}
+
+	public boolean hasBeenSeen(URI u) {
+		String s = u.toString();
+
+		synchronized (_lock) {
+			if (_memtable.contains(s) || (_flushing != null && _flushing.contains(s))) {
+				return true;
+			}
+		}
+
+		// runs only ever take over URIs from the buffers, so looking at the
+		// buffers first misses nothing
+		return onDisk(s);
+	}
+
+	public boolean add(Collection<URI> uris) {
+		boolean ret = true;
+		for (URI u : uris) {
+			ret = add(u) && ret;
+		}
+		return ret;
+	}
+
+	public boolean add(URI uri) {
+		String s = uri.toString();
+
+		while (true) {
+			int generation = _generation;
+
+			if (onDisk(s)) {
+				return false;
+			}
+
+			synchronized (_lock) {
+				// a buffer became a run since, which may hold the uri
+				if (generation != _generation) {
+					continue;
+				}
+
+				if ((_flushing != null && _flushing.contains(s)) || !_memtable.add(s)) {
+					return false;
+				}
+
+				if (_memtable.size() >= _buffer) {
+					flush();
+				}
+
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Hand the buffer over to the writer, waiting for the previous one to be
+	 * written first. Called holding {@link #_lock}.
+	 */
+	void flush() {
+		while (_flushing != null && _error == null) {
+			try {
+				_lock.wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		if (_error != null) {
+			throw new RuntimeException("cannot write seen to " + _dir, _error);
+		}
+
+		if (!_memtable.isEmpty()) {
+			_flushing = _memtable;
+			_memtable = new HashSet<String>();
+			_lock.notifyAll();
+		}
+	}
+
+	boolean onDisk(String s) {
+		long fp = FingerprintSeen.fingerprint(s);
+
+		_rw.readLock().lock();
+		try {
+			for (Run r : _runs) {
+				if (r.contains(s, fp)) {
+					return true;
+				}
+			}
+			return false;
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read seen from " + _dir, e);
+		} finally {
+			_rw.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of URIs seen
+	 */
+	public long size() {
+		long size = 0;
+		synchronized (_lock) {
+			size += _memtable.size();
+			if (_flushing != null) {
+				size += _flushing.size();
+			}
+		}
+		for (Run r : _runs) {
+			size += r._count;
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of runs
+	 */
+	public int getRuns() {
+		return _runs.size();
+	}
+
+	/**
+	 * Iterates over the URIs seen at the time of the call, e.g. while writing
+	 * a checkpoint. The buffers are copied, the runs read from disk.
+	 */
+	public Iterator<URI> iterator() {
+		final List<Iterator<String>> its = new ArrayList<Iterator<String>>();
+
+		_rw.readLock().lock();
+		try {
+			List<Run> runs;
+			synchronized (_lock) {
+				its.add(new ArrayList<String>(_memtable).iterator());
+				if (_flushing != null) {
+					its.add(new ArrayList<String>(_flushing).iterator());
+				}
+				runs = _runs;
+			}
+			// the files stay readable once open, even if merged meanwhile
+			for (Run r : runs) {
+				its.add(r.iterator());
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("cannot read seen from " + _dir, e);
+		} finally {
+			_rw.readLock().unlock();
+		}
+
+		return new Iterator<URI>() {
+			int _i = 0;
+			URI _next = advance();
+
+			URI advance() {
+				while (_i < its.size()) {
+					Iterator<String> it = its.get(_i);
+					while (it.hasNext()) {
+						String s = it.next();
+						try {
+							return new URI(s);
+						} catch (URISyntaxException e) {
+							_log.info("dropping " + s + " from seen: " + e.getMessage());
+						}
+					}
+					_i++;
+				}
+				return null;
+			}
+
+			public boolean hasNext() {
+				return _next != null;
+			}
+
+			public URI next() {
+				if (_next == null) {
+					throw new NoSuchElementException();
+				}
+				URI u = _next;
+				_next = advance();
+				return u;
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Write the buffer to a run and stop merging. Lookups still work
+	 * afterwards, but adding does not.
+	 */
+	public void close() throws IOException {
+		synchronized (_lock) {
+			if (_closed) {
+				return;
+			}
+			if (_error == null) {
+				flush();
+			}
+			while (_flushing != null && _error == null) {
+				try {
+					_lock.wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			_closed = true;
+			_lock.notifyAll();
+		}
+
+		try {
+			_writer.join();
+			_merger.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (_error != null) {
+			throw _error;
+		}
+
+		_log.info(size() + " URIs in " + _runs.size() + " runs in " + _dir);
+	}
+
+	/**
+	 * The levels with at least {@link #FANOUT} runs, lowest first, or -1.
+	 */
+	int compactable() {
+		int[] levels = new int[64];
+		for (Run r : _runs) {
+			if (r._level < levels.length && ++levels[r._level] >= FANOUT) {
+				return r._level;
+			}
+		}
+		return -1;
+	}
+
+	File newFile(int level) {
+		synchronized (_lock) {
+			return new File(_dir, "run-" + level + "-" + (_seq++) + ".run");
+		}
+	}
+
+	void failed(IOException e) {
+		_log.severe("cannot write seen to " + _dir + ": " + e.getMessage());
+		synchronized (_lock) {
+			_error = e;
+			_lock.notifyAll();
+		}
+	}
+
+	/**
+	 * Writes full buffers to level 0 runs.
+	 */
+	class Writer extends Thread {
+		Writer() {
+			super("DiskSeen-" + _dir.getName());
+		}
+
+		public void run() {
+			while (true) {
+				Set<String> flushing;
+
+				synchronized (_lock) {
+					while (!_closed && (_error != null || _flushing == null)) {
+						try {
+							_lock.wait();
+						} catch (InterruptedException e) {
+							;
+						}
+					}
+					if (_closed) {
+						return;
+					}
+					flushing = _flushing;
+				}
+
+				try {
+					write(flushing);
+				} catch (IOException e) {
+					failed(e);
+				}
+			}
+		}
+
+		void write(Set<String> flushing) throws IOException {
+			long time = System.currentTimeMillis();
+
+			String[] sorted = flushing.toArray(new String[flushing.size()]);
+			Arrays.sort(sorted);
+
+			Run.Builder b = new Run.Builder(newFile(0), 0, sorted.length);
+			for (String s : sorted) {
+				b.add(s);
+			}
+			Run r = b.finish();
+
+			synchronized (_lock) {
+				List<Run> runs = new ArrayList<Run>(_runs);
+				runs.add(r);
+				_runs = runs;
+				_flushing = null;
+				_generation++;
+				_lock.notifyAll();
+			}
+
+			_log.fine("wrote " + sorted.length + " seen URIs to " + r._file + " in " + (System.currentTimeMillis() - time) + " ms");
+		}
+	}
+
+	/**
+	 * Merges the runs of a level once there are {@link #FANOUT} of them, one
+	 * merge at a time.
+	 */
+	class Merger extends Thread {
+		Merger() {
+			super("DiskSeen-merge-" + _dir.getName());
+		}
+
+		public void run() {
+			while (true) {
+				int level = -1;
+
+				synchronized (_lock) {
+					while (!_closed && (_error != null || (level = compactable()) < 0)) {
+						try {
+							_lock.wait();
+						} catch (InterruptedException e) {
+							;
+						}
+					}
+					if (_closed) {
+						return;
+					}
+				}
+
+				try {
+					merge(level);
+				} catch (IOException e) {
+					failed(e);
+				}
+			}
+		}
+
+		void merge(int level) throws IOException {
+			long time = System.currentTimeMillis();
+
+			// level 0 runs written meanwhile come after the ones taken here
+			List<Run> merged = new ArrayList<Run>();
+			long count = 0;
+			for (Run r : _runs) {
+				if (r._level == level && merged.size() < FANOUT) {
+					merged.add(r);
+					count += r._count;
+				}
+			}
+
+			List<Iterator<String>> its = new ArrayList<Iterator<String>>();
+			for (Run r : merged) {
+				its.add(r.iterator());
+			}
+
+			Run.Builder b = new Run.Builder(newFile(level + 1), level + 1, count);
+
+			// the runs are small in number, so a linear scan finds the least
+			String[] heads = new String[its.size()];
+			for (int i = 0; i < heads.length; i++) {
+				heads[i] = its.get(i).hasNext() ? its.get(i).next() : null;
+			}
+			String last = null;
+			while (true) {
+				int min = -1;
+				for (int i = 0; i < heads.length; i++) {
+					if (heads[i] != null && (min < 0 || heads[i].compareTo(heads[min]) < 0)) {
+						min = i;
+					}
+				}
+				if (min < 0) {
+					break;
+				}
+				if (last == null || !last.equals(heads[min])) {
+					b.add(heads[min]);
+					last = heads[min];
+				}
+				heads[min] = its.get(min).hasNext() ? its.get(min).next() : null;
+			}
+
+			Run r = b.finish();
+
+			_rw.writeLock().lock();
+			try {
+				synchronized (_lock) {
+					List<Run> runs = new ArrayList<Run>(_runs);
+					runs.removeAll(merged);
+					runs.add(r);
+					_runs = runs;
+				}
+			} finally {
+				_rw.writeLock().unlock();
+			}
+
+			for (Run m : merged) {
+				m.close();
+				m._file.delete();
+			}
+
+			_log.info("merged " + merged.size() + " runs of level " + level + " into " + r._file + " with " + r._count + " URIs in "
+					+ (System.currentTimeMillis() - time) + " ms");
+		}
+	}
+
+	/**
+	 * A sorted run of URIs on disk, with its Bloom filter and the first URI
+	 * and offset of each block in memory.
+	 */
+	static class Run {
+		final File _file;
+		final int _level;
+
+		long _count;
+		BloomFilter _bloom;
+		String[] _keys;
+		long[] _offsets;
+		int _blocks;
+
+		/**
+		 * End of the URIs, i.e. where the count starts.
+		 */
+		long _end;
+
+		RandomAccessFile _raf;
+		FileChannel _ch;
+
+		Run(File file, int level) {
+			_file = file;
+			_level = level;
+		}
+
+		/**
+		 * Open a run written earlier, and build its filter and index.
+		 */
+		static Run open(File f, int level) throws IOException {
+			Run r = new Run(f, level);
+
+			RandomAccessFile raf = new RandomAccessFile(f, "r");
+			try {
+				if (raf.length() < MAGIC.length + 8) {
+					throw new IOException(f + " is not a run");
+				}
+				raf.seek(raf.length() - 8);
+				r._count = raf.readLong();
+			} finally {
+				raf.close();
+			}
+
+			r._end = f.length() - 8;
+			r._bloom = new BloomFilter(r._count, FPP);
+			r._keys = new String[(int) (r._count / BLOCK) + 1];
+			r._offsets = new long[r._keys.length];
+
+			Decoder d = new Decoder(new BufferedInputStream(new FileInputStream(f), 64 * 1024));
+			try {
+				d.magic(f);
+				long offset = MAGIC.length;
+				for (long i = 0; i < r._count; i++) {
+					String s = d.next();
+					if (i % BLOCK == 0) {
+						r._keys[r._blocks] = s;
+						r._offsets[r._blocks] = offset;
+						r._blocks++;
+					}
+					r._bloom.add(FingerprintSeen.fingerprint(s));
+					offset = MAGIC.length + d._read;
+				}
+			} finally {
+				d.close();
+			}
+
+			r.map();
+			return r;
+		}
+
+		void map() throws IOException {
+			_raf = new RandomAccessFile(_file, "r");
+			_ch = _raf.getChannel();
+		}
+
+		boolean contains(String s, long fp) throws IOException {
+			if (_blocks == 0 || !_bloom.mightContain(fp)) {
+				return false;
+			}
+
+			// the last block starting at or before s
+			int lo = 0, hi = _blocks - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (_keys[mid].compareTo(s) <= 0) {
+					lo = mid;
+				} else {
+					hi = mid - 1;
+				}
+			}
+			int c = _keys[lo].compareTo(s);
+			if (c == 0) {
+				return true;
+			} else if (c > 0) {
+				return false;
+			}
+
+			long from = _offsets[lo];
+			long to = lo + 1 < _blocks ? _offsets[lo + 1] : _end;
+
+			ByteBuffer buf = ByteBuffer.allocate((int) (to - from));
+			while (buf.hasRemaining()) {
+				if (_ch.read(buf, from + buf.position()) < 0) {
+					throw new EOFException();
+				}
+			}
+
+			Decoder d = new Decoder(new ByteArrayInputStream(buf.array()));
+			long n = Math.min(BLOCK, _count - (long) lo * BLOCK);
+			for (long i = 0; i < n; i++) {
+				c = d.next().compareTo(s);
+				if (c == 0) {
+					return true;
+				} else if (c > 0) {
+					return false;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Reads the URIs of the run from a stream of its own.
+		 */
+		Iterator<String> iterator() throws IOException {
+			final Decoder d = new Decoder(new BufferedInputStream(new FileInputStream(_file), 64 * 1024));
+			d.magic(_file);
+
+			return new Iterator<String>() {
+				long _i = 0;
+
+				public boolean hasNext() {
+					if (_i < _count) {
+						return true;
+					}
+					try {
+						d.close();
+					} catch (IOException e) {
+						;
+					}
+					return false;
+				}
+
+				public String next() {
+					if (_i >= _count) {
+						throw new NoSuchElementException();
+					}
+					_i++;
+					try {
+						return d.next();
+					} catch (IOException e) {
+						throw new RuntimeException("cannot read " + _file, e);
+					}
+				}
+
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		void close() throws IOException {
+			if (_raf != null) {
+				_raf.close();
+			}
+		}
+
+		/**
+		 * Writes a run to a temporary file, which becomes the run once it is
+		 * complete.
+		 */
+		static class Builder {
+			final Run _run;
+			final File _tmp;
+			final OutputStream _os;
+
+			long _written;
+			byte[] _prev;
+			int _prevlen;
+			List<String> _keys;
+			long[] _offsets;
+
+			Builder(File f, int level, long expected) throws IOException {
+				_run = new Run(f, level);
+				_run._bloom = new BloomFilter(expected, FPP);
+				_tmp = new File(f.getPath() + ".tmp");
+				_os = new BufferedOutputStream(new FileOutputStream(_tmp), 64 * 1024);
+				_os.write(MAGIC);
+				_written = MAGIC.length;
+				_prev = new byte[256];
+				_keys = new ArrayList<String>();
+				_offsets = new long[16];
+			}
+
+			void add(String s) throws IOException {
+				byte[] key = s.getBytes("UTF-8");
+
+				int shared = 0;
+				if (_run._count % BLOCK == 0) {
+					if (_keys.size() == _offsets.length) {
+						_offsets = Arrays.copyOf(_offsets, _offsets.length * 2);
+					}
+					_offsets[_keys.size()] = _written;
+					_keys.add(s);
+				} else {
+					int max = Math.min(key.length, _prevlen);
+					while (shared < max && key[shared] == _prev[shared]) {
+						shared++;
+					}
+				}
+
+				UriRun.writeVarint(_os, shared);
+				UriRun.writeVarint(_os, key.length - shared);
+				_written += UriRun.varintLength(shared) + UriRun.varintLength(key.length - shared);
+				_os.write(key, shared, key.length - shared);
+				_written += key.length - shared;
+
+				if (_prev.length < key.length) {
+					_prev = new byte[Math.max(key.length, _prev.length * 2)];
+				}
+				System.arraycopy(key, 0, _prev, 0, key.length);
+				_prevlen = key.length;
+
+				_run._bloom.add(FingerprintSeen.fingerprint(s));
+				_run._count++;
+			}
+
+			Run finish() throws IOException {
+				boolean done = false;
+				try {
+					DataOutputStream dos = new DataOutputStream(_os);
+					dos.writeLong(_run._count);
+					dos.close();
+					done = true;
+				} finally {
+					if (!done) {
+						_os.close();
+						_tmp.delete();
+					}
+				}
+
+				if (!_tmp.renameTo(_run._file)) {
+					throw new IOException("cannot rename " + _tmp + " to " + _run._file);
+				}
+
+				_run._end = _written;
+				_run._blocks = _keys.size();
+				_run._keys = _keys.toArray(new String[_keys.size()]);
+				_run._offsets = _offsets;
+				_run.map();
+
+				return _run;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the URIs of a run one after another.
+	 */
+	static class Decoder {
+		final InputStream _is;
+		byte[] _key;
+		int _len;
+
+		/**
+		 * Bytes read after the magic.
+		 */
+		long _read;
+
+		Decoder(InputStream is) {
+			_is = is;
+			_key = new byte[256];
+		}
+
+		void magic(File f) throws IOException {
+			for (int i = 0; i < MAGIC.length; i++) {
+				if (_is.read() != MAGIC[i]) {
+					close();
+					throw new IOException(f + " is not a run");
+				}
+			}
+		}
+
+		String next() throws IOException {
+			int shared = readVarint();
+			int rest = readVarint();
+
+			int len = shared + rest;
+			if (_key.length < len) {
+				_key = Arrays.copyOf(_key, Math.max(len, _key.length * 2));
+			}
+
+			int read = shared;
+			while (read < len) {
+				int r = _is.read(_key, read, len - read);
+				if (r < 0) {
+					throw new EOFException();
+				}
+				read += r;
+			}
+			_read += rest;
+			_len = len;
+
+			return new String(_key, 0, _len, "UTF-8");
+		}
+
+		int readVarint() throws IOException {
+			int i = UriRun.readVarint(_is);
+			if (i < 0) {
+				throw new EOFException();
+			}
+			_read += UriRun.varintLength(i);
+			return i;
+		}
+
+		void close() throws IOException {
+			_is.close();
+		}
+	}
+}
@@ -0,0 +1,255 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Seen} implementation that keeps 64-bit fingerprints of the URIs
+ * instead of the URIs, in open-addressing hash tables outside the Java heap,
+ * i.e. 8 bytes per slot and no objects for the garbage collector to trace.
+ * Sized for 100M URIs, the tables take 1 GB of direct memory; mind
+ * -XX:MaxDirectMemorySize.
+ *
+ * The fingerprints are spread over stripes by their top bits. Each stripe is
+ * a table of its own with its own lock, which doubles in size once it is
+ * filled to {@link #LOAD}.
+ *
+ * Two distinct URIs may share a fingerprint, in which case the second is
+ * considered seen without having been looked up. With n URIs seen, that
+ * happens to a new URI with probability n/2^64, see
+ * {@link #getFalsePositiveProbability()}. As there are only fingerprints, the
+ * URIs cannot be iterated, e.g. for a checkpoint.
+ */
+public class FingerprintSeen implements Seen {
+	private static final Logger _log = Logger.getLogger(FingerprintSeen.class.getName());
+
+	/**
+	 * Fill factor at which a stripe grows.
+	 */
+	static final double LOAD = 0.75;
+
+	/**
+	 * Marks a free slot, fingerprints that are 0 are stored as 1.
+	 */
+	static final long FREE = 0;
+
+	/**
+	 * Largest number of slots per stripe, as a direct buffer holds at most
+	 * 2^31-1 bytes.
+	 */
+	static final int MAX_SLOTS = 1 << 27;
+
+	final Stripe[] _stripes;
+	final int _shift;
+
+	public FingerprintSeen() {
+		this(1 << 20);
+	}
+
+	/**
+	 * @param expected
+	 *            the number of URIs expected, such that the tables need not
+	 *            grow up to then
+	 */
+	public FingerprintSeen(long expected) {
+		this(expected, 64);
+	}
+
+	/**
+	 * @param expected
+	 *            the number of URIs expected
+	 * @param stripes
+	 *            the number of stripes, rounded up to a power of two
+	 */
+	public FingerprintSeen(long expected, int stripes) {
+		int bits = 0;
+		while ((1 << bits) < stripes) {
+			bits++;
+		}
+
+		_stripes = new Stripe[1 << bits];
+		_shift = 64 - bits;
+
+		int slots = (int) Math.min(MAX_SLOTS, Math.max(16, (long) (Math.max(expected, 1) / LOAD / _stripes.length) + 1));
+
+		for (int i = 0; i < _stripes.length; i++) {
+			_stripes[i] = new Stripe(slots);
+		}
+
+		_log.info("fingerprints of " + expected + " URIs in " + _stripes.length + " stripes of " + slots + " slots, "
+				+ (8L * slots * _stripes.length >> 20) + " MB off the heap");
+	}
+
+	public boolean hasBeenSeen(URI u) {
+		long fp = fingerprint(u);
+		return stripe(fp).contains(fp);
+	}
+
+	public boolean add(Collection<URI> uris) {
+		boolean ret = true;
+		for (URI u : uris) {
+			ret = add(u) && ret;
+		}
+		return ret;
+	}
+
+	public boolean add(URI uri) {
+		long fp = fingerprint(uri);
+		return stripe(fp).add(fp);
+	}
+
+	/**
+	 * @return the number of fingerprints
+	 */
+	public long size() {
+		long size = 0;
+		for (Stripe s : _stripes) {
+			synchronized (s) {
+				size += s._size;
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes of direct memory taken by the tables
+	 */
+	public long getMemory() {
+		long bytes = 0;
+		for (Stripe s : _stripes) {
+			synchronized (s) {
+				bytes += 8L * s._slots.capacity();
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return the probability that a URI not seen yet shares its fingerprint
+	 *         with one that has been seen, i.e. n/2^64
+	 */
+	public double getFalsePositiveProbability() {
+		return size() / 18446744073709551616.0;
+	}
+
+	/**
+	 * @return the probability that any two of the URIs seen share a
+	 *         fingerprint, i.e. about 1-e^(-n^2/2^65)
+	 */
+	public double getCollisionProbability() {
+		double n = size();
+		if (n < 2) {
+			return 0;
+		}
+		return -Math.expm1(-n * (n - 1) / 36893488147419103232.0);
+	}
+
+	public String toString() {
+		return size() + " fingerprints in " + (getMemory() >> 20) + " MB, collision probability " + getCollisionProbability()
+				+ ", false positive probability " + getFalsePositiveProbability() + " per lookup";
+	}
+
+	Stripe stripe(long fp) {
+		return _stripes[_shift == 64 ? 0 : (int) (fp >>> _shift)];
+	}
+
+	static long fingerprint(URI u) {
+		return fingerprint(u.toString());
+	}
+
+	/**
+	 * 64-bit fingerprint of the characters of a string: FNV-1a per char,
+	 * followed by the finaliser of MurmurHash3 to spread the bits. Never 0.
+	 */
+	public static long fingerprint(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+
+		return h == FREE ? 1 : h;
+	}
+
+	/**
+	 * An open-addressing table with linear probing, guarded by itself. The
+	 * number of slots need not be a power of two, so the table is sized to
+	 * the URIs expected rather than up to twice that.
+	 */
+	static class Stripe {
+		LongBuffer _slots;
+		int _n;
+		int _size;
+		int _limit;
+
+		Stripe(int slots) {
+			allocate(slots);
+		}
+
+		void allocate(int slots) {
+			_slots = ByteBuffer.allocateDirect(8 * slots).asLongBuffer();
+			_n = slots;
+			_limit = slots >= MAX_SLOTS ? slots - 1 : (int) (slots * LOAD);
+		}
+
+		/**
+		 * The slot of the fingerprint or the free slot it would go to. The
+		 * low 32 bits scaled to the number of slots pick the start, as the
+		 * top bits pick the stripe.
+		 */
+		int find(long fp) {
+			int i = (int) (((fp & 0xffffffffL) * _n) >>> 32);
+			long v;
+			while ((v = _slots.get(i)) != FREE && v != fp) {
+				if (++i == _n) {
+					i = 0;
+				}
+			}
+			return i;
+		}
+
+		synchronized boolean contains(long fp) {
+			return _slots.get(find(fp)) == fp;
+		}
+
+		synchronized boolean add(long fp) {
+			int i = find(fp);
+			if (_slots.get(i) == fp) {
+				return false;
+			}
+
+			if (_size >= _limit) {
+				if (_n >= MAX_SLOTS) {
+					throw new IllegalStateException("stripe full with " + _size + " fingerprints");
+				}
+				grow();
+				i = find(fp);
+			}
+
+			_slots.put(i, fp);
+			_size++;
+			return true;
+		}
+
+		void grow() {
+			LongBuffer old = _slots;
+			allocate((int) Math.min(MAX_SLOTS, 2L * old.capacity()));
+
+			for (int i = 0; i < old.capacity(); i++) {
+				long fp = old.get(i);
+				if (fp != FREE) {
+					_slots.put(find(fp), fp);
+				}
+			}
+		}
+	}
+}
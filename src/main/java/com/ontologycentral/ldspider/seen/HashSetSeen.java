@@ -3,19 +3,20 @@ package com.ontologycentral.ldspider.seen;
 import java.net.URI;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class HashSetSeen implements Seen {
+public class HashSetSeen implements Seen, Iterable<URI> {
 
 	Set<URI> _set;
 
 	public HashSetSeen() {
-		_set = Collections.synchronizedSet(new HashSet<URI>());
+		_set = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
 	}
 
 	public boolean hasBeenSeen(URI u) {
-		return _set.contains(u);
+		return u != null && _set.contains(u);
 	}
 
 	public boolean add(Collection<URI> uris) {
@@ -23,7 +24,7 @@ public class HashSetSeen implements Seen {
 	}
 
 	public boolean add(URI uri) {
-		return _set.add(uri);
+		return uri != null && _set.add(uri);
 	}
 
 	public void clear() {
@@ -31,4 +32,13 @@ public class HashSetSeen implements Seen {
 
 	}
 
+	/**
+	 * Iterates over the URIs seen so far without copying or locking them,
+	 * such that URIs can be added meanwhile, e.g. while writing a
+	 * checkpoint. URIs added meanwhile may or may not be returned.
+	 */
+	public Iterator<URI> iterator() {
+		return _set.iterator();
+	}
+
 }
@@ -0,0 +1,105 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A read-only array of longs in a file, mapped into memory in segments, as a
+ * mapping holds at most 2^31-1 bytes. Nothing is read on opening; the pages
+ * are read as they are accessed, and stay in the page cache, not on the heap.
+ */
+public class MappedLongs implements Closeable {
+	/**
+	 * Longs per segment.
+	 */
+	static final int SEGMENT_BITS = 27;
+	static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+	final RandomAccessFile _raf;
+	final LongBuffer[] _segments;
+	final long _size;
+
+	/**
+	 * @param f
+	 *            the file
+	 * @param offset
+	 *            the position of the first long in the file
+	 * @param size
+	 *            the number of longs
+	 */
+	public MappedLongs(File f, long offset, long size) throws IOException {
+		_raf = new RandomAccessFile(f, "r");
+		FileChannel ch = _raf.getChannel();
+
+		if (offset + 8 * size > ch.size()) {
+			_raf.close();
+			throw new IOException(f + " is truncated");
+		}
+
+		_size = size;
+		_segments = new LongBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS)];
+		for (int i = 0; i < _segments.length; i++) {
+			long longs = Math.min(SEGMENT_MASK + 1, size - ((long) i << SEGMENT_BITS));
+			_segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, offset + ((long) i << (SEGMENT_BITS + 3)), 8 * longs).asLongBuffer();
+		}
+	}
+
+	public long get(long i) {
+		return _segments[(int) (i >>> SEGMENT_BITS)].get((int) (i & SEGMENT_MASK));
+	}
+
+	/**
+	 * @return the number of longs
+	 */
+	public long size() {
+		return _size;
+	}
+
+	/**
+	 * Search a key in records of stride longs each, sorted by their first
+	 * long. Keys that are hashes spread evenly, so the position of the key is
+	 * interpolated from the keys at the ends of the range, which takes a few
+	 * steps only; every other step halves the range, in case they do not.
+	 *
+	 * @return the number of a record with the key, -1 if there is none
+	 */
+	public long search(long key, int stride) {
+		long lo = 0, hi = _size / stride - 1;
+		boolean halve = false;
+
+		while (lo <= hi) {
+			long a = get(lo * stride), b = get(hi * stride);
+			if (key < a || key > b) {
+				return -1;
+			}
+
+			long mid;
+			if (halve || a == b) {
+				mid = (lo + hi) >>> 1;
+			} else {
+				mid = lo + (long) (((double) key - a) / ((double) b - a) * (hi - lo));
+				mid = Math.max(lo, Math.min(hi, mid));
+			}
+			halve = !halve;
+
+			long m = get(mid * stride);
+			if (m == key) {
+				return mid;
+			} else if (m < key) {
+				lo = mid + 1;
+			} else {
+				hi = mid - 1;
+			}
+		}
+
+		return -1;
+	}
+
+	public void close() throws IOException {
+		_raf.close();
+	}
+}
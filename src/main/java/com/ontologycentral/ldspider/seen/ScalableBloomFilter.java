@@ -0,0 +1,99 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A Bloom filter that grows with the hashes added, as a series of
+ * {@link BloomFilter}s: once a filter holds the number of hashes it is sized
+ * for, a new one twice the size with half the false positive probability is
+ * added. The false positive probability of the whole series thus stays below
+ * twice the one of the first filter, however many hashes are added.
+ */
+public class ScalableBloomFilter {
+	/**
+	 * The filters, the last one is added to.
+	 */
+	final CopyOnWriteArrayList<BloomFilter> _filters;
+
+	/**
+	 * Hashes added to the last filter, and the number it is sized for.
+	 */
+	final AtomicLong _count;
+	volatile long _capacity;
+	volatile double _fpp;
+
+	/**
+	 * @param initial
+	 *            the number of hashes the first filter is sized for
+	 * @param fpp
+	 *            the false positive probability the series stays below; the
+	 *            first filter gets half of it
+	 */
+	public ScalableBloomFilter(long initial, double fpp) {
+		_filters = new CopyOnWriteArrayList<BloomFilter>();
+		_count = new AtomicLong(0);
+		_capacity = Math.max(1, initial);
+		_fpp = fpp / 2;
+		_filters.add(new BloomFilter(_capacity, _fpp));
+	}
+
+	/**
+	 * @return true if the hash has certainly not been added before
+	 */
+	public boolean add(long hash) {
+		if (mightContain(hash)) {
+			return false;
+		}
+
+		if (_count.incrementAndGet() > _capacity) {
+			grow();
+		}
+
+		// a concurrent add of the same hash may have counted as well, which
+		// only makes the filter grow a little early
+		_filters.get(_filters.size() - 1).add(hash);
+		return true;
+	}
+
+	synchronized void grow() {
+		if (_count.get() <= _capacity) {
+			return;
+		}
+
+		_capacity *= 2;
+		_fpp /= 2;
+		_filters.add(new BloomFilter(_capacity, _fpp));
+		_count.set(1);
+	}
+
+	/**
+	 * @return false if the hash has certainly not been added
+	 */
+	public boolean mightContain(long hash) {
+		for (BloomFilter f : _filters) {
+			if (f.mightContain(hash)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the number of filters
+	 */
+	public int getFilters() {
+		return _filters.size();
+	}
+
+	/**
+	 * @return the number of bits over all filters
+	 */
+	public long getBits() {
+		long bits = 0;
+		for (BloomFilter f : _filters) {
+			bits += f.getBits();
+		}
+		return bits;
+	}
+}
@@ -0,0 +1,57 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.net.URI;
+
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.Resource;
+import org.semanticweb.yars.nx.parser.Callback;
+import org.semanticweb.yars.nx.util.NxUtil;
+
+import com.ontologycentral.ldspider.GroupCommitWriter;
+
+/**
+ * Writes the URIs seen to a {@link Callback} in a thread of its own, such
+ * that the threads adding to seen do not wait for the log, and flushes the
+ * log at most every interval ms, see {@link GroupCommitWriter}.
+ *
+ * {@link #close()} writes all URIs handed over so far and flushes the log,
+ * so it should be closed before the log, e.g. via
+ * {@link com.ontologycentral.ldspider.CloseablesCloser#addFirst(Closeable)}.
+ */
+public class SeenLogWriter extends GroupCommitWriter<URI> {
+	final Callback _cb;
+	final Flushable _flushable;
+
+	/**
+	 * @param cb
+	 *            the log
+	 * @param flushable
+	 *            flushes the log, may be null
+	 * @param capacity
+	 *            the number of URIs the ring holds, rounded up to a power of
+	 *            two
+	 * @param interval
+	 *            ms between two flushes at most
+	 */
+	public SeenLogWriter(Callback cb, Flushable flushable, int capacity, long interval) {
+		super("SeenLogWriter", capacity, interval);
+
+		_cb = cb;
+		_flushable = flushable;
+
+		start();
+	}
+
+	protected void write(URI u) {
+		_cb.processStatement(new Node[] { new Resource(NxUtil.escapeForNx(u.toString())) });
+	}
+
+	protected void commit() throws IOException {
+		if (_flushable != null) {
+			_flushable.flush();
+		}
+	}
+}
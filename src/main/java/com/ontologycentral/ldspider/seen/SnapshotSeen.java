@@ -0,0 +1,223 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.logging.Logger;
+
+/**
+ * A {@link Seen} implementation that takes the URIs of a snapshot as seen, on
+ * top of a wrapped {@link Seen} for the URIs seen since. The snapshot is a
+ * file of the sorted fingerprints of the URIs, see
+ * {@link FingerprintSeen#fingerprint(String)}, which is mapped into memory
+ * and searched in place, so resuming a crawl does not wait for the URIs seen
+ * before to be read. The fingerprints can also be loaded into a
+ * {@link FingerprintSeen} at disk speed.
+ *
+ * As with {@link FingerprintSeen}, a URI not seen is taken as seen if it
+ * shares its fingerprint with one in the snapshot, and the URIs of the
+ * snapshot cannot be iterated, e.g. for a checkpoint.
+ *
+ * The file starts with {@link #MAGIC}, padded to 8 bytes, and the number of
+ * fingerprints, followed by the fingerprints in ascending order. Snapshots
+ * are written with a {@link Writer}.
+ */
+public class SnapshotSeen implements Seen, Closeable {
+	private static final Logger _log = Logger.getLogger(SnapshotSeen.class.getName());
+
+	static final byte[] MAGIC = { 'L', 'D', 'S', 'N', 1 };
+	static final int HEADER = 16;
+
+	final MappedLongs _fps;
+	Seen _seen;
+
+	/**
+	 * @param f
+	 *            the snapshot
+	 * @param seen
+	 *            takes the URIs not in the snapshot
+	 */
+	public SnapshotSeen(File f, Seen seen) throws IOException {
+		_fps = new MappedLongs(f, HEADER, readHeader(f));
+		_seen = seen;
+
+		_log.info("mapped " + _fps.size() + " fingerprints of URIs seen from " + f);
+	}
+
+	public boolean hasBeenSeen(URI u) {
+		return _fps.search(FingerprintSeen.fingerprint(u), 1) >= 0 || _seen.hasBeenSeen(u);
+	}
+
+	public boolean add(Collection<URI> uris) {
+		boolean ret = true;
+		for (URI u : uris) {
+			ret = add(u) && ret;
+		}
+		return ret;
+	}
+
+	public boolean add(URI uri) {
+		if (_fps.search(FingerprintSeen.fingerprint(uri), 1) >= 0) {
+			return false;
+		}
+		return _seen.add(uri);
+	}
+
+	/**
+	 * Add the fingerprints of the snapshot to a {@link FingerprintSeen}, e.g.
+	 * to have lookups of a single table instead of two.
+	 *
+	 * @return the number of fingerprints added
+	 */
+	public long load(FingerprintSeen fs) {
+		long time = System.currentTimeMillis();
+		long n = 0;
+		for (long i = 0; i < _fps.size(); i++) {
+			long fp = _fps.get(i);
+			if (fs.stripe(fp).add(fp)) {
+				n++;
+			}
+		}
+		_log.info("loaded " + n + " fingerprints into " + fs.getClass().getSimpleName() + " in " + (System.currentTimeMillis() - time) + " ms");
+		return n;
+	}
+
+	/**
+	 * @return the number of fingerprints in the snapshot
+	 */
+	public long size() {
+		return _fps.size();
+	}
+
+	/**
+	 * @return the wrapped {@link Seen}
+	 */
+	public Seen getSeen() {
+		return _seen;
+	}
+
+	public void close() throws IOException {
+		_fps.close();
+	}
+
+	/**
+	 * @return true if the file is a snapshot of seen, rather than e.g. a
+	 *         seen file of N-Triples
+	 */
+	public static boolean isSnapshot(File f) throws IOException {
+		return startsWith(f, MAGIC);
+	}
+
+	static boolean startsWith(File f, byte[] magic) throws IOException {
+		byte[] b = new byte[magic.length];
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			in.readFully(b);
+		} catch (IOException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+		return Arrays.equals(b, magic);
+	}
+
+	/**
+	 * @return the number of fingerprints in the snapshot
+	 */
+	static long readHeader(File f) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(f));
+		try {
+			byte[] b = new byte[MAGIC.length];
+			in.readFully(b);
+			if (!Arrays.equals(b, MAGIC)) {
+				throw new IOException(f + " is not a snapshot of seen");
+			}
+			in.readFully(new byte[HEADER - 8 - MAGIC.length]);
+			return in.readLong();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the URIs added, which are kept as fingerprints in
+	 * memory, 8 bytes each, until the snapshot is written on close. The
+	 * snapshot is written to a temporary file first, such that a complete
+	 * snapshot replaces the file.
+	 */
+	public static class Writer implements Closeable {
+		final File _file;
+		long[] _fps;
+		int _n;
+
+		public Writer(File f) {
+			_file = f;
+			_fps = new long[1024];
+			_n = 0;
+		}
+
+		public void add(String uri) {
+			if (_n == _fps.length) {
+				if (_n == Integer.MAX_VALUE - 8) {
+					throw new IllegalStateException("too many URIs for a snapshot");
+				}
+				_fps = Arrays.copyOf(_fps, (int) Math.min(Integer.MAX_VALUE - 8, 2L * _n));
+			}
+			_fps[_n++] = FingerprintSeen.fingerprint(uri);
+		}
+
+		/**
+		 * Write the snapshot.
+		 */
+		public void close() throws IOException {
+			Arrays.sort(_fps, 0, _n);
+
+			// without duplicates
+			int n = 0;
+			for (int i = 0; i < _n; i++) {
+				if (n == 0 || _fps[i] != _fps[n - 1]) {
+					_fps[n++] = _fps[i];
+				}
+			}
+
+			File tmp = new File(_file.getPath() + ".tmp");
+			FileOutputStream fos = new FileOutputStream(tmp);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1024 * 1024));
+			boolean done = false;
+			try {
+				out.write(MAGIC);
+				out.write(new byte[HEADER - 8 - MAGIC.length]);
+				out.writeLong(n);
+				for (int i = 0; i < n; i++) {
+					out.writeLong(_fps[i]);
+				}
+				out.flush();
+				fos.getFD().sync();
+				done = true;
+			} finally {
+				out.close();
+				if (!done) {
+					tmp.delete();
+				}
+			}
+			_fps = null;
+
+			if (!tmp.renameTo(_file)) {
+				_file.delete();
+				if (!tmp.renameTo(_file)) {
+					throw new IOException("cannot rename " + tmp + " to " + _file);
+				}
+			}
+
+			_log.info("snapshot of " + n + " URIs seen written to " + _file);
+		}
+	}
+}
@@ -1,7 +1,11 @@
 package com.ontologycentral.ldspider.seen;
 
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
 import java.net.URI;
 import java.util.Collection;
+import java.util.Iterator;
 
 import org.semanticweb.yars.nx.Node;
 import org.semanticweb.yars.nx.Resource;
@@ -12,18 +16,45 @@ import org.semanticweb.yars.nx.util.NxUtil;
  * A {@link Seen} implementation that passes the seen {@link URI}s to a wrapped
  * {@link Seen} implementation and a {@link Callback} implementation.
  * 
+ * The {@link Callback} is either called by the thread adding the URIs, or by
+ * a {@link SeenLogWriter} that writes them in the background. In the latter
+ * case, close this {@link Seen} to have all URIs written.
+ * 
  * @author Tobias Kaefer
  */
-public class WrappingCallbackSeen implements Seen {
+public class WrappingCallbackSeen implements Seen, Iterable<URI>, Closeable {
 
 	Seen _seen;
 	Callback _cb;
 
+	/**
+	 * Writes to the callback in the background, null if the URIs are written
+	 * by the adding thread.
+	 */
+	SeenLogWriter _writer;
+
 	public WrappingCallbackSeen(Seen seen, Callback callback) {
 		_seen = seen;
 		_cb = callback;
 	}
 
+	/**
+	 * Write the URIs to the callback in the background.
+	 * 
+	 * @param flushable
+	 *            flushes what the callback writes to, may be null
+	 * @param capacity
+	 *            the number of URIs to buffer for writing
+	 * @param interval
+	 *            ms between two flushes at most
+	 */
+	public WrappingCallbackSeen(Seen seen, Callback callback,
+			Flushable flushable, int capacity, long interval) {
+		_seen = seen;
+		_cb = callback;
+		_writer = new SeenLogWriter(callback, flushable, capacity, interval);
+	}
+
 	public boolean hasBeenSeen(URI u) {
 		return _seen.hasBeenSeen(u);
 	}
@@ -38,10 +69,33 @@ public class WrappingCallbackSeen implements Seen {
 
 	public boolean add(URI uri) {
 		boolean ret = _seen.add(uri);
-		if (ret)
+		if (ret && _writer != null)
+			_writer.add(uri);
+		else if (ret)
 			_cb.processStatement(new Node[] { new Resource(NxUtil
 					.escapeForNx(uri.toString())) });
 		return ret;
 	}
 
+	/**
+	 * Iterates over the URIs of the wrapped {@link Seen}.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             if the wrapped {@link Seen} cannot be iterated
+	 */
+	@SuppressWarnings("unchecked")
+	public Iterator<URI> iterator() {
+		if (!(_seen instanceof Iterable))
+			throw new UnsupportedOperationException(_seen.getClass().getSimpleName() + " cannot be iterated");
+		return ((Iterable<URI>) _seen).iterator();
+	}
+
+	/**
+	 * Writes the URIs not written yet, if written in the background.
+	 */
+	public void close() throws IOException {
+		if (_writer != null)
+			_writer.close();
+	}
+
 }
@@ -167,6 +167,19 @@ public class NoRobotClient {
                             value = line.substring("Disallow:".length()).trim();
                             value = URLDecoder.decode(value, "UTF-8");
                             engine.disallowPath( value );
+                        } else
+                        if(line.toLowerCase().startsWith("crawl-delay:")) {
+                            value = line.substring("crawl-delay:".length()).trim();
+                            try {
+                                // in seconds, may be fractional
+                                double seconds = Double.parseDouble(value);
+                                if(seconds >= 0) {
+                                    engine.setCrawlDelay( (long) (seconds * 1000) );
+                                }
+                            } catch(NumberFormatException nfe) {
+                                // ignore
+                                continue;
+                            }
                         } else {
                             // ignore
                             continue;
@@ -225,6 +238,27 @@ public class NoRobotClient {
         return allowed.booleanValue();
     }
 
+    /**
+     * The delay between two accesses the parsed website asks for 
+     * with Crawl-delay, for this user-agent or else for all robots.
+     *
+     * @return the delay in ms, -1 if there is none
+     *
+     * @throws IllegalStateException when parse has not been called
+     */
+    public long getCrawlDelay() throws IllegalStateException {
+        if(rules == null) {
+            throw new IllegalStateException("You must call parse before you call this method.  ");
+        }
+
+        long delay = this.rules.getCrawlDelay();
+        if(delay < 0) {
+            delay = this.wildcardRules.getCrawlDelay();
+        }
+
+        return delay;
+    }
+
 //    // INLINE: as such from genjava/gj-core's net package. Simple method 
 //    // stolen from Payload too.
 //    private static String loadContent(URL url, String userAgent) throws IOException {
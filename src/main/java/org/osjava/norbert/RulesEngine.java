@@ -43,6 +43,7 @@ import java.util.List;
 class RulesEngine {
 
     private List<Rule> rules;
+    private long crawlDelay = -1;
 
     public RulesEngine() {
         this.rules = new ArrayList<Rule>();
@@ -80,8 +81,19 @@ class RulesEngine {
         return null;
     }
 
+    public void setCrawlDelay(long crawlDelay) {
+        this.crawlDelay = crawlDelay;
+    }
+
+    /**
+     * The Crawl-delay in ms, -1 if there was none.
+     */
+    public long getCrawlDelay() {
+        return this.crawlDelay;
+    }
+
     public boolean isEmpty() {
-        return this.rules.isEmpty();
+        return this.rules.isEmpty() && this.crawlDelay < 0;
     }
 
     public String toString() {
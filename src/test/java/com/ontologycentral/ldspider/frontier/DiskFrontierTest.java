@@ -0,0 +1,121 @@
+package com.ontologycentral.ldspider.frontier;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+
+import junit.framework.TestCase;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+
+public class DiskFrontierTest extends TestCase {
+	File _dir;
+	int _buffer, _appenderBuffer;
+
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("frontier", "");
+		_dir.delete();
+		_dir.mkdir();
+		_buffer = CrawlerConstants.DISKFRONTIER_DEDUP_BUFFER;
+		_appenderBuffer = CrawlerConstants.DISKFRONTIER_BUFFER;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.DISKFRONTIER_DEDUP_BUFFER = _buffer;
+		CrawlerConstants.DISKFRONTIER_BUFFER = _appenderBuffer;
+		for (File f : _dir.listFiles()) {
+			f.delete();
+		}
+		_dir.delete();
+	}
+
+	void dedup(int buffer) throws Exception {
+		CrawlerConstants.DISKFRONTIER_DEDUP_BUFFER = buffer;
+
+		DiskFrontier f = new DiskFrontier(new File(_dir, "frontier.txt"));
+		TreeSet<String> expected = new TreeSet<String>();
+		for (int i = 0; i < 5000; i++) {
+			URI u = new URI("http://pld" + (i % 13) + ".org/" + (i % 1700));
+			f.add(u);
+			expected.add(u.toString());
+		}
+
+		List<String> li = new ArrayList<String>();
+		for (URI u : f) {
+			li.add(u.toString());
+		}
+		assertEquals(new ArrayList<String>(expected), li);
+
+		// the runs are gone once iterated
+		assertEquals(1, _dir.listFiles().length);
+		f.close();
+	}
+
+	public void testInMemory() throws Exception {
+		dedup(1000000);
+	}
+
+	public void testRuns() throws Exception {
+		dedup(100);
+	}
+
+	public void testWrittenByAddingThreads() throws Exception {
+		CrawlerConstants.DISKFRONTIER_BUFFER = 0;
+		DiskFrontier f = new DiskFrontier(new File(_dir, "frontier.txt"));
+		assertNull(f._appender);
+		f.close();
+		dedup(100);
+	}
+
+	public void testConcurrentAdds() throws Exception {
+		// a small ring, such that the adding threads have to wait
+		CrawlerConstants.DISKFRONTIER_BUFFER = 16;
+		final DiskFrontier f = new DiskFrontier(new File(_dir, "frontier.txt"));
+
+		Thread[] ts = new Thread[4];
+		for (int i = 0; i < ts.length; i++) {
+			final int t = i;
+			ts[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 2000; j++) {
+							f.add(new URI("http://pld" + t + ".org/" + j));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+
+		Frontier d = f.detach();
+		f.add(new URI("http://a.org/"));
+
+		int n = 0;
+		for (URI u : d) {
+			n++;
+		}
+		assertEquals(8000, n);
+
+		Iterator<URI> it = f.iterator();
+		assertEquals(new URI("http://a.org/"), it.next());
+		assertFalse(it.hasNext());
+
+		f.reset();
+		assertFalse(f.iterator().hasNext());
+		f.close();
+	}
+
+	public void testEmpty() throws Exception {
+		DiskFrontier f = new DiskFrontier(new File(_dir, "frontier.txt"));
+		assertFalse(f.iterator().hasNext());
+		f.close();
+	}
+}
@@ -0,0 +1,97 @@
+package com.ontologycentral.ldspider.frontier;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class RankedFrontierTest extends TestCase {
+	public void testRanking() throws Exception {
+		RankedFrontier f = new RankedFrontier();
+
+		f.add(new URI("http://b.org/"));
+		f.add(new URI("http://c.org/"));
+		f.add(new URI("http://c.org/"));
+		f.add(new URI("http://a.org/"));
+		f.add(new URI("http://d.org/"));
+		f.add(new URI("http://d.org/#fragment"));
+
+		assertEquals(list("http://c.org/", "http://d.org/", "http://a.org/", "http://b.org/"), drain(f.iterator()));
+
+		// the counts stay for the next hop
+		f.reset();
+		assertFalse(f.iterator().hasNext());
+		f.add(new URI("http://a.org/"));
+		f.add(new URI("http://b.org/"));
+		f.add(new URI("http://b.org/"));
+		assertEquals(3, f.getCount(new URI("http://b.org/")));
+		assertEquals(list("http://b.org/", "http://a.org/"), drain(f.iterator()));
+
+		// removed and added again
+		Iterator<URI> it = f.iterator();
+		it.next();
+		it.remove();
+		assertEquals(0, f.getCount(new URI("http://b.org/")));
+		f.add(new URI("http://b.org/"));
+		assertEquals(list("http://a.org/", "http://b.org/"), drain(f.iterator()));
+	}
+
+	public void testDetach() throws Exception {
+		RankedFrontier f = new RankedFrontier();
+		f.add(new URI("http://a.org/"));
+		f.add(new URI("http://b.org/"));
+
+		Frontier d = f.detach();
+		f.add(new URI("http://b.org/"));
+		f.add(new URI("http://c.org/"));
+
+		// the counts are shared
+		assertEquals(list("http://b.org/", "http://a.org/"), drain(d.iterator()));
+		assertEquals(list("http://b.org/", "http://c.org/"), drain(f.iterator()));
+	}
+
+	public void testCountTable() {
+		CountTable t = new CountTable(4);
+		Map<Long, Integer> m = new HashMap<Long, Integer>();
+		Random r = new Random(42);
+
+		for (int i = 0; i < 100000; i++) {
+			// few keys with colliding low bits, such that runs are long
+			long fp = (r.nextInt(2000) + 1) << 3;
+			if (r.nextInt(4) == 0) {
+				assertEquals(m.remove(fp) != null, t.remove(fp));
+			} else {
+				t.increment(fp);
+				Integer c = m.get(fp);
+				m.put(fp, c == null ? 1 : c + 1);
+			}
+		}
+
+		assertEquals(m.size(), t.size());
+		for (long k = 1; k <= 2001 << 3; k++) {
+			Integer c = m.get(k);
+			assertEquals(c == null ? 0 : c, t.count(k));
+		}
+	}
+
+	static List<String> list(String... s) {
+		List<String> li = new ArrayList<String>();
+		for (String x : s) {
+			li.add(x);
+		}
+		return li;
+	}
+
+	static List<String> drain(Iterator<URI> it) {
+		List<String> li = new ArrayList<String>();
+		while (it.hasNext()) {
+			li.add(it.next().toString());
+		}
+		return li;
+	}
+}
@@ -1,81 +1,178 @@
 package com.ontologycentral.ldspider.frontier;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.net.URI;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Random;
 
 import org.junit.Test;
-import org.semanticweb.yars.nx.Node;
-import org.semanticweb.yars.nx.Nodes;
-import org.semanticweb.yars.nx.Resource;
-import org.semanticweb.yars.nx.parser.NxParser;
-import org.semanticweb.yars.nx.parser.ParseException;
-import org.semanticweb.yars.nx.util.NxUtil;
-import org.semanticweb.yars.util.CallbackNxAppender;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
 
 public class SortingDiskFrontierTest {
 
 	@Test
-	public void testSort() throws IOException, ParseException {
+	public void testSort() throws IOException {
 		File tempfile = File.createTempFile(this.getClass().getSimpleName(),
-				"nx");
+				"run");
 		tempfile.deleteOnExit();
 
-		BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(
-				new FileOutputStream(tempfile)));
-		CallbackNxAppender cb = new CallbackNxAppender(bw);
+		UriRun.Writer w = new UriRun.Writer(tempfile, false);
 
-		List<Resource> goldstandard = new LinkedList<Resource>();
+		List<String> goldstandard = new LinkedList<String>();
 
-		Resource r = null;
+		String r = null;
 
 		for (int i = 3; i > 0; --i) {
-			r = new Resource(NxUtil.escapeForNx("http://example.org/"
-					+ "äöß\u06e9" + i));
-			cb.processStatement(new Node[] { r });
+			r = "http://example.org/" + "äöß\u06e9" + i;
+			w.write(r);
 			goldstandard.add(r);
 		}
 
-		cb.processStatement(new Node[] { r });
+		w.write(r);
 		goldstandard.add(r);
 
-		bw.close();
+		w.close();
 
 		Collections.sort(goldstandard);
 
 		SortingDiskFrontier sdf = new SortingDiskFrontier();
 		File outfile = sdf.sort(tempfile);
 
-		FileReader fr = new FileReader(outfile);
-
-		NxParser nxp = new NxParser(fr);
+		UriRun.Reader rr = new UriRun.Reader(outfile);
 
 		try {
-			for (Node n : goldstandard) {
-				assertEquals(new Nodes(n), new Nodes(nxp.next()));
+			for (String s : goldstandard) {
+				assertEquals(s, rr.next());
 			}
 		} catch (NoSuchElementException e) {
-			fr.close();
+			rr.close();
 			fail("gold standard is longer");
 		}
-		if (nxp.hasNext()) {
-			fr.close();
+		if (rr.hasNext()) {
+			rr.close();
 			fail("gold standard is shorter");
 		}
-		
-		fr.close();
+
+		rr.close();
 		sdf.close();
+		outfile.delete();
+
+	}
+
+	@Test
+	public void testSortInRuns() throws IOException {
+		int buffer = CrawlerConstants.DISKFRONTIER_SORT_BUFFER;
+		int threads = CrawlerConstants.DISKFRONTIER_SORT_THREADS;
+		CrawlerConstants.DISKFRONTIER_SORT_BUFFER = 100;
+		CrawlerConstants.DISKFRONTIER_SORT_THREADS = 3;
+
+		try {
+			SortingDiskFrontier sdf = new SortingDiskFrontier(true, true);
+			List<String> goldstandard = new ArrayList<String>();
+			for (int i = 0; i < 1000; i++) {
+				URI u = URI.create("http://pld" + (i % 7) + ".org/" + (i * 31 % 500));
+				sdf.add(u);
+				goldstandard.add(u.toString());
+			}
+			Collections.sort(goldstandard);
+
+			List<String> li = new ArrayList<String>();
+			for (URI u : sdf) {
+				li.add(u.toString());
+			}
+			assertEquals(goldstandard, li);
+
+			sdf.reset();
+			assertFalse(sdf.iterator().hasNext());
+			sdf.close();
+		} finally {
+			CrawlerConstants.DISKFRONTIER_SORT_BUFFER = buffer;
+			CrawlerConstants.DISKFRONTIER_SORT_THREADS = threads;
+		}
+	}
 
+	@Test
+	public void testLoserTree() {
+		Random rand = new Random(42);
+
+		for (int k = 0; k < 12; k++) {
+			List<Iterator<String>> its = new ArrayList<Iterator<String>>();
+			List<String> goldstandard = new ArrayList<String>();
+
+			for (int i = 0; i < k; i++) {
+				// some empty, and duplicates within and across iterators
+				List<String> li = new ArrayList<String>();
+				int n = i % 4 == 3 ? 0 : rand.nextInt(50);
+				for (int j = 0; j < n; j++) {
+					li.add("http://example.org/" + rand.nextInt(40));
+				}
+				Collections.sort(li);
+				goldstandard.addAll(li);
+				its.add(li.iterator());
+			}
+			Collections.sort(goldstandard);
+
+			List<String> merged = new ArrayList<String>();
+			Iterator<String> it = new SortingDiskFrontier.LoserTree(its);
+			while (it.hasNext()) {
+				merged.add(it.next());
+			}
+			assertEquals(goldstandard, merged);
+		}
+	}
+
+	@Test
+	public void testBlocks() throws IOException {
+		for (boolean compress : new boolean[] { false, true }) {
+			File f = File.createTempFile(this.getClass().getSimpleName(), "run");
+			f.deleteOnExit();
+
+			// enough URIs for a few blocks
+			List<String> uris = new ArrayList<String>();
+			for (int i = 0; i < 20000; i++) {
+				uris.add("http://example.org/" + (100000 + i) + "/ä");
+			}
+
+			UriRun.Writer w = new UriRun.Writer(f, compress);
+			for (String s : uris) {
+				w.write(s);
+			}
+			w.close();
+			assertEquals(uris.size(), w.getCount());
+			// front coding shares the prefixes
+			assertTrue(f.length() < uris.size() * 12);
+
+			UriRun.Reader r = new UriRun.Reader(f);
+			List<String> li = new ArrayList<String>();
+			while (r.hasNext()) {
+				li.add(r.next());
+			}
+			assertEquals(uris, li);
+
+			r = new UriRun.Reader(f);
+			r.seek(uris.get(15000));
+			assertEquals(uris.get(15000), r.next());
+			r.seek("http://example.org/117");
+			assertEquals(uris.get(17000), r.next());
+			r.seek(uris.get(100));
+			assertEquals(uris.get(17001), r.next());
+			r.seek("http://example.org/2");
+			assertFalse(r.hasNext());
+
+			f.delete();
+		}
 	}
 
 }
@@ -36,6 +36,26 @@ public class RobotsTest extends TestCase {
 		assertFalse(nrc.isUrlAllowed(u));
 	}
 	
+	public void testCrawlDelay() throws Exception {
+		NoRobotClient nrc = new NoRobotClient(CrawlerConstants.USERAGENT_NAME);
+		nrc.parse("User-agent: *\nCrawl-delay: 10\n\nUser-agent: ldspider\ncrawl-delay: 0.5\nDisallow: /private\n", new URL("http://example.org/"));
+
+		// the own user-agent comes before the wildcard
+		assertEquals(500, nrc.getCrawlDelay());
+		assertFalse(nrc.isUrlAllowed(new URL("http://example.org/private")));
+
+		nrc = new NoRobotClient(CrawlerConstants.USERAGENT_NAME);
+		nrc.parse("User-agent: *\nCrawl-delay: 3\n\nUser-agent: otherbot\nDisallow: /\n", new URL("http://example.org/"));
+
+		// a block with a crawl-delay only does not run into the next one
+		assertEquals(3000, nrc.getCrawlDelay());
+		assertTrue(nrc.isUrlAllowed(new URL("http://example.org/page")));
+
+		nrc = new NoRobotClient(CrawlerConstants.USERAGENT_NAME);
+		nrc.parse("User-agent: *\nCrawl-delay: soon\nDisallow: /tmp\n", new URL("http://example.org/"));
+		assertEquals(-1, nrc.getCrawlDelay());
+	}
+	
 //	public void testRobots3(){
 //		NoRobotClient nrc = new NoRobotClient(CrawlerConstants.USERAGENT_NAME);
 //		try {
@@ -0,0 +1,122 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+import com.ontologycentral.ldspider.seen.Seen;
+
+public class BatchPollTest extends TestCase {
+	long _mindelay;
+	int _threads;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		_threads = CrawlerConstants.NB_THREADS;
+		CrawlerConstants.MIN_DELAY = 200;
+		CrawlerConstants.NB_THREADS = 1;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+		CrawlerConstants.NB_THREADS = _threads;
+	}
+
+	public void testBreadthFirstQueue() throws Exception {
+		Seen seen = new HashSetSeen();
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), seen, -1, -1, -1, false);
+		q.schedule(frontier());
+
+		check(q, seen);
+	}
+
+	public void testLoadBalancingQueue() throws Exception {
+		Seen seen = new HashSetSeen();
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), seen);
+		q.schedule(frontier());
+
+		check(q, seen);
+	}
+
+	Frontier frontier() throws Exception {
+		Frontier f = new BasicFrontier();
+		for (String pld : new String[] { "a.org", "b.org", "c.org" }) {
+			f.add(new URI("http://" + pld + "/1"));
+			f.add(new URI("http://" + pld + "/2"));
+		}
+		return f;
+	}
+
+	void check(RedirectsFavouringSpiderQueue q, Seen seen) throws Exception {
+		q.addRedirect(new URI("http://d.org/redirected"));
+
+		// the redirect, then one uri per pld
+		List<URI> batch = q.poll(8);
+		assertEquals(4, batch.size());
+		assertEquals(new URI("http://d.org/redirected"), batch.get(0));
+
+		Set<String> hosts = new HashSet<String>();
+		for (URI u : batch) {
+			assertTrue(seen.hasBeenSeen(u));
+			hosts.add(u.getHost());
+		}
+		assertEquals(4, hosts.size());
+
+		// the plds of the first batch are due only after the delay
+		long time = System.currentTimeMillis();
+		batch = q.poll(8);
+		assertTrue(System.currentTimeMillis() - time >= 150);
+
+		int n = 0;
+		while (!batch.isEmpty()) {
+			n += batch.size();
+			batch = q.poll(8);
+		}
+		assertEquals(3, n);
+		assertEquals(0, q.size());
+	}
+
+	public void testDuplicates() throws Exception {
+		Seen seen = new HashSetSeen();
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), seen);
+		q.schedule(frontier());
+
+		// queued twice, and in the queue of its pld as well
+		q.addRedirect(new URI("http://d.org/redirected"));
+		q.addRedirect(new URI("http://d.org/redirected"));
+		q.addRedirect(new URI("http://a.org/1"));
+		q.addRedirect(new URI("http://a.org/2"));
+
+		List<URI> batch = q.poll(8);
+		assertEquals(new HashSet<URI>(batch).size(), batch.size());
+		assertEquals(new URI("http://d.org/redirected"), batch.get(0));
+	}
+
+	public void testGiveBack() throws Exception {
+		CrawlerConstants.MIN_DELAY = 0;
+
+		Seen seen = new HashSetSeen();
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), seen);
+		q.schedule(frontier());
+
+		List<URI> batch = q.poll(8);
+		q.giveBack(batch.subList(1, batch.size()));
+
+		// seen, but polled again
+		Set<URI> polled = new HashSet<URI>(batch.subList(0, 1));
+		while (!(batch = q.poll(8)).isEmpty()) {
+			polled.addAll(batch);
+		}
+		assertEquals(6, polled.size());
+		assertEquals(0, q.size());
+	}
+}
@@ -0,0 +1,174 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class CheckpointTest extends TestCase {
+	long _mindelay;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.MIN_DELAY = 1;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+	}
+
+	public void testRoundTrip() throws Exception {
+		File f = File.createTempFile("checkpoint", ".bin");
+		f.deleteOnExit();
+
+		TldManager tldm = new TldManager();
+
+		Frontier frontier = new BasicFrontier();
+		for (int i = 0; i < 10; i++)
+			for (int j = 0; j <= i; j++)
+				frontier.add(new URI("http://pld" + i + ".org/" + j));
+
+		HashSetSeen seen = new HashSetSeen();
+		BreadthFirstQueue q = new BreadthFirstQueue(tldm, new HashTableRedirects(), seen, -1, -1, -1, false, 4);
+		q.schedule(frontier);
+
+		Set<URI> polled = new HashSet<URI>();
+		List<URI> batch = q.poll(5);
+		polled.addAll(batch);
+		q.finishedPolling();
+
+		q.setCrawlDelay(new URI("http://pld0.org/"), 7000);
+		q.setRedirect(new URI("http://pld1.org/0"), new URI("http://other.org/"), 303);
+
+		frontier.add(new URI("http://next.org/"));
+
+		int size = q.size();
+		Checkpoint.write(f, q, frontier, 3);
+
+		Frontier restored = new BasicFrontier();
+		HashSetSeen rseen = new HashSetSeen();
+		HashTableRedirects rredirs = new HashTableRedirects();
+		BreadthFirstQueue r = new BreadthFirstQueue(tldm, rredirs, rseen, -1, -1, -1, false, 2);
+
+		assertEquals(3, Checkpoint.read(f, r, restored));
+
+		assertEquals(size, r.size());
+		assertEquals(q.active(), r.active());
+		assertEquals(4, r._scheduledFrontiers);
+
+		for (URI u : polled)
+			assertTrue(rseen.hasBeenSeen(u));
+		assertFalse(rseen.hasBeenSeen(new URI("http://other.org/")));
+
+		assertEquals(new URI("http://other.org/"), rredirs.getRedirect(new URI("http://pld1.org/0")));
+		assertEquals(7000, r.getScheduler("pld0.org").getDelay("pld0.org"));
+
+		Set<URI> li = new HashSet<URI>();
+		for (URI u : restored)
+			li.add(u);
+		assertTrue(li.contains(new URI("http://next.org/")));
+		assertEquals(55 + 1, li.size());
+
+		// polling the restored queue yields the rest, the redirect first
+		Set<URI> rest = new HashSet<URI>();
+		assertEquals(new URI("http://other.org/"), r.poll());
+		URI u;
+		while ((u = r.poll()) != null)
+			rest.add(u);
+		assertEquals(size - 1, rest.size());
+		for (URI p : polled)
+			assertFalse(rest.contains(p));
+	}
+
+	public void testInFlight() throws Exception {
+		File f = File.createTempFile("checkpoint", ".bin");
+		f.deleteOnExit();
+
+		TldManager tldm = new TldManager();
+
+		Frontier frontier = new BasicFrontier();
+		for (int i = 0; i < 6; i++)
+			frontier.add(new URI("http://pld" + i + ".org/"));
+
+		BreadthFirstQueue q = new BreadthFirstQueue(tldm, new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 1);
+		q.schedule(frontier);
+
+		// one batch is done, another one is still being looked up, and the
+		// rest of a third one has been given back
+		List<URI> done = q.poll(2);
+		q.finishedPolling();
+
+		final List<List<URI>> batches = new ArrayList<List<URI>>();
+		final BreadthFirstQueue fq = q;
+		Thread t = new Thread() {
+			public void run() {
+				batches.add(fq.poll(2));
+			}
+		};
+		t.start();
+		t.join();
+		List<URI> inflight = batches.get(0);
+		assertEquals(2, inflight.size());
+
+		List<URI> returned = q.poll(2);
+		q.giveBack(returned.subList(1, 2));
+		q.finishedPolling();
+
+		assertEquals(1, q.size());
+		Checkpoint.write(f, q, null, 0);
+
+		HashSetSeen rseen = new HashSetSeen();
+		BreadthFirstQueue r = new BreadthFirstQueue(tldm, new DummyRedirects(), rseen, -1, -1, -1, false, 2);
+		Checkpoint.read(f, r, null);
+
+		Set<URI> again = new HashSet<URI>(inflight);
+		again.add(returned.get(1));
+		for (URI u : done)
+			assertTrue(rseen.hasBeenSeen(u));
+		assertTrue(rseen.hasBeenSeen(returned.get(0)));
+		for (URI u : again)
+			assertFalse(rseen.hasBeenSeen(u));
+
+		Set<URI> rest = new HashSet<URI>();
+		URI u;
+		while ((u = r.poll()) != null)
+			rest.add(u);
+		assertEquals(again, rest);
+	}
+
+	public void testIncomplete() throws Exception {
+		File f = File.createTempFile("checkpoint", ".bin");
+		f.deleteOnExit();
+
+		Frontier frontier = new BasicFrontier();
+		frontier.add(new URI("http://a.org/"));
+
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 1);
+		q.schedule(frontier);
+		Checkpoint.write(f, q, frontier, 0);
+
+		RandomAccessFile raf = new RandomAccessFile(f, "rw");
+		raf.setLength(raf.length() - 2);
+		raf.close();
+
+		try {
+			Checkpoint.read(f, new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 1), null);
+			fail();
+		} catch (IOException e) {
+			;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.frontier.ContinuousFrontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class ContinuousQueueTest extends TestCase {
+	public void testHops() throws Exception {
+		ContinuousFrontier f = new ContinuousFrontier();
+		f.add(new URI("http://a.org/seed"));
+
+		ContinuousQueue q = new ContinuousQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), 1);
+		q.setMinDelay(0);
+		q.schedule(f);
+
+		assertEquals(1, q.size());
+
+		URI u = q.poll();
+		assertEquals(new URI("http://a.org/seed"), u);
+
+		// links found on the seed are on hop 1
+		f.add(new URI("http://b.org/one"));
+		f.add(new URI("http://a.org/seed"));
+		assertEquals(1, q.size());
+
+		u = q.poll();
+		assertEquals(new URI("http://b.org/one"), u);
+
+		// links found on hop 1 are beyond the maximum hop
+		f.add(new URI("http://c.org/two"));
+		assertEquals(0, q.size());
+
+		assertNull(q.poll());
+	}
+
+	public void testWaitsForOthers() throws Exception {
+		ContinuousFrontier f = new ContinuousFrontier();
+		f.add(new URI("http://a.org/seed"));
+
+		final ContinuousQueue q = new ContinuousQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), 2);
+		q.setMinDelay(0);
+		q.schedule(f);
+
+		assertNotNull(q.poll());
+
+		final URI[] polled = new URI[1];
+		Thread t = new Thread() {
+			public void run() {
+				polled[0] = q.poll();
+				q.finishedPolling();
+			}
+		};
+		t.start();
+
+		// the queue is empty, but the seed might still yield links
+		Thread.sleep(200);
+		assertTrue(t.isAlive());
+
+		f.add(new URI("http://b.org/one"));
+		t.join(5000);
+
+		assertEquals(new URI("http://b.org/one"), polled[0]);
+
+		assertNull(q.poll());
+	}
+}
@@ -0,0 +1,128 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.Util;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.queue.DiskBreadthFirstQueue.CountLifeTime;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class CountRunTest extends TestCase {
+	public void testRoundTrip() throws Exception {
+		File f = File.createTempFile("counts", ".bin");
+		f.deleteOnExit();
+
+		TreeMap<String, Integer> counts = new TreeMap<String, Integer>();
+		counts.put("http://a.org/", 1);
+		counts.put("http://a.org/x", 300);
+		counts.put("http://a.org/x/y/z/" + new String(new char[600]).replace('\0', 'q'), 70000);
+		counts.put("http://b.org/\u00e4", 2);
+		counts.put("http://b.org/~", 5);
+
+		CountRun.Writer w = new CountRun.Writer(f);
+		for (String k : counts.keySet()) {
+			byte[] b = k.getBytes("UTF-8");
+			w.write(b, b.length, counts.get(k));
+		}
+		w.close();
+
+		CountRun.Reader r = new CountRun.Reader(f);
+		for (String k : counts.keySet()) {
+			assertTrue(r.hasCurrent());
+			assertEquals(k, new String(r._key, 0, r._len, "UTF-8"));
+			assertEquals(counts.get(k).intValue(), r._count);
+			r.advance();
+		}
+		assertFalse(r.hasCurrent());
+
+		// an empty file is an empty run
+		File empty = File.createTempFile("counts", ".bin");
+		empty.deleteOnExit();
+		assertFalse(new CountRun.Reader(empty).hasCurrent());
+	}
+
+	public void testUnsignedOrder() throws Exception {
+		byte[] ascii = "http://b.org/~".getBytes("UTF-8");
+		byte[] umlaut = "http://b.org/\u00e4".getBytes("UTF-8");
+
+		assertTrue(CountRun.compare(ascii, ascii.length, umlaut, umlaut.length) < 0);
+		assertTrue(CountRun.compare(ascii, ascii.length - 1, ascii, ascii.length) < 0);
+		assertEquals(0, CountRun.compare(umlaut, umlaut.length, umlaut, umlaut.length));
+	}
+
+	public void testEternalCounts() throws Exception {
+		CountLifeTime lifetime = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
+		String save = CrawlerConstants.DISKBREADTHFIRSTQUEUE_ETERNALCOUNTSAVEBASEFILENAME;
+
+		File base = File.createTempFile("eternal", "");
+		base.deleteOnExit();
+
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ETERNALLY;
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_ETERNALCOUNTSAVEBASEFILENAME = base.getPath();
+
+		try {
+			DiskBreadthFirstQueue q = new DiskBreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, false);
+
+			q.schedule(frontier("http://a.org/1", "http://a.org/2", "http://a.org/2", "http://c.org/"));
+			q.schedule(frontier("http://a.org/2", "http://b.org/", "http://c.org/", "http://c.org/"));
+
+			File f = new File(Util.createFileNameForHopwiseOperation(base.getPath(), "bin", 1));
+			f.deleteOnExit();
+
+			CountRun.Reader r = new CountRun.Reader(f);
+			String[] keys = { "http://a.org/1", "http://a.org/2", "http://b.org/", "http://c.org/" };
+			int[] expected = { 1, 3, 1, 3 };
+
+			for (int i = 0; i < keys.length; i++) {
+				assertEquals(keys[i], new String(r._key, 0, r._len, "UTF-8"));
+				assertEquals(expected[i], r._count);
+				r.advance();
+			}
+			assertFalse(r.hasCurrent());
+
+			new File(Util.createFileNameForHopwiseOperation(base.getPath(), "bin", 0)).delete();
+		} finally {
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = lifetime;
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_ETERNALCOUNTSAVEBASEFILENAME = save;
+		}
+	}
+
+	/**
+	 * A frontier iterating over the URIs in the order given.
+	 */
+	Frontier frontier(String... uris) throws Exception {
+		final List<URI> li = new ArrayList<URI>();
+		for (String u : uris) {
+			li.add(new URI(u));
+		}
+
+		return new Frontier() {
+			public void add(URI u) {
+				li.add(u);
+			}
+
+			public void removeAll(Collection<URI> c) {
+				li.removeAll(c);
+			}
+
+			public void reset() {
+				;
+			}
+
+			public Iterator<URI> iterator() {
+				return li.iterator();
+			}
+		};
+	}
+}
@@ -0,0 +1,124 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class LoadBalancingQueueDelayTest extends TestCase {
+	long _mindelay;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.MIN_DELAY = 200;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+	}
+
+	LoadBalancingQueue queue() throws Exception {
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), new HashSetSeen());
+
+		Frontier f = new BasicFrontier();
+		f.add(new URI("http://a.org/1"));
+		f.add(new URI("http://a.org/2"));
+		f.add(new URI("http://a.org/3"));
+		f.add(new URI("http://b.org/1"));
+		q.schedule(f);
+
+		return q;
+	}
+
+	public void testWaitForDuePld() throws Exception {
+		LoadBalancingQueue q = queue();
+
+		// the pld with most uris first, then the other one
+		assertEquals("a.org", q.poll().getHost());
+		assertEquals(new URI("http://b.org/1"), q.poll());
+
+		// a.org is not due yet, so the poll waits rather than giving up
+		long time = System.currentTimeMillis();
+		assertEquals("a.org", q.poll().getHost());
+		assertTrue(System.currentTimeMillis() - time >= 150);
+
+		assertEquals("a.org", q.poll().getHost());
+		assertNull(q.poll());
+	}
+
+	public void testPollLimitKeepsOrder() throws Exception {
+		CrawlerConstants.MIN_DELAY = 0;
+
+		LoadBalancingQueue q = queue();
+		List<URI> expected = new ArrayList<URI>(q._queues.get("a.org"));
+		q.setPollLimit(1);
+
+		List<URI> polled = new ArrayList<URI>();
+		polled.add(q.poll());
+		assertNull(q.poll());
+		assertEquals(3, q.size());
+
+		// the uris held back by the limit are still in the order they came
+		q.setPollLimit(-1);
+		URI u;
+		while ((u = q.poll()) != null) {
+			if (u.getHost().equals("a.org")) {
+				polled.add(u);
+			}
+		}
+		assertEquals(expected, polled);
+	}
+
+	public void testWaitForNextRound() throws Exception {
+		CrawlerConstants.MIN_DELAY = 0;
+
+		final LoadBalancingQueue q = queue();
+		q.setWaitForRounds(true);
+
+		final List<URI> polled = Collections.synchronizedList(new ArrayList<URI>());
+
+		List<Thread> ts = new ArrayList<Thread>();
+		for (int i = 0; i < 2; i++) {
+			Thread t = new Thread() {
+				public void run() {
+					URI u;
+					while ((u = q.poll()) != null) {
+						polled.add(u);
+					}
+				}
+			};
+			ts.add(t);
+			t.start();
+		}
+
+		assertTrue(q.awaitRound(2, 5000));
+		assertEquals(4, polled.size());
+
+		// the same threads poll the next round
+		Frontier f = new BasicFrontier();
+		f.add(new URI("http://c.org/1"));
+		q.schedule(f);
+		q.nextRound();
+
+		assertTrue(q.awaitRound(2, 5000));
+		assertEquals(5, polled.size());
+		for (Thread t : ts) {
+			assertTrue(t.isAlive());
+		}
+
+		q.setWaitForRounds(false);
+		for (Thread t : ts) {
+			t.join(5000);
+			assertFalse(t.isAlive());
+		}
+	}
+}
@@ -0,0 +1,42 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class PldOrderTest extends TestCase {
+	public void testOrder() throws Exception {
+		PldOrder order = new PldOrder();
+		AtomicInteger total = new AtomicInteger(0);
+
+		PldQueue a = new PldQueue("a.org", total, order);
+		PldQueue b = new PldQueue("b.org", total, order);
+		PldQueue c = new PldQueue("c.org", total, order);
+
+		a.add(new URI("http://a.org/1"));
+		b.add(new URI("http://b.org/1"));
+		b.add(new URI("http://b.org/2"));
+		c.add(new URI("http://c.org/1"));
+
+		assertEquals(4, total.get());
+		assertEquals(Arrays.asList("b.org", "a.org", "c.org"), order.plds());
+
+		b.poll();
+		b.poll();
+		a.add(new URI("http://a.org/2"));
+
+		assertEquals(Arrays.asList("a.org", "c.org"), order.plds());
+
+		a.discard();
+		assertEquals(Arrays.asList("c.org"), order.plds());
+		assertEquals(1, total.get());
+
+		order.clear();
+		assertEquals(0, order.size());
+
+		c.add(new URI("http://c.org/2"));
+		assertEquals(Arrays.asList("c.org"), order.plds());
+	}
+}
@@ -0,0 +1,127 @@
+package com.ontologycentral.ldspider.queue;
+
+import junit.framework.TestCase;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+
+public class PoliteSchedulerTest extends TestCase {
+	boolean _adaptive;
+
+	protected void setUp() {
+		_adaptive = CrawlerConstants.ADAPTIVE_DELAY;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.ADAPTIVE_DELAY = _adaptive;
+	}
+
+	public void testReadyOrder() throws Exception {
+		PoliteScheduler ps = new PoliteScheduler(200);
+
+		ps.register("a.org");
+		ps.register("b.org");
+		ps.register("a.org");
+
+		assertEquals(2, ps.active());
+
+		assertEquals("a.org", ps.take(0));
+		assertEquals("b.org", ps.take(0));
+		assertNull(ps.take(0));
+
+		// a.org has been accessed and has to wait, b.org not
+		ps.release("a.org", true, true);
+		ps.release("b.org", false, true);
+
+		assertEquals("b.org", ps.take(0));
+		assertNull(ps.take(0));
+
+		ps.release("b.org", true, false);
+		assertEquals(1, ps.active());
+
+		long time = System.currentTimeMillis();
+		assertEquals("a.org", ps.take(1000));
+		assertTrue(System.currentTimeMillis() - time >= 150);
+
+		ps.release("a.org", true, false);
+		assertEquals(0, ps.active());
+	}
+
+	public void testClearKeepsClock() throws Exception {
+		PoliteScheduler ps = new PoliteScheduler(60 * 1000);
+
+		ps.register("a.org");
+		assertEquals("a.org", ps.take(0));
+		ps.release("a.org", true, true);
+
+		ps.clear();
+		assertEquals(0, ps.active());
+
+		ps.register("a.org");
+		assertEquals(1, ps.active());
+		assertNull(ps.take(10));
+	}
+
+	public void testAdaptiveDelay() throws Exception {
+		CrawlerConstants.ADAPTIVE_DELAY = true;
+		PoliteScheduler ps = new PoliteScheduler(500);
+
+		assertEquals(500, ps.getDelay("a.org"));
+
+		// fast answers make the delay shrink, below the one it started with
+		for (int i = 0; i < 100; i++)
+			ps.report("a.org", 10, false);
+		assertEquals(CrawlerConstants.ADAPTIVE_DELAY_MIN, ps.getDelay("a.org"));
+
+		// the delay is a multiple of the response time
+		ps.report("a.org", 1000, false);
+		assertEquals(1000 * CrawlerConstants.ADAPTIVE_DELAY_LATENCY_FACTOR, ps.getDelay("a.org"));
+
+		// errors double the delay
+		ps.report("b.org", 10, true);
+		ps.report("b.org", 10, true);
+		assertEquals(2000, ps.getDelay("b.org"));
+
+		// other plds are not affected
+		assertEquals(500, ps.getDelay("c.org"));
+	}
+
+	public void testFixedDelay() throws Exception {
+		CrawlerConstants.ADAPTIVE_DELAY = false;
+		PoliteScheduler ps = new PoliteScheduler(500);
+
+		for (int i = 0; i < 100; i++)
+			ps.report("a.org", 10, false);
+		ps.report("b.org", 10, true);
+
+		assertEquals(500, ps.getDelay("a.org"));
+		assertEquals(500, ps.getDelay("b.org"));
+	}
+
+	public void testServerDelay() throws Exception {
+		PoliteScheduler ps = new PoliteScheduler(100);
+
+		// the delay does not drop below the crawl-delay
+		ps.setCrawlDelay("a.org", 2000);
+		for (int i = 0; i < 100; i++)
+			ps.report("a.org", 10, false);
+		assertEquals(2000, ps.getDelay("a.org"));
+
+		// the largest crawl-delay of the hosts counts
+		ps.setCrawlDelay("a.org", 1000);
+		assertEquals(2000, ps.getDelay("a.org"));
+
+		ps.setCrawlDelay("b.org", Long.MAX_VALUE);
+		assertEquals(CrawlerConstants.MAX_SERVER_DELAY, ps.getDelay("b.org"));
+
+		// retry-after holds back the pld even if it has not been accessed
+		ps.register("c.org");
+		assertEquals("c.org", ps.take(0));
+		ps.retryAfter("c.org", 300);
+		ps.release("c.org", false, true);
+
+		assertNull(ps.take(0));
+		long time = System.currentTimeMillis();
+		assertEquals("c.org", ps.take(1000));
+		assertTrue(System.currentTimeMillis() - time >= 250);
+	}
+}
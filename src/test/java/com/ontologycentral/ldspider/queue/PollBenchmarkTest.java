@@ -0,0 +1,107 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+/**
+ * Polls URIs, asking for the size after each poll as the crawler does. The
+ * cost of a poll must not grow with the size of the queue, so neither the
+ * poll nor {@link SpiderQueue#size()} may walk the PLD queues: the maps of
+ * the PLD queues are swapped for maps that fail on being walked.
+ */
+public class PollBenchmarkTest extends TestCase {
+	static final int POLLS = 2000;
+
+	long _mindelay;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.MIN_DELAY = 0;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+	}
+
+	public void testBreadthFirstQueue() throws Exception {
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 4);
+		q.schedule(frontier(25000));
+
+		for (QueueShard s : q._shards) {
+			s._queues = new NoWalkMap<PldQueue>(s._queues);
+		}
+
+		poll(q);
+	}
+
+	public void testLoadBalancingQueue() throws Exception {
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), new HashSetSeen());
+		q.setMinDelay(0);
+		q.schedule(frontier(25000));
+
+		q._queues = new NoWalkMap<PldQueue>(q._queues);
+
+		poll(q);
+	}
+
+	/**
+	 * n URIs on n/10 PLDs.
+	 */
+	Frontier frontier(int n) throws Exception {
+		Frontier f = new BasicFrontier();
+		for (int i = 0; i < n; i++) {
+			f.add(new URI("http://pld" + (i % (n / 10)) + ".org/" + i));
+		}
+		return f;
+	}
+
+	void poll(SpiderQueue q) {
+		int size = q.size();
+
+		for (int i = 0; i < POLLS; i++) {
+			assertNotNull(q.poll());
+			assertEquals(size - i - 1, q.size());
+		}
+	}
+
+	/**
+	 * Fails if the PLD queues are walked, lookups by PLD are fine. The key
+	 * set is left alone, as its type differs between JDKs.
+	 */
+	static class NoWalkMap<V> extends ConcurrentHashMap<String, V> {
+		private static final long serialVersionUID = 1L;
+
+		NoWalkMap(Map<String, V> m) {
+			super(m);
+		}
+
+		public Collection<V> values() {
+			throw new IllegalStateException("walked the plds");
+		}
+
+		public Set<Map.Entry<String, V>> entrySet() {
+			throw new IllegalStateException("walked the plds");
+		}
+
+		public Enumeration<String> keys() {
+			throw new IllegalStateException("walked the plds");
+		}
+
+		public Enumeration<V> elements() {
+			throw new IllegalStateException("walked the plds");
+		}
+	}
+}
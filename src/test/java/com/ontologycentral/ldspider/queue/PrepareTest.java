@@ -0,0 +1,178 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.Pipeliner;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.DiskFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.queue.DiskBreadthFirstQueue.CountLifeTime;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class PrepareTest extends TestCase {
+	long _mindelay;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.MIN_DELAY = 1;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+	}
+
+	public void testDetach() throws Exception {
+		File file = File.createTempFile("frontier", ".txt");
+		file.deleteOnExit();
+
+		Frontier[] frontiers = { new BasicFrontier(), new DiskFrontier(file) };
+
+		for (Frontier f : frontiers) {
+			f.add(new URI("http://a.org/1"));
+			Frontier detached = f.detach();
+			f.add(new URI("http://a.org/2"));
+
+			assertEquals(set("http://a.org/1"), set(detached));
+			assertEquals(set("http://a.org/2"), set(f));
+
+			detached.reset();
+			assertEquals(set("http://a.org/2"), set(f));
+		}
+	}
+
+	public void testBreadthFirstQueue() throws Exception {
+		HashSetSeen seen = new HashSetSeen();
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), seen, -1, -1, -1, false, 2);
+
+		Frontier f = new BasicFrontier();
+		f.add(new URI("http://a.org/0"));
+		f.add(new URI("http://b.org/0"));
+		q.schedule(f);
+		f.reset();
+
+		// links found in the current hop
+		f.add(new URI("http://a.org/1"));
+		f.add(new URI("http://b.org/0"));
+		q.prepare(f.detach());
+
+		// the tail of the current hop, and its links
+		Set<URI> polled = new HashSet<URI>();
+		URI u;
+		while ((u = q.poll()) != null)
+			polled.add(u);
+		assertEquals(set("http://a.org/0", "http://b.org/0"), polled);
+		f.add(new URI("http://c.org/1"));
+
+		// the uris prepared and the links found in the tail, but not the
+		// uris polled in the tail
+		q.schedule(f);
+		polled.clear();
+		while ((u = q.poll()) != null)
+			polled.add(u);
+		assertEquals(set("http://a.org/1", "http://c.org/1"), polled);
+	}
+
+	public void testDiskBreadthFirstQueue() throws Exception {
+		CountLifeTime lifetime = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ONE_HOP;
+
+		try {
+			HashSetSeen seen = new HashSetSeen();
+			DiskBreadthFirstQueue q = new DiskBreadthFirstQueue(new TldManager(), new DummyRedirects(), seen, -1, false);
+
+			q.schedule(frontier("http://a.org/0", "http://b.org/0"));
+
+			// prepared while the current hop is polled
+			q.prepare(frontier("http://a.org/1", "http://b.org/0"));
+
+			Set<URI> polled = new HashSet<URI>();
+			List<URI> batch;
+			while (!(batch = q.poll(4)).isEmpty())
+				polled.addAll(batch);
+			assertEquals(set("http://a.org/0", "http://b.org/0"), polled);
+
+			// the frontier stays for the hop after
+			Frontier tail = frontier("http://c.org/1");
+			q.schedule(tail);
+			assertTrue(tail.iterator().hasNext());
+
+			polled.clear();
+			while (!(batch = q.poll(4)).isEmpty())
+				polled.addAll(batch);
+			assertEquals(set("http://a.org/1"), polled);
+
+			q.schedule(tail);
+			assertEquals(new URI("http://c.org/1"), q.poll());
+		} finally {
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = lifetime;
+		}
+	}
+
+	public void testCannotPrepare() throws Exception {
+		LoadBalancingQueue q = new LoadBalancingQueue(new TldManager(), new DummyRedirects(), new HashSetSeen());
+		assertFalse(q.canPrepare());
+		assertTrue(new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 1).canPrepare());
+
+		Frontier f = new BasicFrontier();
+		f.add(new URI("http://a.org/1"));
+
+		// in the tail right away, but the frontier is not touched
+		Pipeliner pl = new Pipeliner(new ArrayList<Thread>(), q, f, Integer.MAX_VALUE, 10);
+		pl.start();
+		assertFalse(pl.shutdown());
+		assertEquals(set("http://a.org/1"), set(f));
+	}
+
+	static Set<URI> set(String... uris) throws Exception {
+		Set<URI> set = new HashSet<URI>();
+		for (String u : uris)
+			set.add(new URI(u));
+		return set;
+	}
+
+	static Set<URI> set(Iterable<URI> it) {
+		Set<URI> set = new HashSet<URI>();
+		for (URI u : it)
+			set.add(u);
+		return set;
+	}
+
+	/**
+	 * A sorted frontier, as the disk queue requires.
+	 */
+	static Frontier frontier(String... uris) throws Exception {
+		final List<URI> li = new ArrayList<URI>();
+		for (String u : uris)
+			li.add(new URI(u));
+
+		return new Frontier() {
+			public void add(URI u) {
+				li.add(u);
+			}
+
+			public void removeAll(Collection<URI> c) {
+				li.removeAll(c);
+			}
+
+			public void reset() {
+				li.clear();
+			}
+
+			public Iterator<URI> iterator() {
+				return new ArrayList<URI>(li).iterator();
+			}
+		};
+	}
+}
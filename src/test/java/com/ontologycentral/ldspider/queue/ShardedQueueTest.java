@@ -0,0 +1,150 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.BasicFrontier;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class ShardedQueueTest extends TestCase {
+	long _mindelay;
+
+	protected void setUp() {
+		_mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.MIN_DELAY = 10;
+	}
+
+	protected void tearDown() {
+		CrawlerConstants.MIN_DELAY = _mindelay;
+	}
+
+	/**
+	 * pld i has i+1 uris
+	 */
+	Frontier frontier(int plds) throws Exception {
+		Frontier f = new BasicFrontier();
+		for (int i = 0; i < plds; i++)
+			for (int j = 0; j <= i; j++)
+				f.add(new URI("http://pld" + i + ".org/" + j));
+		return f;
+	}
+
+	public void testOrderOverShards() throws Exception {
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, 5, -1, false, 4);
+		q.schedule(frontier(20));
+
+		// only the 5 plds with the most uris are kept
+		assertEquals(20 + 19 + 18 + 17 + 16, q.size());
+		assertEquals(5, q.active());
+	}
+
+	public void testConcurrentPolls() throws Exception {
+		final BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 4);
+		q.schedule(frontier(20));
+
+		final int size = q.size();
+		final Set<URI> polled = Collections.synchronizedSet(new HashSet<URI>());
+		final int[] dups = new int[1];
+
+		Thread[] ts = new Thread[16];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = new Thread() {
+				public void run() {
+					List<URI> batch;
+					while (!(batch = q.poll(4)).isEmpty())
+						for (URI u : batch)
+							if (!polled.add(u))
+								synchronized (dups) {
+									dups[0]++;
+								}
+					q.finishedPolling();
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts)
+			t.join();
+
+		assertEquals(0, dups[0]);
+		assertEquals(size, polled.size());
+		assertEquals(0, q.size());
+	}
+
+	public void testAffinity() throws Exception {
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 4, true);
+		q.schedule(frontier(20));
+
+		int size = q.size();
+		QueueShard home = q._shards[q.home()];
+
+		// nothing else is ready while our plds wait, so we take over the
+		// plds of the other shards
+		Set<URI> polled = new HashSet<URI>();
+		List<URI> batch;
+		while (!(batch = q.poll(20)).isEmpty()) {
+			polled.addAll(batch);
+			for (URI u : batch) {
+				assertSame(home, q.shard(u.getHost()));
+				assertNotNull(home._scheduler._slots.get(u.getHost()));
+			}
+			assertEquals(size - polled.size(), q.size());
+		}
+		q.finishedPolling();
+
+		assertEquals(size, polled.size());
+		assertEquals(0, q.active());
+		assertEquals(20, home._scheduler.size());
+		assertTrue(q._steals.get() > 0);
+		for (QueueShard s : q._shards)
+			if (s != home)
+				assertEquals(0, s._scheduler.size());
+	}
+
+	public void testConcurrentPollsWithAffinity() throws Exception {
+		final BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, -1, false, 8, true);
+		q.schedule(frontier(20));
+
+		final int size = q.size();
+		final Set<URI> polled = Collections.synchronizedSet(new HashSet<URI>());
+
+		Thread[] ts = new Thread[8];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = new Thread() {
+				public void run() {
+					List<URI> batch;
+					while (!(batch = q.poll(4)).isEmpty())
+						polled.addAll(batch);
+					q.finishedPolling();
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts)
+			t.join();
+
+		assertEquals(size, polled.size());
+		assertEquals(0, q.size());
+		assertEquals(0, q.active());
+	}
+
+	public void testMinActivePlds() throws Exception {
+		BreadthFirstQueue q = new BreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, -1, 5, true, 4);
+		q.schedule(frontier(20));
+
+		while (q.poll() != null)
+			;
+
+		// the round ends once fewer than 5 plds have uris left
+		assertEquals(4, q.active());
+		assertTrue(q.size() > 0);
+	}
+}
@@ -0,0 +1,56 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SnapshotRedirectsTest extends TestCase {
+	File _file;
+
+	protected void setUp() throws Exception {
+		_file = File.createTempFile("redirects", ".snap");
+	}
+
+	protected void tearDown() {
+		_file.delete();
+	}
+
+	public void testSnapshot() throws Exception {
+		SnapshotRedirects.Writer w = new SnapshotRedirects.Writer(_file);
+		for (int i = 0; i < 1000; i++) {
+			w.put("http://a.org/" + i, "http://a.org/" + i + "/ä");
+		}
+		// the last one counts
+		w.put("http://a.org/0", "http://b.org/0");
+		w.close();
+
+		assertTrue(SnapshotRedirects.isSnapshot(_file));
+		assertFalse(SnapshotRedirects.isSnapshot(new File(_file.getPath() + ".none")));
+
+		SnapshotRedirects r = new SnapshotRedirects(_file, new HashTableRedirects());
+		assertEquals(1000, r.size());
+
+		assertEquals(new URI("http://b.org/0"), r.getRedirect(new URI("http://a.org/0")));
+		for (int i = 1; i < 1000; i++) {
+			assertEquals(new URI("http://a.org/" + i + "/ä"), r.getRedirect(new URI("http://a.org/" + i)));
+		}
+		URI none = new URI("http://a.org/none");
+		assertSame(none, r.getRedirect(none));
+
+		// put since takes precedence
+		r.put(new URI("http://a.org/1"), new URI("http://c.org/1"));
+		assertEquals(new URI("http://c.org/1"), r.getRedirect(new URI("http://a.org/1")));
+
+		int n = 0;
+		for (Map.Entry<URI, URI> e : r) {
+			if (e.getKey().equals(new URI("http://a.org/1"))) {
+				assertEquals(new URI("http://c.org/1"), e.getValue());
+			}
+			n++;
+		}
+		assertEquals(1000, n);
+		r.close();
+	}
+}
@@ -0,0 +1,247 @@
+package com.ontologycentral.ldspider.queue;
+
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.tld.TldManager;
+
+import com.ontologycentral.ldspider.CrawlerConstants;
+import com.ontologycentral.ldspider.frontier.Frontier;
+import com.ontologycentral.ldspider.queue.DiskBreadthFirstQueue.CountLifeTime;
+import com.ontologycentral.ldspider.seen.HashSetSeen;
+
+public class SpillFileTest extends TestCase {
+	public void testChains() throws Exception {
+		// small budget, such that each pld gets many segments
+		SpillFile spill = new SpillFile(File.createTempFile("spill", ".bin"), 4096);
+
+		Map<String, List<String>> added = new HashMap<String, List<String>>();
+		Random rand = new Random(42);
+
+		for (int i = 0; i < 20000; i++) {
+			String pld = "pld" + rand.nextInt(500) + ".org";
+			String uri = "http://" + pld + "/" + i;
+
+			List<String> li = added.get(pld);
+			if (li == null) {
+				li = new ArrayList<String>();
+				added.put(pld, li);
+			}
+			li.add(uri);
+
+			spill.add(pld, uri, i);
+		}
+		spill.flush();
+
+		assertEquals(added.keySet(), spill.plds());
+
+		for (String pld : added.keySet()) {
+			assertEquals(added.get(pld).size(), spill.count(pld));
+
+			List<String> read = new ArrayList<String>();
+			SpillFile.Cursor c = spill.cursor(pld, 512);
+			while (c.hasNext()) {
+				read.add(c.next()._uri);
+			}
+			assertEquals(added.get(pld), read);
+
+			// the same if the buffer is dropped after each record
+			read.clear();
+			c = spill.cursor(pld, 512);
+			while (c.hasNext()) {
+				read.add(c.next()._uri);
+				c.release();
+			}
+			assertEquals(added.get(pld), read);
+		}
+
+		spill.delete();
+	}
+
+	public void testSortInRuns() throws Exception {
+		SpillFile in = new SpillFile(File.createTempFile("spill", ".bin"), 4096);
+		SpillFile out = new SpillFile(File.createTempFile("spill", ".bin"), 4096);
+		SpillFile scratch = new SpillFile(File.createTempFile("spill", ".bin"), 4096);
+
+		Map<String, List<SpillFile.Record>> expected = new HashMap<String, List<SpillFile.Record>>();
+		Random rand = new Random(42);
+
+		for (int i = 0; i < 10000; i++) {
+			String pld = "pld" + rand.nextInt(8) + ".org";
+			SpillFile.Record r = new SpillFile.Record("http://" + pld + "/" + i, rand.nextInt(20));
+			in.add(pld, r._uri, r._count);
+
+			List<SpillFile.Record> li = expected.get(pld);
+			if (li == null) {
+				li = new ArrayList<SpillFile.Record>();
+				expected.put(pld, li);
+			}
+			li.add(r);
+		}
+		in.add("b.org", "http://b.org/", 1);
+
+		// runs of 64 for the large plds, in memory for b.org, in parallel
+		in.sortInto(out, scratch, 4, 64);
+
+		for (String pld : expected.keySet()) {
+			List<SpillFile.Record> li = expected.get(pld);
+			Collections.sort(li, SpillFile.BY_COUNT);
+
+			SpillFile.Cursor c = out.cursor(pld, 1024);
+			for (SpillFile.Record r : li) {
+				SpillFile.Record s = c.next();
+				assertEquals(r._uri, s._uri);
+				assertEquals(r._count, s._count);
+			}
+			assertFalse(c.hasNext());
+		}
+
+		assertEquals(1, out.count("b.org"));
+		assertEquals(10001, out.count());
+
+		in.delete();
+		out.delete();
+		scratch.delete();
+	}
+
+	public void testDiskBreadthFirstQueue() throws Exception {
+		CountLifeTime lifetime = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
+		long mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ONE_HOP;
+		CrawlerConstants.MIN_DELAY = 1;
+
+		try {
+			final List<URI> li = new ArrayList<URI>();
+			for (int i = 0; i < 3; i++) {
+				// the last uri of each pld has the most in-links
+				for (int j = 0; j < 5; j++) {
+					for (int k = 0; k <= j; k++) {
+						li.add(new URI("http://pld" + i + ".org/" + j));
+					}
+				}
+			}
+			DiskBreadthFirstQueue q = new DiskBreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, false);
+			q.schedule(sorted(li));
+
+			assertEquals(15, q.size());
+
+			// one uri per pld and round, most in-links first
+			for (int j = 4; j >= 0; j--) {
+				for (int i = 0; i < 3; i++) {
+					assertTrue(q.poll().getPath().equals("/" + j));
+				}
+			}
+			assertNull(q.poll());
+			assertEquals(0, q.size());
+		} finally {
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = lifetime;
+			CrawlerConstants.MIN_DELAY = mindelay;
+		}
+	}
+
+	public void testDiskBreadthFirstQueueReadBuffer() throws Exception {
+		CountLifeTime lifetime = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
+		long mindelay = CrawlerConstants.MIN_DELAY;
+		int readbuffer = CrawlerConstants.DISKBREADTHFIRSTQUEUE_READ_BUFFER;
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ONE_HOP;
+		CrawlerConstants.MIN_DELAY = 1;
+		// room for the buffers of two plds only
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_READ_BUFFER = 2 * DiskBreadthFirstQueue.MIN_READ_BUFFER;
+
+		try {
+			final List<URI> li = new ArrayList<URI>();
+			for (int i = 0; i < 5; i++) {
+				for (int j = 0; j < 50; j++) {
+					li.add(new URI("http://pld" + i + ".org/" + j));
+				}
+			}
+			DiskBreadthFirstQueue q = new DiskBreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, false);
+			q.schedule(sorted(li));
+
+			List<URI> polled = new ArrayList<URI>();
+			URI u;
+			while ((u = q.poll()) != null) {
+				polled.add(u);
+				assertTrue(q._open.size() <= 2);
+			}
+
+			Collections.sort(li);
+			Collections.sort(polled);
+			assertEquals(li, polled);
+		} finally {
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = lifetime;
+			CrawlerConstants.MIN_DELAY = mindelay;
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_READ_BUFFER = readbuffer;
+		}
+	}
+
+	public void testDiskBreadthFirstQueueCrawlDelay() throws Exception {
+		CountLifeTime lifetime = CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME;
+		long mindelay = CrawlerConstants.MIN_DELAY;
+		CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = CountLifeTime.ONE_HOP;
+		CrawlerConstants.MIN_DELAY = 1;
+
+		try {
+			List<URI> li = new ArrayList<URI>();
+			for (int j = 0; j < 2; j++) {
+				li.add(new URI("http://a.org/" + j));
+				li.add(new URI("http://b.org/" + j));
+			}
+
+			DiskBreadthFirstQueue q = new DiskBreadthFirstQueue(new TldManager(), new DummyRedirects(), new HashSetSeen(), -1, false);
+			q.schedule(sorted(li));
+
+			q.setCrawlDelay(new URI("http://a.org/"), 300);
+
+			URI first = q.poll();
+			URI second = q.poll();
+			assertFalse(first.getHost().equals(second.getHost()));
+
+			// b.org is due again right away, a.org only after its crawl delay
+			long time = System.currentTimeMillis();
+			assertEquals("b.org", q.poll().getHost());
+			assertEquals("a.org", q.poll().getHost());
+			assertTrue(System.currentTimeMillis() - time >= 250);
+
+			assertNull(q.poll());
+		} finally {
+			CrawlerConstants.DISKBREADTHFIRSTQUEUE_COUNTLIFETIME = lifetime;
+			CrawlerConstants.MIN_DELAY = mindelay;
+		}
+	}
+
+	/**
+	 * A frontier that iterates over the URIs sorted.
+	 */
+	static Frontier sorted(final List<URI> li) {
+		Collections.sort(li);
+
+		return new Frontier() {
+			public void add(URI u) {
+				li.add(u);
+			}
+
+			public void removeAll(Collection<URI> c) {
+				li.removeAll(c);
+			}
+
+			public void reset() {
+				;
+			}
+
+			public Iterator<URI> iterator() {
+				return li.iterator();
+			}
+		};
+	}
+}
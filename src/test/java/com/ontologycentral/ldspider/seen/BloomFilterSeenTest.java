@@ -0,0 +1,65 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+public class BloomFilterSeenTest extends TestCase {
+	public void testPrefilter() throws Exception {
+		HashSetSeen hs = new HashSetSeen();
+		hs.add(new URI("http://a.org/before"));
+
+		// sized for far fewer uris than added, so the filter grows
+		BloomFilterSeen seen = new BloomFilterSeen(hs, 100, 0.01);
+		assertTrue(seen.hasBeenSeen(new URI("http://a.org/before")));
+
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(seen.add(new URI("http://a.org/" + i)));
+		}
+		assertFalse(seen.add(new URI("http://a.org/0")));
+		assertTrue(seen._filter.getFilters() > 1);
+
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(seen.hasBeenSeen(new URI("http://a.org/" + i)));
+		}
+		assertEquals(10001, seen.getHits());
+
+		for (int i = 0; i < 10000; i++) {
+			assertFalse(seen.hasBeenSeen(new URI("http://b.org/" + i)));
+		}
+		assertEquals(10000, seen.getNegatives() + seen.getFalsePositives());
+		// stays below the probability asked for, with some slack
+		assertTrue(seen.getFalsePositives() < 200);
+	}
+
+	public void testNotIterable() throws Exception {
+		// empty, so nothing is lost
+		FingerprintSeen fs = new FingerprintSeen(1000);
+		BloomFilterSeen seen = new BloomFilterSeen(fs, 100, 0.01);
+		seen.add(new URI("http://a.org/"));
+		assertTrue(seen.hasBeenSeen(new URI("http://a.org/")));
+
+		// the uris held would not be taken as seen
+		try {
+			new BloomFilterSeen(fs, 100, 0.01);
+			fail();
+		} catch (IllegalArgumentException e) {
+			;
+		}
+	}
+
+	public void testScalableBloomFilter() {
+		ScalableBloomFilter f = new ScalableBloomFilter(10, 0.01);
+
+		for (long i = 1; i <= 1000; i++) {
+			assertTrue(f.add(FingerprintSeen.fingerprint("u" + i)) || f.mightContain(FingerprintSeen.fingerprint("u" + i)));
+		}
+		for (long i = 1; i <= 1000; i++) {
+			assertTrue(f.mightContain(FingerprintSeen.fingerprint("u" + i)));
+			assertFalse(f.add(FingerprintSeen.fingerprint("u" + i)));
+		}
+
+		// 10, 20, 40, ... 640
+		assertEquals(7, f.getFilters());
+	}
+}
@@ -0,0 +1,101 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.File;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class DiskSeenTest extends TestCase {
+	File _dir;
+
+	protected void setUp() throws Exception {
+		_dir = File.createTempFile("seen", "");
+		_dir.delete();
+	}
+
+	protected void tearDown() {
+		if (_dir.listFiles() != null) {
+			for (File f : _dir.listFiles()) {
+				f.delete();
+			}
+		}
+		_dir.delete();
+	}
+
+	static URI uri(int i) throws Exception {
+		return new URI("http://pld" + (i % 7) + ".org/" + i + "/ä");
+	}
+
+	public void testRunsAndMerges() throws Exception {
+		DiskSeen seen = new DiskSeen(_dir, 10);
+
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(seen.add(uri(i)));
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertFalse(seen.add(uri(i)));
+			assertTrue(seen.hasBeenSeen(uri(i)));
+		}
+		assertFalse(seen.hasBeenSeen(uri(1000)));
+		assertFalse(seen.hasBeenSeen(new URI("http://a.org/")));
+		assertFalse(seen.hasBeenSeen(new URI("http://zzz.org/")));
+
+		seen.close();
+
+		assertEquals(1000, seen.size());
+		// 100 runs of level 0 merge into fewer runs of higher levels
+		assertTrue(seen.getRuns() < 100);
+
+		Set<URI> all = new HashSet<URI>();
+		int n = 0;
+		for (URI u : seen) {
+			all.add(u);
+			n++;
+		}
+		assertEquals(1000, n);
+		assertEquals(1000, all.size());
+
+		// the runs are read again
+		DiskSeen reopened = new DiskSeen(_dir, 10);
+		assertEquals(1000, reopened.size());
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(reopened.hasBeenSeen(uri(i)));
+		}
+		assertFalse(reopened.hasBeenSeen(uri(1000)));
+		assertTrue(reopened.add(uri(1000)));
+		reopened.close();
+	}
+
+	public void testConcurrentAdds() throws Exception {
+		final DiskSeen seen = new DiskSeen(_dir, 50);
+		final AtomicInteger added = new AtomicInteger(0);
+
+		Thread[] ts = new Thread[4];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 2000; j++) {
+							if (seen.add(uri(j))) {
+								added.incrementAndGet();
+							}
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		seen.close();
+
+		assertEquals(2000, added.get());
+		assertEquals(2000, seen.size());
+	}
+}
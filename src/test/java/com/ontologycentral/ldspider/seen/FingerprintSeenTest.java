@@ -0,0 +1,77 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class FingerprintSeenTest extends TestCase {
+	public void testAddAndGrow() throws Exception {
+		// far fewer slots than uris, so the stripes grow
+		FingerprintSeen seen = new FingerprintSeen(10, 3);
+		assertEquals(4, seen._stripes.length);
+
+		for (int i = 0; i < 10000; i++) {
+			assertTrue(seen.add(new URI("http://pld" + (i % 100) + ".org/" + i)));
+		}
+		for (int i = 0; i < 10000; i++) {
+			assertFalse(seen.add(new URI("http://pld" + (i % 100) + ".org/" + i)));
+			assertTrue(seen.hasBeenSeen(new URI("http://pld" + (i % 100) + ".org/" + i)));
+		}
+		assertFalse(seen.hasBeenSeen(new URI("http://pld0.org/10000")));
+
+		assertEquals(10000, seen.size());
+		assertTrue(seen.getMemory() >= 8 * 10000 / FingerprintSeen.LOAD);
+
+		List<URI> li = new ArrayList<URI>();
+		li.add(new URI("http://a.org/"));
+		li.add(new URI("http://b.org/"));
+		assertTrue(seen.add(li));
+		li.add(new URI("http://c.org/"));
+		assertFalse(seen.add(li));
+		assertTrue(seen.hasBeenSeen(new URI("http://c.org/")));
+	}
+
+	public void testProbabilities() throws Exception {
+		FingerprintSeen seen = new FingerprintSeen();
+		assertEquals(0.0, seen.getCollisionProbability());
+
+		for (int i = 0; i < 1000; i++) {
+			seen.add(new URI("http://a.org/" + i));
+		}
+
+		assertEquals(1000 / Math.pow(2, 64), seen.getFalsePositiveProbability(), 1e-30);
+		assertEquals(1000 * 999 / Math.pow(2, 65), seen.getCollisionProbability(), 1e-25);
+	}
+
+	public void testConcurrentAdds() throws Exception {
+		final FingerprintSeen seen = new FingerprintSeen(100, 4);
+		final AtomicInteger added = new AtomicInteger(0);
+
+		Thread[] ts = new Thread[8];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 5000; j++) {
+							if (seen.add(new URI("http://a.org/" + j))) {
+								added.incrementAndGet();
+							}
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+
+		assertEquals(5000, added.get());
+		assertEquals(5000, seen.size());
+	}
+}
@@ -0,0 +1,125 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.Flushable;
+import java.net.URI;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.semanticweb.yars.nx.Node;
+import org.semanticweb.yars.nx.parser.Callback;
+
+public class SeenLogWriterTest extends TestCase {
+	static class Collecting implements Callback, Flushable {
+		final Set<String> _lines = new HashSet<String>();
+		final AtomicInteger _flushes = new AtomicInteger(0);
+		int _statements;
+
+		public void startDocument() {
+		}
+
+		public void endDocument() {
+		}
+
+		public void processStatement(Node[] nx) {
+			_lines.add(nx[0].toString());
+			_statements++;
+		}
+
+		public void flush() {
+			_flushes.incrementAndGet();
+		}
+	}
+
+	public void testConcurrentAdds() throws Exception {
+		final Collecting log = new Collecting();
+		// a small ring, such that the adding threads have to wait
+		final WrappingCallbackSeen seen = new WrappingCallbackSeen(new HashSetSeen(), log, log, 16, 10);
+
+		Thread[] ts = new Thread[4];
+		for (int i = 0; i < ts.length; i++) {
+			final int t = i;
+			ts[i] = new Thread() {
+				public void run() {
+					try {
+						for (int j = 0; j < 5000; j++) {
+							seen.add(new URI("http://a.org/" + t + "/" + j));
+						}
+					} catch (Exception e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			ts[i].start();
+		}
+		for (Thread t : ts) {
+			t.join();
+		}
+		seen.close();
+
+		assertEquals(20000, log._statements);
+		assertEquals(20000, log._lines.size());
+		assertTrue(log._lines.contains("http://a.org/3/4999"));
+		assertTrue(log._flushes.get() > 0);
+	}
+
+	public void testCloseWhileAdding() throws Exception {
+		for (int round = 0; round < 20; round++) {
+			final Collecting log = new Collecting();
+			final SeenLogWriter w = new SeenLogWriter(log, log, 16, 10);
+			final AtomicInteger added = new AtomicInteger(0);
+
+			Thread[] ts = new Thread[4];
+			for (int i = 0; i < ts.length; i++) {
+				final int t = i;
+				ts[i] = new Thread() {
+					public void run() {
+						try {
+							for (int j = 0; ; j++) {
+								w.add(new URI("http://a.org/" + t + "/" + j));
+								added.incrementAndGet();
+							}
+						} catch (IllegalStateException e) {
+							;
+						} catch (Exception e) {
+							throw new RuntimeException(e);
+						}
+					}
+				};
+				ts[i].start();
+			}
+			Thread.sleep(2);
+			w.close();
+			for (Thread t : ts) {
+				t.join();
+			}
+
+			// whatever was handed over before closing is written
+			assertEquals(added.get(), log._statements);
+			assertEquals(added.get(), w.getWritten());
+		}
+	}
+
+	public void testFlushInterval() throws Exception {
+		Collecting log = new Collecting();
+		SeenLogWriter w = new SeenLogWriter(log, log, 1024, 20);
+
+		w.add(new URI("http://a.org/"));
+		for (int i = 0; i < 100 && log._flushes.get() == 0; i++) {
+			Thread.sleep(10);
+		}
+		// flushed without more coming in or closing
+		assertEquals(1, log._flushes.get());
+
+		w.close();
+		assertEquals(1, w.getWritten());
+		try {
+			w.add(new URI("http://b.org/"));
+			fail();
+		} catch (IllegalStateException e) {
+			;
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.ontologycentral.ldspider.seen;
+
+import java.io.File;
+import java.net.URI;
+
+import junit.framework.TestCase;
+
+public class SnapshotSeenTest extends TestCase {
+	File _file;
+
+	protected void setUp() throws Exception {
+		_file = File.createTempFile("seen", ".snap");
+	}
+
+	protected void tearDown() {
+		_file.delete();
+	}
+
+	public void testSnapshot() throws Exception {
+		SnapshotSeen.Writer w = new SnapshotSeen.Writer(_file);
+		for (int i = 0; i < 10000; i++) {
+			w.add("http://pld" + (i % 10) + ".org/" + i);
+		}
+		// duplicates are written once
+		w.add("http://pld0.org/0");
+		w.close();
+
+		assertTrue(SnapshotSeen.isSnapshot(_file));
+		assertEquals(16 + 8 * 10000, _file.length());
+
+		SnapshotSeen seen = new SnapshotSeen(_file, new HashSetSeen());
+		assertEquals(10000, seen.size());
+		for (int i = 0; i < 10000; i++) {
+			URI u = new URI("http://pld" + (i % 10) + ".org/" + i);
+			assertTrue(seen.hasBeenSeen(u));
+			assertFalse(seen.add(u));
+		}
+
+		URI u = new URI("http://pld0.org/10000");
+		assertFalse(seen.hasBeenSeen(u));
+		assertTrue(seen.add(u));
+		assertTrue(seen.hasBeenSeen(u));
+		assertTrue(seen.getSeen().hasBeenSeen(u));
+		assertFalse(seen.add(u));
+
+		FingerprintSeen fs = new FingerprintSeen(100, 4);
+		assertEquals(10000, seen.load(fs));
+		assertTrue(fs.hasBeenSeen(new URI("http://pld9.org/9999")));
+		assertFalse(fs.hasBeenSeen(new URI("http://pld0.org/10000")));
+		seen.close();
+	}
+
+	public void testNotASnapshot() throws Exception {
+		assertFalse(SnapshotSeen.isSnapshot(_file));
+		try {
+			new SnapshotSeen(_file, new HashSetSeen());
+			fail();
+		} catch (java.io.IOException e) {
+			;
+		}
+	}
+
+	public void testEmpty() throws Exception {
+		SnapshotSeen.Writer w = new SnapshotSeen.Writer(_file);
+		w.close();
+
+		SnapshotSeen empty = new SnapshotSeen(_file, new HashSetSeen());
+		assertEquals(0, empty.size());
+		assertFalse(empty.hasBeenSeen(new URI("http://a.org/")));
+		empty.close();
+	}
+}